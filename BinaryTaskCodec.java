@@ -0,0 +1,156 @@
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * This class stores a task list in a compact binary format that is read without any parsing. The
+ * file starts with a header of a magic number, the format version, and the number of tasks, each an
+ * int. Every task follows as a record with a fixed-layout head, the ID (int), the status (one byte,
+ * the ordinal of Task.Status), the creation and update dates (int days since the epoch), and the
+ * length of the description in bytes (int), followed by the description in UTF-8.
+ *
+ * <p>All numbers are big-endian. A missing date is stored as NO_DATE and a missing description as
+ * length -1.
+ *
+ * @author Muhammad Almorshidi
+ */
+public class BinaryTaskCodec implements TaskCodec {
+  /** The extension of files in this format. */
+  public static final String EXTENSION = ".tasks";
+
+  /** The magic number at the start of every file, "TSKB". */
+  private static final int MAGIC = 0x54534B42;
+
+  /** The version of the format written by this class. */
+  private static final int VERSION = 1;
+
+  /** The size of the file header in bytes. */
+  private static final int HEADER_SIZE = 12;
+
+  /** The size of the fixed-layout head of a record in bytes. */
+  private static final int RECORD_HEAD_SIZE = 17;
+
+  /** The value stored in place of a missing date. */
+  private static final int NO_DATE = Integer.MIN_VALUE;
+
+  /** The statuses by ordinal, as stored in the status byte. */
+  private static final Task.Status[] STATUSES = Task.Status.values();
+
+  /**
+   * Writes a complete task list in the binary format.
+   *
+   * @param fileName the name of the file
+   * @param tasks the tasks to write, in order
+   * @throws Exception if there is an error writing the file
+   */
+  @Override
+  public void write(String fileName, Collection<Task> tasks) throws Exception {
+    List<byte[]> descriptions = new ArrayList<>(tasks.size());
+    long size = HEADER_SIZE;
+    for (Task task : tasks) {
+      byte[] description =
+          task.getDescription() == null
+              ? null
+              : task.getDescription().getBytes(StandardCharsets.UTF_8);
+      descriptions.add(description);
+      size += RECORD_HEAD_SIZE + (description == null ? 0 : description.length);
+    }
+    if (size > Integer.MAX_VALUE) {
+      throw new Exception("Task list too large for the binary format.");
+    }
+    ByteBuffer buffer = ByteBuffer.allocate((int) size);
+    buffer.putInt(MAGIC).putInt(VERSION).putInt(tasks.size());
+    int i = 0;
+    for (Task task : tasks) {
+      byte[] description = descriptions.get(i++);
+      buffer
+          .putInt(task.getId())
+          .put((byte) task.getStatus().ordinal())
+          .putInt(toEpochDay(task.getCreatedAt()))
+          .putInt(toEpochDay(task.getUpdatedAt()))
+          .putInt(description == null ? -1 : description.length);
+      if (description != null) {
+        buffer.put(description);
+      }
+    }
+    JsonUtil.replaceFile(fileName, buffer.flip());
+  }
+
+  /**
+   * Reads a complete task list from the binary format through a memory mapping.
+   *
+   * @param fileName the name of the file
+   * @return the tasks in the file, in order
+   * @throws Exception if the file cannot be read or is not in the binary format
+   */
+  @Override
+  public List<Task> read(String fileName) throws Exception {
+    MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(Path.of(fileName), StandardOpenOption.READ)) {
+      if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+        throw new Exception("Not a binary task file: " + fileName);
+      }
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    if (buffer.getInt() != MAGIC) {
+      throw new Exception("Not a binary task file: " + fileName);
+    }
+    int version = buffer.getInt();
+    if (version != VERSION) {
+      throw new Exception("Unsupported binary task file version " + version + ".");
+    }
+    int count = buffer.getInt();
+    List<Task> tasks = new ArrayList<>(count);
+    byte[] bytes = new byte[256];
+    for (int i = 0; i < count; i++) {
+      int id = buffer.getInt();
+      byte status = buffer.get();
+      int createdAt = buffer.getInt();
+      int updatedAt = buffer.getInt();
+      int length = buffer.getInt();
+      String description = null;
+      if (length >= 0) {
+        if (length > bytes.length) {
+          bytes = new byte[Math.max(length, bytes.length * 2)];
+        }
+        buffer.get(bytes, 0, length);
+        description = new String(bytes, 0, length, StandardCharsets.UTF_8);
+      }
+      tasks.add(
+          new Task(
+              id,
+              status >= 0 && status < STATUSES.length ? STATUSES[status] : Task.Status.UNKNOWN,
+              fromEpochDay(createdAt),
+              fromEpochDay(updatedAt),
+              description));
+    }
+    return tasks;
+  }
+
+  /**
+   * Converts a date to the number stored for it.
+   *
+   * @param date the date, or null
+   * @return the days since the epoch, or NO_DATE for null
+   */
+  private static int toEpochDay(LocalDate date) {
+    return date == null ? NO_DATE : (int) date.toEpochDay();
+  }
+
+  /**
+   * Converts a stored number back to a date.
+   *
+   * @param epochDay the days since the epoch, or NO_DATE
+   * @return the date, or null for NO_DATE
+   */
+  private static LocalDate fromEpochDay(int epochDay) {
+    return epochDay == NO_DATE ? null : LocalDate.ofEpochDay(epochDay);
+  }
+}
@@ -0,0 +1,254 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class hands out unique task IDs, both to the threads of one process and across processes
+ * that share a config file. The first line of the config file holds the lowest ID no process has
+ * reserved yet. A process reserves a block of IDs by advancing that number while holding a lock on
+ * the file, and then hands the IDs of the block out from memory with a compare-and-set, without
+ * touching the file.
+ *
+ * <p>The first block of a process holds a single ID, and each following block is twice as large,
+ * up to MAX_BLOCK_SIZE, so a one-off add reserves exactly what it uses while a batch or server
+ * touches the file about once per thousand adds. When the process exits, the unused rest of its
+ * last block is given back if no other process has reserved IDs since.
+ *
+ * <p>Every write to the config file goes through this class, including pointing it at another
+ * task list, and is a read-modify-write under that lock. The lock is taken on a separate lock file
+ * through TaskFileLock, as for a task file, so the config file itself can be replaced atomically
+ * like every other file: a crash leaves either the old or the new content, and readers need no
+ * lock.
+ *
+ * <p>The first reservation also makes sure the IDs handed out are above every ID in the task file,
+ * which repairs a config file that was lost, truncated, or restored from an old copy. It reads the
+ * index of the task file before it locks the config file and checks under that lock that the
+ * config file still names the same task list. A batch or server reserves IDs while it holds the
+ * lock of its task file, so a task file is never locked while the config file is.
+ *
+ * @author Muhammad Almorshidi
+ */
+public class IdAllocator {
+  /** The largest number of IDs reserved at once. */
+  public static final int MAX_BLOCK_SIZE = 1000;
+
+  /** The name of the config file whose first line is the next unreserved ID. */
+  private final String configFileName;
+
+  /** The next ID to hand out from the current block. */
+  private final AtomicInteger next = new AtomicInteger();
+
+  /** The end of the current block, exclusive. No ID at or above it may be handed out. */
+  private volatile int blockEnd;
+
+  /** The number of IDs to reserve next time. */
+  private int blockSize = 1;
+
+  /** Whether the next ID has been checked against the task file yet. */
+  private boolean recovered;
+
+  /** Whether the shutdown hook that gives back unused IDs has been registered. */
+  private boolean releaseRegistered;
+
+  /**
+   * Creates an allocator backed by a config file. Nothing is read until the first ID is needed.
+   *
+   * @param configFileName the name of the config file
+   */
+  public IdAllocator(String configFileName) {
+    this.configFileName = configFileName;
+  }
+
+  /**
+   * Hands out the next ID, reserving a new block first if the current one is used up.
+   *
+   * @return a new unique ID
+   * @throws Exception if there is an error reading or writing the config file
+   */
+  public int next() throws Exception {
+    while (true) {
+      int id = next.get();
+      if (id < blockEnd) {
+        if (next.compareAndSet(id, id + 1)) {
+          return id;
+        }
+      } else {
+        synchronized (this) {
+          if (next.get() >= blockEnd) {
+            reserve();
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Gives the unused IDs of the current block back, if no other process has reserved IDs after
+   * it. The allocator can still be used afterwards; it will reserve a new block.
+   *
+   * @throws IOException if there is an error reading or writing the config file
+   */
+  public synchronized void release() throws IOException {
+    int end = blockEnd;
+    int unused = next.getAndSet(end);
+    if (unused >= end) {
+      return;
+    }
+    try (TaskFileLock lock = TaskFileLock.exclusive(configFileName)) {
+      String[] lines = readConfig(configFileName);
+      if (parseNextId(lines) == end) {
+        writeConfig(configFileName, unused, lines);
+      }
+    }
+  }
+
+  /**
+   * Points a config file at another task list and keeps its next ID. Like every other write to
+   * the config file, this is a read-modify-write under its exclusive lock, so it cannot lose a
+   * reservation made in the meantime. A missing config file is created, starting from ID 1.
+   *
+   * @param configFileName the name of the config file
+   * @param fileLine the second line: the name of the task file, or the directory of the shards
+   * @param layoutLine the third line, which records the layout of shards, or null for a single
+   *     task file
+   * @throws IOException if there is an error reading or writing the config file
+   */
+  public static void rewriteConfig(String configFileName, String fileLine, String layoutLine)
+      throws IOException {
+    try (TaskFileLock lock = TaskFileLock.exclusive(configFileName)) {
+      int nextId =
+          Files.exists(Path.of(configFileName))
+              ? Math.max(parseNextId(readConfig(configFileName)), 1)
+              : 1;
+      String[] lines =
+          layoutLine == null
+              ? new String[] {"", fileLine}
+              : new String[] {"", fileLine, layoutLine};
+      writeConfig(configFileName, nextId, lines);
+    }
+  }
+
+  /**
+   * Reads the lines of a config file. No lock is needed, since the file is only ever replaced as a
+   * whole.
+   *
+   * @param configFileName the name of the config file
+   * @return the lines of the file
+   * @throws IOException if there is an error reading the config file
+   */
+  public static String[] readConfig(String configFileName) throws IOException {
+    byte[] content = Files.readAllBytes(Path.of(configFileName));
+    return new String(content, StandardCharsets.UTF_8).split("\n", -1);
+  }
+
+  /**
+   * Reserves the next block of IDs by advancing the config file under an exclusive lock.
+   *
+   * @throws Exception if there is an error reading or writing the config or task file
+   */
+  private void reserve() throws Exception {
+    int start;
+    int end;
+    String[] checked = recovered ? null : readConfig(configFileName);
+    while (true) {
+      int floor = checked != null && checked.length > 1 ? firstIdAfterTaskList(checked) : 1;
+      try (TaskFileLock lock = TaskFileLock.exclusive(configFileName)) {
+        String[] lines = readConfig(configFileName);
+        if (checked != null && !Arrays.equals(lines, 1, lines.length, checked, 1, checked.length)) {
+          checked = lines; // pointed at another task list in the meantime
+          continue;
+        }
+        start = Math.max(Math.max(parseNextId(lines), 1), floor);
+        recovered |= lines.length > 1;
+        end = start + blockSize;
+        writeConfig(configFileName, end, lines);
+        break;
+      }
+    }
+    blockSize = Math.min(blockSize * 2, MAX_BLOCK_SIZE);
+    next.set(start);
+    blockEnd = end;
+    if (!releaseRegistered) {
+      releaseRegistered = true;
+      Runtime.getRuntime().addShutdownHook(new Thread(this::releaseQuietly));
+    }
+  }
+
+  /**
+   * Gives unused IDs back when the process exits, ignoring errors since nothing can be done then.
+   */
+  private void releaseQuietly() {
+    try {
+      release();
+    } catch (IOException e) {
+      // The IDs are simply skipped.
+    }
+  }
+
+  /**
+   * Returns the ID after the highest one the task list named in the config file has ever seen. For
+   * a sharded task list, that is the highest one the last shard has seen.
+   *
+   * @param lines the lines of the config file
+   * @return the first ID that is safe to hand out, or 1 if there is no task file
+   * @throws Exception if there is an error listing the shards or opening an index
+   */
+  private static int firstIdAfterTaskList(String[] lines) throws Exception {
+    TaskShards shards = TaskShards.fromConfig(lines[1], lines.length > 2 ? lines[2] : null);
+    if (shards == null) {
+      return firstIdAfterTaskFile(lines[1].trim());
+    }
+    List<String> files = shards.files();
+    return files.isEmpty() ? 1 : firstIdAfterTaskFile(files.get(files.size() - 1));
+  }
+
+  /**
+   * Returns the ID after the highest one the index of a task file has ever seen.
+   *
+   * @param jsonFileName the name of the task file
+   * @return the first ID that is safe to hand out, or 1 if the task file does not exist
+   * @throws Exception if there is an error opening the index
+   */
+  private static int firstIdAfterTaskFile(String jsonFileName) throws Exception {
+    if (!Files.exists(Path.of(jsonFileName))) {
+      return 1;
+    }
+    try (TaskFileLock lock = TaskFileLock.shared(jsonFileName);
+        TaskIndex index = TaskIndex.open(jsonFileName)) {
+      return Math.max(index.capacity(), 1);
+    }
+  }
+
+  /**
+   * Parses the next ID from the lines of the config file.
+   *
+   * @param lines the lines of the config file
+   * @return the next ID, or 0 if the first line is missing or not a number
+   */
+  private static int parseNextId(String[] lines) {
+    try {
+      return Integer.parseInt(lines[0].trim());
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Replaces the first line of the config file. The file is replaced as a whole, so a crash leaves
+   * either the old or the new content. The caller must hold the exclusive lock on it.
+   *
+   * @param configFileName the name of the config file
+   * @param nextId the new next ID
+   * @param lines the current lines of the file
+   * @throws IOException if there is an error writing the file
+   */
+  private static void writeConfig(String configFileName, int nextId, String[] lines)
+      throws IOException {
+    lines[0] = Integer.toString(nextId);
+    JsonUtil.replaceFile(configFileName, String.join("\n", lines));
+  }
+}
@@ -0,0 +1,44 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * This class stores a task list in the JSON array format of the live task file, one object per
+ * line. Reading goes through a memory mapping and the streaming parser.
+ *
+ * @author Muhammad Almorshidi
+ */
+public class JsonTaskCodec implements TaskCodec {
+  /** The extension of files in this format. */
+  public static final String EXTENSION = ".json";
+
+  /**
+   * Writes a complete task list as a JSON array.
+   *
+   * @param fileName the name of the file
+   * @param tasks the tasks to write, in order
+   * @throws Exception if there is an error writing the file
+   */
+  @Override
+  public void write(String fileName, Collection<Task> tasks) throws Exception {
+    JsonUtil.writeTaskFile(fileName, tasks);
+  }
+
+  /**
+   * Reads a complete task list from a JSON array.
+   *
+   * @param fileName the name of the file
+   * @return the tasks in the file, in order
+   * @throws Exception if there is an error reading or parsing the file
+   */
+  @Override
+  public List<Task> read(String fileName) throws Exception {
+    List<Task> tasks = new ArrayList<>();
+    try (MappedTaskFile file = MappedTaskFile.open(fileName)) {
+      while (file.next()) {
+        tasks.add(file.task());
+      }
+    }
+    return tasks;
+  }
+}
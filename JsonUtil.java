@@ -1,5 +1,16 @@
 import java.io.File;
-import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Scanner;
 
 /**
@@ -8,9 +19,23 @@ import java.util.Scanner;
  * delete JSON objects from the file. The methods are static and can be used without creating an
  * instance of the class.
  *
+ * <p>The methods of this class never overwrite a file in place. Every write goes to a temporary
+ * file in the same directory that is then moved over the original, so a crash leaves either the
+ * old or the new content and never a truncated file. When SYNC is set, the temporary file and the
+ * directory are also forced to disk, so the new content survives a power failure once the write
+ * returns. The config file is written the same way, by IdAllocator. The one change made to a file
+ * in place is the status patch of TaskLog, which writes a few bytes within one disk sector and so
+ * also leaves either the old or the new task.
+ *
  * @author Muhammad Almorshidi
  */
 public class JsonUtil {
+  /**
+   * Whether writes are forced to disk before they return. Off by default; enabled by running with
+   * -Dtaskcli.sync=true.
+   */
+  public static final boolean SYNC = Boolean.getBoolean("taskcli.sync");
+
   /**
    * Initialize a JSON file to store an array of JSON objects. If the file does not exist, it will
    * be created. If the file already exists, it will not be changed.
@@ -21,9 +46,7 @@ public class JsonUtil {
   public static void initJsonFile(String jsonFileName) throws Exception {
     File file = new File(jsonFileName);
     if (!file.exists()) {
-      FileWriter fileWriter = new FileWriter(jsonFileName);
-      fileWriter.write("[\n]");
-      fileWriter.close();
+      replaceFile(jsonFileName, "[\n]");
     }
   }
 
@@ -37,20 +60,143 @@ public class JsonUtil {
    * @throws Exception if there is an error
    */
   public static String[] readJsonFileAsObjects(String jsonFileName) throws Exception {
-    File file = new File(jsonFileName);
-    Scanner fileScanner = new Scanner(file);
-    StringBuilder content = new StringBuilder();
-    while (fileScanner.hasNextLine()) {
-      content.append(fileScanner.nextLine().trim());
+    TaskMetrics.count("bytes.read", new File(jsonFileName).length());
+    List<String> objects = new ArrayList<>();
+    try (TaskParser parser = new TaskParser(Files.newBufferedReader(Path.of(jsonFileName)))) {
+      String object;
+      while ((object = parser.nextObject()) != null) {
+        objects.add(object);
+      }
     }
-    fileScanner.close();
-    String[] objects =
-        content.toString().substring(1, content.length() - 1).trim().split("(?<=\\}),(?=\\{)");
-    if (objects.length == 1 && objects[0].trim().equals("")) {
-      return new String[0];
+    return objects.toArray(new String[0]);
+  }
+
+  /**
+   * Writes a JSON file containing the given JSON objects as an array, replacing its previous
+   * content. The objects are laid out the same way as by addJsonObject, one per line.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @param jsonObjects the JSON objects to write, in order
+   * @throws Exception if there is an error writing to the file
+   */
+  public static void writeJsonFile(String jsonFileName, Collection<String> jsonObjects)
+      throws Exception {
+    StringBuilder content = new StringBuilder("[\n");
+    for (String jsonObject : jsonObjects) {
+      if (content.length() > 2) {
+        content.append(",\n");
+      }
+      content.append("    ").append(jsonObject);
+    }
+    content.append(jsonObjects.isEmpty() ? "]" : "\n]");
+    replaceFile(jsonFileName, content);
+  }
+
+  /**
+   * Replaces the content of a file atomically: the content is written to a new temporary file with
+   * a unique name next to it, forced to disk if SYNC is set, and moved over the original in one
+   * step. Since every write has a temporary file of its own, two writers never share one.
+   *
+   * @param fileName the name of the file to replace or create
+   * @param content the new content of the file
+   * @throws IOException if there is an error writing or moving the file
+   */
+  public static void replaceFile(String fileName, CharSequence content) throws IOException {
+    replaceFile(fileName, StandardCharsets.UTF_8.encode(CharBuffer.wrap(content)));
+  }
+
+  /**
+   * Writes a task list as a task file, replacing its previous content. The tasks are serialized by
+   * TaskJsonWriter straight into the temporary file, a chunk at a time, so no String is built for
+   * a task or for the whole file.
+   *
+   * @param jsonFileName the name of the task file
+   * @param tasks the tasks to write, in order
+   * @throws IOException if there is an error writing or moving the file
+   */
+  public static void writeTaskFile(String jsonFileName, Collection<Task> tasks)
+      throws IOException {
+    replaceFile(jsonFileName, channel -> TaskJsonWriter.writeArray(channel, tasks));
+  }
+
+  /**
+   * Replaces the content of a file atomically with the remaining bytes of a buffer, the same way
+   * as the text version.
+   *
+   * @param fileName the name of the file to replace or create
+   * @param bytes the new content of the file
+   * @throws IOException if there is an error writing or moving the file
+   */
+  public static void replaceFile(String fileName, ByteBuffer bytes) throws IOException {
+    replaceFile(
+        fileName,
+        channel -> {
+          long written = bytes.remaining();
+          while (bytes.hasRemaining()) {
+            channel.write(bytes);
+          }
+          return written;
+        });
+  }
+
+  /** Writes the new content of a file to the channel of the temporary file. */
+  public interface Content {
+    /**
+     * Writes the content.
+     *
+     * @param channel the channel to write to
+     * @return the number of bytes written
+     * @throws IOException if there is an error writing
+     */
+    long writeTo(FileChannel channel) throws IOException;
+  }
+
+  /**
+   * Replaces the content of a file atomically with whatever a writer puts into it, the same way as
+   * the text version.
+   *
+   * @param fileName the name of the file to replace or create
+   * @param content the writer of the new content of the file
+   * @throws IOException if there is an error writing or moving the file
+   */
+  public static void replaceFile(String fileName, Content content) throws IOException {
+    Path target = Path.of(fileName).toAbsolutePath();
+    Path temporary =
+        Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+    try (TaskMetrics.Timer timer = TaskMetrics.time("file.replace")) {
+      try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+        TaskMetrics.count("bytes.written", content.writeTo(channel));
+        if (SYNC) {
+          channel.force(true);
+        }
+      }
+      Files.move(
+          temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+    if (SYNC) {
+      forceDirectory(target.getParent());
+    }
+  }
+
+  /**
+   * Forces the entries of a directory to disk, so that a file created, renamed, or deleted in it
+   * stays that way after a crash. Platforms that cannot open a directory are skipped.
+   *
+   * @param directory the directory to force
+   * @throws IOException if forcing the directory fails
+   */
+  public static void forceDirectory(Path directory) throws IOException {
+    FileChannel channel;
+    try {
+      channel = FileChannel.open(directory, StandardOpenOption.READ);
+    } catch (IOException e) {
+      return; // directories cannot be opened on this platform
+    }
+    try (channel) {
+      channel.force(true);
     }
-    for (int i = 0; i < objects.length; i++) objects[i] = objects[i].replace("},", "}");
-    return objects;
   }
 
   /**
@@ -65,7 +211,7 @@ public class JsonUtil {
   public static void addJsonObject(String jsonFileName, String jsonObject) throws Exception {
     File file = new File(jsonFileName);
     StringBuilder content = new StringBuilder();
-    try (Scanner fileScanner = new Scanner(file)) {
+    try (Scanner fileScanner = new Scanner(file, StandardCharsets.UTF_8)) {
       while (fileScanner.hasNextLine()) {
         content.append(fileScanner.nextLine() + "\n");
       }
@@ -76,9 +222,7 @@ public class JsonUtil {
     } else {
       content.insert(content.length() - 2, ",\n" + "    " + jsonObject);
     }
-    try (FileWriter fileWriter = new FileWriter(file)) {
-      fileWriter.write(content.toString());
-    }
+    replaceFile(jsonFileName, content);
   }
 
   /**
@@ -92,10 +236,16 @@ public class JsonUtil {
   public static String accessJsonObject(String jsonFileName, int id) throws Exception {
     String[] objects = readJsonFileAsObjects(jsonFileName);
 
-    for (String obj : objects) {
-      if ((int) Task.getField(obj, "ID") == id) {
-        return obj;
+    int scanned = 0;
+    try {
+      for (String obj : objects) {
+        scanned++;
+        if ((int) Task.getField(obj, "ID") == id) {
+          return obj;
+        }
       }
+    } finally {
+      TaskMetrics.count("lookup.scanned", scanned);
     }
     throw new Exception("Not Found");
   }
@@ -110,7 +260,7 @@ public class JsonUtil {
   public static void deleteJsonObject(String jsonFileName, String jsonObject) throws Exception {
     File file = new File(jsonFileName);
     StringBuilder content = new StringBuilder();
-    try (Scanner fileScanner = new Scanner(file)) {
+    try (Scanner fileScanner = new Scanner(file, StandardCharsets.UTF_8)) {
       while (fileScanner.hasNextLine()) {
         content.append(fileScanner.nextLine() + "\n");
       }
@@ -126,9 +276,7 @@ public class JsonUtil {
       endIndex++;
     }
     content.delete(startIndex, endIndex);
-    FileWriter fileWriter = new FileWriter(file);
-    fileWriter.write(content.toString());
-    fileWriter.close();
+    replaceFile(jsonFileName, content);
   }
 
   /**
@@ -143,17 +291,14 @@ public class JsonUtil {
       String jsonFileName, String oldJsonObject, String newJsonObject) throws Exception {
     File file = new File(jsonFileName);
     StringBuilder content = new StringBuilder();
-    try (Scanner fileScanner = new Scanner(file)) {
+    try (Scanner fileScanner = new Scanner(file, StandardCharsets.UTF_8)) {
       while (fileScanner.hasNextLine()) {
         content.append(fileScanner.nextLine() + "\n");
       }
       content.deleteCharAt(content.length() - 1);
     }
     int startIndex = content.indexOf(oldJsonObject);
-    int endIndex = content.indexOf("}", startIndex);
-    content.replace(startIndex, endIndex + 1, newJsonObject);
-    FileWriter fileWriter = new FileWriter(file);
-    fileWriter.write(content.toString());
-    fileWriter.close();
+    content.replace(startIndex, startIndex + oldJsonObject.length(), newJsonObject);
+    replaceFile(jsonFileName, content);
   }
 }
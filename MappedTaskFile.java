@@ -0,0 +1,230 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Predicate;
+
+/**
+ * This class reads a JSON task file through a memory mapping instead of a Reader. It scans the
+ * mapped bytes for the boundaries of the top-level objects of the array and hands each byte range
+ * to a reused TaskParser, so the file is never decoded to a String as a whole and the heap used
+ * does not depend on the size of the file. Files larger than one mapping are read through a window
+ * that moves forward one object boundary at a time.
+ *
+ * <p>Typical use is a loop over next(), reading the offset, length, ID, or whole task of each
+ * object as needed.
+ *
+ * @author Muhammad Almorshidi
+ */
+public class MappedTaskFile implements AutoCloseable {
+  /** The largest number of bytes mapped at once. */
+  private static final long WINDOW_SIZE = 256L * 1024 * 1024;
+
+  /** The open task file. */
+  private final FileChannel channel;
+
+  /** The size of the task file. */
+  private final long size;
+
+  /** The parser reused for every object. */
+  private final TaskParser parser;
+
+  /** The mapped part of the file. */
+  private MappedByteBuffer window;
+
+  /** The offset in the file of the first byte of the window. */
+  private long windowStart;
+
+  /** The index in the window where scanning for the next object resumes. */
+  private int scan;
+
+  /** The index in the window of the first byte of the current object. */
+  private int objectStart;
+
+  /** The index in the window after the last byte of the current object. */
+  private int objectEnd;
+
+  /**
+   * Creates a reader over an open task file and maps the window at an offset.
+   *
+   * @param channel the open task file
+   * @param start the offset in the file to start reading at
+   * @throws IOException if there is an error mapping the file
+   */
+  private MappedTaskFile(FileChannel channel, long start) throws IOException {
+    this.channel = channel;
+    this.size = channel.size();
+    map(start);
+    this.parser = new TaskParser(window);
+  }
+
+  /**
+   * Opens and maps a JSON task file for reading.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @return the open file, positioned before the first object
+   * @throws IOException if there is an error opening or mapping the file
+   */
+  public static MappedTaskFile open(String jsonFileName) throws IOException {
+    return open(jsonFileName, 0);
+  }
+
+  /**
+   * Opens and maps a JSON task file for reading from an offset, which must not be inside an
+   * object. This is how a file is read in parts.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @param start the offset in the file to start reading at
+   * @return the open file, positioned before the first object at or after the offset
+   * @throws IOException if there is an error opening or mapping the file
+   */
+  public static MappedTaskFile open(String jsonFileName, long start) throws IOException {
+    FileChannel channel = FileChannel.open(Path.of(jsonFileName), StandardOpenOption.READ);
+    try {
+      return new MappedTaskFile(channel, start);
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Advances to the next top-level object of the array.
+   *
+   * @return true if there is another object, false at the end of the file
+   * @throws IOException if there is an error mapping the next window
+   */
+  public boolean next() throws IOException {
+    while (true) {
+      int start = scan;
+      int limit = window.limit();
+      while (start < limit && window.get(start) != '{') {
+        start++;
+      }
+      int end = start < limit ? findObjectEnd(start) : -1;
+      if (end >= 0) {
+        objectStart = start;
+        objectEnd = end;
+        scan = end;
+        return true;
+      }
+      if (windowStart + limit >= size) {
+        if (start < limit) {
+          throw new IllegalArgumentException("Malformed task JSON: unterminated object.");
+        }
+        return false;
+      }
+      if (start == 0 && limit == WINDOW_SIZE) {
+        throw new IllegalArgumentException("Task object larger than the mapping window.");
+      }
+      map(windowStart + start);
+    }
+  }
+
+  /**
+   * Returns the byte offset in the file of the current object.
+   *
+   * @return the offset of the opening brace
+   */
+  public long offset() {
+    return windowStart + objectStart;
+  }
+
+  /**
+   * Returns the length in bytes of the current object.
+   *
+   * @return the number of bytes from the opening to the closing brace, inclusive
+   */
+  public int length() {
+    return objectEnd - objectStart;
+  }
+
+  /**
+   * Parses only the ID of the current object.
+   *
+   * @return the ID of the current task
+   * @throws IOException if the parser fails to read the object
+   */
+  public int id() throws IOException {
+    parser.reset(window, objectStart, objectEnd);
+    return (int) parser.nextField("ID");
+  }
+
+  /**
+   * Parses the current object into a Task.
+   *
+   * @return the current task
+   * @throws IOException if the parser fails to read the object
+   */
+  public Task task() throws IOException {
+    parser.reset(window, objectStart, objectEnd);
+    return parser.next();
+  }
+
+  /**
+   * Parses the current object into a Task if its status is accepted by a filter.
+   *
+   * @param filter the statuses to accept
+   * @return the current task, or null if its status is rejected
+   * @throws IOException if the parser fails to read the object
+   */
+  public Task task(Predicate<Task.Status> filter) throws IOException {
+    parser.reset(window, objectStart, objectEnd);
+    return parser.next(filter);
+  }
+
+  /**
+   * Closes the file. The mapping itself is released by the garbage collector.
+   *
+   * @throws IOException if there is an error closing the file
+   */
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * Finds the end of the object that starts at an index of the window.
+   *
+   * @param start the index of the opening brace
+   * @return the index after the matching closing brace, or -1 if it is not in the window
+   */
+  private int findObjectEnd(int start) {
+    int depth = 0;
+    boolean inString = false;
+    boolean escaped = false;
+    for (int i = start; i < window.limit(); i++) {
+      byte b = window.get(i);
+      if (inString) {
+        if (escaped) {
+          escaped = false;
+        } else if (b == '\\') {
+          escaped = true;
+        } else if (b == '"') {
+          inString = false;
+        }
+      } else if (b == '"') {
+        inString = true;
+      } else if (b == '{' || b == '[') {
+        depth++;
+      } else if ((b == '}' || b == ']') && --depth == 0) {
+        return i + 1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Maps the window that starts at an offset of the file.
+   *
+   * @param start the offset in the file of the first byte to map
+   * @throws IOException if there is an error mapping the file
+   */
+  private void map(long start) throws IOException {
+    window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, size - start));
+    TaskMetrics.count("bytes.mapped", window.limit());
+    windowStart = start;
+    scan = 0;
+  }
+}
@@ -0,0 +1,206 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * This class parses a large JSON task file on several threads. The file is split into byte ranges
+ * whose boundaries are moved forward to the start of the next object line, each range is parsed by
+ * its own MappedTaskFile on a ForkJoinPool, and the tasks of the ranges are handed on in range
+ * order, so the result is the same as reading the file from start to end.
+ *
+ * <p>A boundary found this way is only trusted after parsing: every range starts with an object
+ * boundary if the previous range, which parses every object that starts before its end, ended
+ * exactly there. If a boundary turns out to lie inside an object, as it can when a description
+ * contains a line break followed by a brace, the file is read again on one thread.
+ *
+ * <p>Files smaller than THRESHOLD are always read on one thread. The number of threads and the
+ * threshold are set with the system properties taskcli.loadThreads and taskcli.loadThreshold.
+ *
+ * @author Muhammad Almorshidi
+ */
+public class ParallelTaskLoader {
+  /** The number of threads that parse a file, by default one per processor. */
+  public static final int THREADS =
+      Integer.getInteger("taskcli.loadThreads", Runtime.getRuntime().availableProcessors());
+
+  /** The size in bytes from which a file is parsed on several threads. */
+  public static final long THRESHOLD = Long.getLong("taskcli.loadThreshold", 8L * 1024 * 1024);
+
+  /** The number of ranges per thread, so that a thread that finishes early can take another. */
+  private static final int RANGES_PER_THREAD = 4;
+
+  /**
+   * Parses every task of a JSON file and hands them to an action in file order, on several threads
+   * if the file is large enough. The action itself is always called on the current thread.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @param action the action to apply to each task
+   * @throws Exception if there is an error reading or parsing the file
+   */
+  public static void forEach(String jsonFileName, Consumer<Task> action) throws Exception {
+    long[] starts = THREADS > 1 ? rangeStarts(jsonFileName) : null;
+    if (starts == null || starts.length < 3) {
+      forEachSequentially(jsonFileName, action);
+      return;
+    }
+    ForkJoinPool pool = new ForkJoinPool(THREADS);
+    try {
+      List<Callable<Range>> parses = new ArrayList<>(starts.length - 1);
+      for (int i = 0; i + 1 < starts.length; i++) {
+        long start = starts[i];
+        long end = starts[i + 1];
+        parses.add(() -> parse(jsonFileName, start, end));
+      }
+      List<Future<Range>> ranges = new ArrayList<>(parses.size());
+      for (Callable<Range> parse : parses) {
+        ranges.add(pool.submit(parse));
+      }
+      // Checks every boundary before handing on any task, so a fallback does not repeat tasks.
+      List<Range> parsed = new ArrayList<>(ranges.size());
+      for (int i = 0; i < ranges.size(); i++) {
+        Range range = get(ranges.get(i));
+        if (range.end > starts[i + 1]) {
+          forEachSequentially(jsonFileName, action);
+          return;
+        }
+        parsed.add(range);
+      }
+      for (int i = 0; i < parsed.size(); i++) {
+        parsed.get(i).tasks.forEach(action);
+        parsed.set(i, null); // lets the tasks of the range be collected once they are handed on
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Parses every task of a JSON file on the current thread.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @param action the action to apply to each task
+   * @throws IOException if there is an error reading or parsing the file
+   */
+  private static void forEachSequentially(String jsonFileName, Consumer<Task> action)
+      throws IOException {
+    try (MappedTaskFile file = MappedTaskFile.open(jsonFileName)) {
+      while (file.next()) {
+        action.accept(file.task());
+      }
+    }
+  }
+
+  /**
+   * Parses the objects that start within a byte range, including the last one if it extends past
+   * the end of the range.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @param start the offset of the range, at an object boundary
+   * @param end the offset after the range
+   * @return the tasks of the range and the offset after its last object
+   * @throws IOException if there is an error reading or parsing the file
+   */
+  private static Range parse(String jsonFileName, long start, long end) throws IOException {
+    List<Task> tasks = new ArrayList<>();
+    long last = start;
+    try (MappedTaskFile file = MappedTaskFile.open(jsonFileName, start)) {
+      while (file.next() && file.offset() < end) {
+        tasks.add(file.task());
+        last = file.offset() + file.length();
+      }
+    }
+    return new Range(tasks, last);
+  }
+
+  /**
+   * Splits a file into ranges that start at the beginning of an object line.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @return the offsets the ranges start at, followed by the size of the file, or null if the file
+   *     is below the threshold
+   * @throws IOException if there is an error reading the file
+   */
+  private static long[] rangeStarts(String jsonFileName) throws IOException {
+    try (FileChannel channel = FileChannel.open(Path.of(jsonFileName))) {
+      long size = channel.size();
+      if (size < THRESHOLD) {
+        return null;
+      }
+      int count = THREADS * RANGES_PER_THREAD;
+      List<Long> starts = new ArrayList<>(count + 1);
+      starts.add(0L);
+      ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+      for (int i = 1; i < count; i++) {
+        long start = objectLineAfter(channel, size * i / count, buffer);
+        if (start > starts.get(starts.size() - 1) && start < size) {
+          starts.add(start);
+        }
+      }
+      starts.add(size);
+      return starts.stream().mapToLong(Long::longValue).toArray();
+    }
+  }
+
+  /**
+   * Finds the first line at or after an offset that starts with an object, after indentation.
+   *
+   * @param channel the open file
+   * @param position the offset to search from
+   * @param buffer a reused buffer to read into
+   * @return the offset of the opening brace, or the size of the file if there is none
+   * @throws IOException if there is an error reading the file
+   */
+  private static long objectLineAfter(FileChannel channel, long position, ByteBuffer buffer)
+      throws IOException {
+    boolean lineStart = false;
+    while (true) {
+      buffer.clear();
+      int read = channel.read(buffer, position);
+      if (read <= 0) {
+        return channel.size();
+      }
+      for (int i = 0; i < read; i++) {
+        byte b = buffer.get(i);
+        if (b == '\n') {
+          lineStart = true;
+        } else if (lineStart && b == '{') {
+          return position + i;
+        } else if (b != ' ' && b != '\t' && b != '\r') {
+          lineStart = false;
+        }
+      }
+      position += read;
+    }
+  }
+
+  /**
+   * Waits for a parse and unwraps its failure.
+   *
+   * @param future the parse
+   * @return the result of the parse
+   * @throws Exception the exception the parse failed with
+   */
+  private static Range get(Future<Range> future) throws Exception {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof Exception cause ? cause : e;
+    }
+  }
+
+  /**
+   * The tasks parsed from one range of a file.
+   *
+   * @param tasks the tasks, in file order
+   * @param end the offset after the last object, or the start of the range if it has none
+   */
+  private record Range(List<Task> tasks, long end) {}
+}
@@ -1,7 +1,7 @@
-import java.io.FileWriter;
+import java.io.BufferedReader;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.LocalDate;
-import java.util.Scanner;
 
 /**
  * This class represents a task in a task list application. A task is created with a description and
@@ -22,18 +22,13 @@ public class Task {
   }
 
   /**
-   * The next ID to be assigned to a new task. This is incremented automatically each time a new
-   * task is created. It's initialized by reading from the config file.
+   * Hands out the IDs of new tasks. IDs are reserved in blocks through the config file, so they are
+   * unique across processes and most new tasks do not touch the file at all. The allocator lives in
+   * a holder class, so it is only loaded by commands that create a task.
    */
-  private static int nextId;
-
-  static {
-    try {
-      nextId = readNextIdFromConfig();
-    } catch (Exception e) {
-      e.printStackTrace();
-      nextId = 1; // default value if file read fails
-    }
+  private static class Ids {
+    /** The allocator of the process. */
+    static final IdAllocator ALLOCATOR = new IdAllocator("config.txt");
   }
 
   /** The ID of the task. It is immutable. */
@@ -83,15 +78,13 @@ public class Task {
   }
 
   /**
-   * Advance the next ID and write it to the config file.
+   * Takes the next ID from the allocator.
    *
-   * @return the ID before it was advanced
-   * @throws Exception if there is an error writing to the config file
+   * @return the ID for a new task
+   * @throws Exception if there is an error reserving IDs through the config file
    */
   private static int advanceId() throws Exception {
-    int id = nextId++;
-    writeNextIdToConfig(nextId);
-    return id;
+    return Ids.ALLOCATOR.next();
   }
 
   /**
@@ -111,26 +104,9 @@ public class Task {
    * @throws Exception if there is an error reading from the config file
    */
   private static int readNextIdFromConfig() throws Exception {
-    Scanner fileScanner = new Scanner(Path.of("config.txt"));
-    int i = fileScanner.nextInt();
-    fileScanner.close();
-    return i;
-  }
-
-  /**
-   * Writes the next ID to the config file.
-   *
-   * @param nextId the next ID to write
-   * @throws Exception if there is an error writing to the config file
-   */
-  private static void writeNextIdToConfig(int nextId) throws Exception {
-    Scanner fileScanner = new Scanner(Path.of("config.txt"));
-    fileScanner.nextLine();
-    String fileName = fileScanner.nextLine();
-    fileScanner.close();
-    FileWriter writer = new FileWriter("config.txt");
-    writer.write(Integer.toString(nextId) + "\n" + fileName);
-    writer.close();
+    try (BufferedReader reader = Files.newBufferedReader(Path.of("config.txt"))) {
+      return Integer.parseInt(reader.readLine().trim());
+    }
   }
 
   /**
@@ -140,31 +116,7 @@ public class Task {
    * @return a Task object initialized with values parsed from the JSON string
    */
   public static Task fromJson(String json) {
-    int id = 0;
-    Status status = Status.UNKNOWN;
-    LocalDate createdAt = LocalDate.now();
-    LocalDate updatedAt = LocalDate.now();
-    String description = "";
-
-    String[] pairs = json.trim().substring(1, json.length() - 1).split(",");
-    for (String pair : pairs) {
-      String[] keyValue = pair.split(":");
-      switch (keyValue[0].trim()) {
-        case "\"ID\"" -> id = Integer.parseInt(keyValue[1].trim());
-        case "\"Status\"" ->
-            status =
-                switch (keyValue[1].trim().replace("\"", "")) {
-                  case "TODO" -> Status.TODO;
-                  case "IN_PROGRESS" -> Status.IN_PROGRESS;
-                  case "DONE" -> Status.DONE;
-                  default -> Status.UNKNOWN;
-                };
-        case "\"CreatedAt\"" -> createdAt = LocalDate.parse(keyValue[1].trim().replace("\"", ""));
-        case "\"UpdatedAt\"" -> updatedAt = LocalDate.parse(keyValue[1].trim().replace("\"", ""));
-        case "\"Description\"" -> description = keyValue[1].trim().replace("\"", "");
-      }
-    }
-    return new Task(id, status, createdAt, updatedAt, description);
+    return TaskParser.parse(json);
   }
 
   /**
@@ -175,32 +127,7 @@ public class Task {
    * @return the value of the field with the given key, or null if not present
    */
   public static Object getField(String jsonString, String key) {
-    String[] pairs = jsonString.trim().substring(1, jsonString.length() - 1).split(",");
-    for (String pair : pairs) {
-      String[] keyValue = pair.split(":");
-      if (keyValue[0].trim().equals("\"" + key + "\"")) {
-        String value = keyValue[1].trim();
-        switch (key) {
-          case "ID":
-            return Integer.parseInt(value);
-          case "Status":
-            return switch (value.replace("\"", "")) {
-              case "TODO" -> Status.TODO;
-              case "IN_PROGRESS" -> Status.IN_PROGRESS;
-              case "DONE" -> Status.DONE;
-              default -> Status.UNKNOWN;
-            };
-          case "CreatedAt":
-          case "UpdatedAt":
-            return LocalDate.parse(value.replace("\"", ""));
-          case "Description":
-            return value.replace("\"", "");
-          default:
-            return null;
-        }
-      }
-    }
-    return null;
+    return TaskParser.field(jsonString, key);
   }
 
   /**
@@ -274,13 +201,18 @@ public class Task {
    * @return a JSON string representation of the task
    */
   public String toString() {
-    return String.format(
-        "{\"ID\":%d,\"Status\":\"%s\",\"CreatedAt\":\"%s\",\"UpdatedAt\":\"%s\",\"Description\":\"%s\"}",
-        this.id,
-        this.status,
-        this.createdAt,
-        this.updatedAt,
-        this.description.replace("\"", "\\\""));
+    return appendJson(new StringBuilder(128)).toString();
+  }
+
+  /**
+   * Appends the JSON representation of the task to a builder, the way toString returns it, without
+   * creating any intermediate String.
+   *
+   * @param out the builder to append to
+   * @return the builder
+   */
+  public StringBuilder appendJson(StringBuilder out) {
+    return TaskJsonWriter.appendTask(out, id, status, createdAt, updatedAt, description);
   }
 
   /**
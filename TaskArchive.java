@@ -0,0 +1,205 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * This class moves finished tasks out of a task file into compressed archive segments next to it,
+ * so that the live file, and everything that reads or rewrites it, only deals with the tasks that
+ * are still in use. A task is archived once it is done and was last updated before a cutoff date.
+ *
+ * <p>Every archive run writes one new segment, a GZIP-compressed JSON array in the layout of the
+ * task file named after the task file and a running number (for example
+ * taskList.json.archive.000001.gz). A segment is written to a temporary file and renamed into
+ * place before the task file is rewritten without its tasks, so a crash leaves the tasks in the
+ * task file, in the archive, or in both, and never in neither. Readers of the archive skip the
+ * tasks that are also in the task file.
+ *
+ * <p>With -Dtaskcli.archiveAfterDays=N, every compaction of the log also archives the tasks that
+ * have been done for more than N days, unless a server holding the task list is running.
+ *
+ * @author Muhammad Almorshidi
+ */
+public class TaskArchive {
+  /** The age in days after which compaction archives done tasks, or 0 if it does not. */
+  public static final int AFTER_DAYS = Integer.getInteger("taskcli.archiveAfterDays", 0);
+
+  /** The infix between the name of the task file and the number of a segment. */
+  private static final String SEGMENT_INFIX = ".archive.";
+
+  /** The extension of a segment. */
+  private static final String SEGMENT_EXTENSION = ".gz";
+
+  /** Whether compaction archives tasks. */
+  private static boolean automatic = AFTER_DAYS > 0;
+
+  /**
+   * Turns archiving on compaction on or off. It can only be turned on if
+   * -Dtaskcli.archiveAfterDays is set. A server turns it off while it holds the task list in
+   * memory.
+   *
+   * @param enabled whether compaction archives tasks
+   */
+  public static void setAutomatic(boolean enabled) {
+    automatic = enabled && AFTER_DAYS > 0;
+  }
+
+  /**
+   * Returns whether compaction archives tasks.
+   *
+   * @return true if compaction archives the tasks done for more than AFTER_DAYS days
+   */
+  public static boolean isAutomatic() {
+    return automatic;
+  }
+
+  /**
+   * Returns the cutoff date for an age.
+   *
+   * @param days the number of days a task must have been done for to be archived
+   * @return the date before which a done task must have been last updated
+   */
+  public static LocalDate cutoff(int days) {
+    return LocalDate.now().minusDays(days);
+  }
+
+  /**
+   * Moves the tasks of a task list that were done before a cutoff date into a new segment, rewrites
+   * the task file with the other tasks, and records the moved tasks in the change feed as archived.
+   * Nothing is written if no task is old enough. The caller must hold the exclusive lock on the
+   * task file.
+   *
+   * @param jsonFileName the name of the task file
+   * @param tasks the current task list, in order
+   * @param cutoff the date before which a done task must have been last updated
+   * @return the tasks that were archived
+   * @throws Exception if there is an error writing the segment, the task file, or the feed
+   */
+  public static List<Task> archive(String jsonFileName, Collection<Task> tasks, LocalDate cutoff)
+      throws Exception {
+    List<Task> kept = new ArrayList<>(tasks.size());
+    List<Task> archived = new ArrayList<>();
+    for (Task task : tasks) {
+      boolean old =
+          task.getStatus() == Task.Status.DONE
+              && task.getUpdatedAt() != null
+              && task.getUpdatedAt().isBefore(cutoff);
+      (old ? archived : kept).add(task);
+    }
+    if (archived.isEmpty()) {
+      return archived;
+    }
+    writeSegment(jsonFileName, archived);
+    List<TaskChangeFeed.Change> changes = new ArrayList<>(archived.size());
+    for (Task task : archived) {
+      changes.add(new TaskChangeFeed.Change(TaskChangeFeed.Type.ARCHIVED, task.toString(), null));
+    }
+    TaskLog.writeSnapshot(jsonFileName, kept);
+    TaskChangeFeed.append(jsonFileName, changes);
+    return archived;
+  }
+
+  /**
+   * Returns the segments of the archive of a task file, oldest first.
+   *
+   * @param jsonFileName the name of the task file
+   * @return the paths of the segments
+   * @throws IOException if there is an error listing the directory
+   */
+  public static List<Path> segments(String jsonFileName) throws IOException {
+    Path jsonPath = Path.of(jsonFileName).toAbsolutePath();
+    List<Path> segments = new ArrayList<>();
+    String pattern = jsonPath.getFileName() + SEGMENT_INFIX + "*" + SEGMENT_EXTENSION;
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(jsonPath.getParent(), pattern)) {
+      for (Path file : files) {
+        segments.add(file);
+      }
+    }
+    segments.sort(null); // the numbers have a fixed width, so names sort by age
+    return segments;
+  }
+
+  /**
+   * Opens a segment for reading with the streaming parser.
+   *
+   * @param segment the path of the segment
+   * @return a parser over the tasks of the segment, to be closed when done
+   * @throws IOException if there is an error opening the segment
+   */
+  public static TaskParser open(Path segment) throws IOException {
+    return new TaskParser(
+        new InputStreamReader(
+            new GZIPInputStream(Files.newInputStream(segment), 1 << 16), StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Reads the archived tasks of several task files that are no longer current, in the order list
+   * --all-history shows them: file by file, oldest segment first, and every ID only once. Used to
+   * carry the archive over when the task list is moved. The caller must hold at least shared locks
+   * on the files.
+   *
+   * @param jsonFileNames the names of the task files
+   * @param current whether a task with a given ID is still in the task list
+   * @return the archived tasks
+   * @throws Exception if there is an error reading a segment
+   */
+  public static Collection<Task> read(List<String> jsonFileNames, IntPredicate current)
+      throws Exception {
+    Map<Integer, Task> archived = new LinkedHashMap<>();
+    for (String jsonFileName : jsonFileNames) {
+      for (Path segment : segments(jsonFileName)) {
+        try (TaskParser parser = open(segment)) {
+          Task task;
+          while ((task = parser.next()) != null) {
+            if (!current.test(task.getId())) {
+              archived.putIfAbsent(task.getId(), task);
+            }
+          }
+        }
+      }
+    }
+    return archived.values();
+  }
+
+  /**
+   * Compresses tasks into a new segment after the existing ones. The caller must hold the
+   * exclusive lock on the task file.
+   *
+   * @param jsonFileName the name of the task file
+   * @param tasks the tasks to archive
+   * @throws Exception if there is an error writing the segment
+   */
+  public static void writeSegment(String jsonFileName, List<Task> tasks) throws Exception {
+    List<Path> segments = segments(jsonFileName);
+    int number = 1;
+    if (!segments.isEmpty()) {
+      String last = segments.get(segments.size() - 1).getFileName().toString();
+      int start = last.lastIndexOf(SEGMENT_INFIX) + SEGMENT_INFIX.length();
+      number = Integer.parseInt(last.substring(start, last.length() - SEGMENT_EXTENSION.length()));
+      number++;
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (WritableByteChannel channel =
+        Channels.newChannel(new GZIPOutputStream(bytes, 1 << 16))) {
+      TaskJsonWriter.writeArray(channel, tasks);
+    }
+    String segmentFileName =
+        jsonFileName + SEGMENT_INFIX + String.format("%06d", number) + SEGMENT_EXTENSION;
+    JsonUtil.replaceFile(segmentFileName, ByteBuffer.wrap(bytes.toByteArray()));
+  }
+}
@@ -0,0 +1,341 @@
+import com.sun.management.ThreadMXBean;
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * This class measures the serialization, parsing, and JsonUtil operations of the storage path on
+ * generated task files, so that regressions and improvements can be compared by numbers. For every
+ * file size and operation it reports the throughput, the average latency, the bytes allocated per
+ * operation, and the garbage collections that ran while measuring.
+ *
+ * <p>Each operation is first run for a warmup period and then measured for a fixed period, on the
+ * current thread. The task files are generated with a fixed seed in a temporary directory and
+ * deleted at the end.
+ *
+ * <p>Usage: java -Xmx2g TaskBenchmark [sizes...], for example {@code java TaskBenchmark 1000
+ * 100000}. The default sizes are 1000, 100000, and 1000000 tasks.
+ *
+ * <p>With {@code java TaskBenchmark startup [runs]}, it instead measures the wall-clock time of a
+ * cold list command on a task file of STARTUP_SIZE tasks, each run in a new JVM: once launched
+ * with plain java and once through the taskcli launch profile next to the classes. The runs of the
+ * two alternate, so that both see the same load on the machine. The default is 20 runs.
+ *
+ * @author Muhammad Almorshidi
+ */
+public class TaskBenchmark {
+  /** How long each operation runs before it is measured, in nanoseconds. */
+  private static final long WARMUP_NANOS = 1_000_000_000L;
+
+  /** How long each operation is measured, in nanoseconds. */
+  private static final long MEASURE_NANOS = 2_000_000_000L;
+
+  /** The number of tasks in the file listed by the startup benchmark. */
+  private static final int STARTUP_SIZE = 100;
+
+  /** The words descriptions are made of. */
+  private static final String[] WORDS = {
+    "review", "deploy", "fix", "the", "login", "page", "write", "tests", "for", "parser", "update",
+    "dependencies", "call", "Anna", "about", "Q3", "report", "refactor", "\"urgent\"", "caf\u00e9",
+    "backup", "server", "C:\\temp", "{draft}", "meeting", "notes", "and", "follow-up",
+    "\uD83D\uDE80"
+  };
+
+  /** Receives the results of the measured operations, so that they are not optimized away. */
+  private static volatile int sink;
+
+  /** One operation under measurement. */
+  @FunctionalInterface
+  private interface Operation {
+    /**
+     * Runs the operation once.
+     *
+     * @param i the number of the run, to vary the input
+     * @throws Exception if the operation fails
+     */
+    void run(int i) throws Exception;
+  }
+
+  /**
+   * Runs the benchmarks.
+   *
+   * @param args the numbers of tasks of the generated files
+   * @throws Exception if generating a file or running an operation fails
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length > 0 && args[0].equals("startup")) {
+      startup(args.length > 1 ? Integer.parseInt(args[1]) : 20);
+      return;
+    }
+    int[] sizes = {1_000, 100_000, 1_000_000};
+    if (args.length > 0) {
+      sizes = new int[args.length];
+      for (int i = 0; i < args.length; i++) {
+        sizes[i] = Integer.parseInt(args[i]);
+      }
+    }
+    Path directory = Files.createTempDirectory("taskbench");
+    try {
+      System.out.printf(
+          "%-30s %10s %14s %14s %14s %8s %10s%n",
+          "operation", "tasks", "ops/s", "avg us/op", "alloc B/op", "gc", "gc ms");
+      for (int size : sizes) {
+        run(directory.resolve("tasks-" + size + ".json").toString(), size);
+      }
+    } finally {
+      try (var files = Files.list(directory)) {
+        for (Path file : (Iterable<Path>) files::iterator) {
+          Files.delete(file);
+        }
+      }
+      Files.delete(directory);
+    }
+  }
+
+  /**
+   * Runs every operation against a task file of one size.
+   *
+   * @param file the name of the task file to generate
+   * @param size the number of tasks
+   * @throws Exception if generating the file or running an operation fails
+   */
+  private static void run(String file, int size) throws Exception {
+    List<String> objects = generate(file, size);
+    Random random = new Random(size);
+
+    measure("Task.fromJson", size, i -> sink += Task.fromJson(objects.get(i % size)).getId());
+    measure(
+        "Task.getField",
+        size,
+        i -> sink += Task.getField(objects.get(i % size), "Description").hashCode());
+    List<Task> tasks = new ArrayList<>(Math.min(size, 10_000));
+    for (int i = 0; i < Math.min(size, 10_000); i++) {
+      tasks.add(Task.fromJson(objects.get(i)));
+    }
+    measure("Task.toString", size, i -> sink += tasks.get(i % tasks.size()).toString().length());
+    StringBuilder json = new StringBuilder();
+    measure(
+        "Task.appendJson",
+        size,
+        i -> {
+          json.setLength(0);
+          sink += tasks.get(i % tasks.size()).appendJson(json).length();
+        });
+    measure(
+        "JsonUtil.readJsonFileAsObjects",
+        size,
+        i -> sink += JsonUtil.readJsonFileAsObjects(file).length);
+    measure(
+        "JsonUtil.accessJsonObject",
+        size,
+        i -> sink += JsonUtil.accessJsonObject(file, 1 + random.nextInt(size)).length());
+
+    Task added = new Task(size + 1, Task.Status.TODO, LocalDate.now(), LocalDate.now(), "added");
+    measure("JsonUtil.addJsonObject", size, i -> JsonUtil.addJsonObject(file, added.toString()));
+    objects.clear();
+    objects.addAll(generate(file, size));
+
+    measure(
+        "JsonUtil.updateJsonObject",
+        size,
+        i -> {
+          // Alternates the status of one task, so the object to replace is always known.
+          String current = objects.get(i % size);
+          Task task = Task.fromJson(current);
+          boolean done = task.getStatus() == Task.Status.DONE;
+          task.updateStatus(done ? Task.Status.TODO : Task.Status.DONE);
+          JsonUtil.updateJsonObject(file, current, task.toString());
+          objects.set(i % size, task.toString());
+        });
+    objects.clear();
+    objects.addAll(generate(file, size));
+
+    measure(
+        "JsonUtil.deleteJsonObject",
+        size,
+        i -> {
+          // Deletes from the end of the second half, so every object is still in the file.
+          String object = objects.get(size - 1 - (i % Math.max(size / 2, 1)));
+          JsonUtil.deleteJsonObject(file, object);
+        });
+  }
+
+  /**
+   * Runs an operation for the warmup period, then measures it and prints one row of results.
+   *
+   * @param name the name of the operation
+   * @param size the number of tasks in the file
+   * @param operation the operation
+   * @throws Exception if the operation fails
+   */
+  private static void measure(String name, int size, Operation operation) throws Exception {
+    ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    int run = 0;
+    long end = System.nanoTime() + WARMUP_NANOS;
+    while (System.nanoTime() < end) {
+      operation.run(run++);
+    }
+    long collections = collections();
+    long collectionMillis = collectionMillis();
+    long allocated = threads.getCurrentThreadAllocatedBytes();
+    long start = System.nanoTime();
+    int count = 0;
+    end = start + MEASURE_NANOS;
+    do {
+      operation.run(run++);
+      count++;
+    } while (System.nanoTime() < end);
+    long elapsed = System.nanoTime() - start;
+    allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+    System.out.printf(
+        Locale.ROOT,
+        "%-30s %10d %14.1f %14.3f %14d %8d %10d%n",
+        name,
+        size,
+        count * 1e9 / elapsed,
+        elapsed / 1e3 / count,
+        allocated / count,
+        collections() - collections,
+        collectionMillis() - collectionMillis);
+  }
+
+  /**
+   * Measures cold starts of the list command with plain java and with the taskcli launcher, in a
+   * temporary directory holding a config file and a small task file. Each way is run once before
+   * measuring, which also lets the launcher build its jar and class data sharing archive.
+   *
+   * @param runs the number of measured runs of each way
+   * @throws Exception if a process cannot be started or fails
+   */
+  private static void startup(int runs) throws Exception {
+    Path classes = Path.of(System.getProperty("java.class.path").split(File.pathSeparator)[0]);
+    Path launcher = classes.toAbsolutePath().normalize().resolve("taskcli");
+    String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+    List<List<String>> commands =
+        List.of(
+            List.of(java, "-cp", classes.toAbsolutePath().toString(), "TaskCLI", "list"),
+            List.of(launcher.toString(), "list"));
+    Path directory = Files.createTempDirectory("taskstartup");
+    try {
+      generate(directory.resolve("taskList.json").toString(), STARTUP_SIZE);
+      Files.writeString(directory.resolve("config.txt"), (STARTUP_SIZE + 1) + "\ntaskList.json");
+      long[][] millis = new long[commands.size()][runs];
+      for (int run = -1; run < runs; run++) {
+        for (int i = 0; i < commands.size(); i++) {
+          long start = System.nanoTime();
+          Process process =
+              new ProcessBuilder(commands.get(i))
+                  .directory(directory.toFile())
+                  .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                  .redirectError(ProcessBuilder.Redirect.INHERIT)
+                  .start();
+          if (process.waitFor() != 0) {
+            throw new Exception(String.join(" ", commands.get(i)) + " failed.");
+          }
+          if (run >= 0) {
+            millis[i][run] = (System.nanoTime() - start) / 1_000_000;
+          }
+        }
+      }
+      System.out.printf(
+          "%-30s %10s %10s %10s %10s%n",
+          "cold list of " + STARTUP_SIZE + " tasks",
+          "runs",
+          "min ms",
+          "p50 ms",
+          "mean ms");
+      String[] names = {"java TaskCLI", "taskcli"};
+      for (int i = 0; i < commands.size(); i++) {
+        long[] sorted = millis[i].clone();
+        Arrays.sort(sorted);
+        System.out.printf(
+            Locale.ROOT,
+            "%-30s %10d %10d %10d %10.1f%n",
+            names[i],
+            runs,
+            sorted[0],
+            sorted[runs / 2],
+            Arrays.stream(sorted).average().orElse(0));
+      }
+    } finally {
+      try (var files = Files.list(directory)) {
+        for (Path file : (Iterable<Path>) files::iterator) {
+          Files.delete(file);
+        }
+      }
+      Files.delete(directory);
+    }
+  }
+
+  /**
+   * Writes a task file with realistic descriptions of 3 to 30 words.
+   *
+   * @param file the name of the file
+   * @param size the number of tasks
+   * @return the JSON objects of the tasks, in order
+   * @throws Exception if there is an error writing the file
+   */
+  private static List<String> generate(String file, int size) throws Exception {
+    Random random = new Random(42);
+    Task.Status[] statuses = {Task.Status.TODO, Task.Status.IN_PROGRESS, Task.Status.DONE};
+    LocalDate today = LocalDate.now();
+    List<String> objects = new ArrayList<>(size);
+    StringBuilder description = new StringBuilder();
+    for (int id = 1; id <= size; id++) {
+      description.setLength(0);
+      int words = 3 + random.nextInt(28);
+      for (int w = 0; w < words; w++) {
+        if (w > 0) {
+          description.append(' ');
+        }
+        description.append(WORDS[random.nextInt(WORDS.length)]);
+      }
+      LocalDate createdAt = today.minusDays(random.nextInt(1000));
+      LocalDate updatedAt = createdAt.plusDays(random.nextInt(100));
+      objects.add(
+          new Task(
+                  id,
+                  statuses[random.nextInt(statuses.length)],
+                  createdAt,
+                  updatedAt,
+                  description.toString())
+              .toString());
+    }
+    JsonUtil.writeJsonFile(file, objects);
+    return objects;
+  }
+
+  /**
+   * Returns the number of garbage collections since the JVM started.
+   *
+   * @return the total count over all collectors
+   */
+  private static long collections() {
+    long total = 0;
+    for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      total += Math.max(collector.getCollectionCount(), 0);
+    }
+    return total;
+  }
+
+  /**
+   * Returns the time spent in garbage collection since the JVM started.
+   *
+   * @return the total time over all collectors, in milliseconds
+   */
+  private static long collectionMillis() {
+    long total = 0;
+    for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      total += Math.max(collector.getCollectionTime(), 0);
+    }
+    return total;
+  }
+}
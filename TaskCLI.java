@@ -1,19 +1,47 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Scanner;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * This class provides a command-line interface for managing tasks. It supports operations such as
  * initializing a task file, adding, updating, deleting tasks, and listing tasks based on their
- * status. The class interacts with a JSON file to persist task data and uses the Task and JsonUtil
- * classes to perform task operations.
+ * status. The class interacts with a JSON file to persist task data and uses the Task, TaskLog,
+ * and JsonUtil classes to perform task operations.
  *
  * <p>Supported commands: - init: Initialize a new task file. - config: Update the task file used
  * for storing tasks. - add: Add a new task with a description. - update: Update the description of
  * an existing task. - delete: Delete a task by its ID. - mark-in-progress: Mark a task as
  * in-progress. - mark-done: Mark a task as done. - list: List tasks based on their status (all,
- * todo, in-progress, done).
+ * todo, in-progress, done), or one sorted page of them. - search: List the tasks whose descriptions
+ * contain the given words. - summary: Print the task counts by status, creation and completion
+ * date, and age. - watch: Print the changes to the task list as they happen. - compact: Fold the
+ * operation log into the task file. - export: Write the task list to a JSON or binary file. -
+ * import: Replace the task list with the tasks of a JSON or binary file. - batch: Apply commands
+ * read from a file or standard input in one load/store cycle. - serve: Keep the task list in
+ * memory and serve commands from other processes. - reshard: Move the task list into shard files
+ * split by ID range. - archive: Move tasks done long ago into a compressed archive. - stats: Print
+ * the operation metrics of a running server. - stop: Stop a running server. Any command followed
+ * by --stats also prints its own operation metrics.
  *
  * <p>Usage examples: - java TaskCLI init - java TaskCLI add "New Task Description"
  *
@@ -26,6 +54,51 @@ public class TaskCLI {
    */
   private static String fileName;
 
+  /**
+   * The layout of the task list when it is split into shards, or null when it is the single file
+   * named by fileName. In a sharded layout, fileName names the directory of the shards.
+   */
+  private static TaskShards shards;
+
+  /**
+   * The stream command output is written to. It is standard output, except while the server is
+   * handling a request, when it is the connection to the client.
+   */
+  private static PrintStream out = System.out;
+
+  /**
+   * The task list kept in memory by the server and batch, or null when commands read the task file
+   * directly.
+   */
+  private static TaskStore loadedTasks;
+
+  /**
+   * The secondary indexes of the task list in memory, built on the first filtered list and kept up
+   * to date with every change afterwards, or null if there are none yet.
+   */
+  private static TaskFilterIndex loadedFilterIndex;
+
+  /**
+   * Whether changes are only applied to the task list in memory, to be written later in one go.
+   * This is the case while a batch is running.
+   */
+  private static boolean deferWrites;
+
+  /**
+   * The changes made while writes are deferred, to be added to the change feed once written, by
+   * the task file they belong to. Only these files are written.
+   */
+  private static final Map<String, List<TaskChangeFeed.Change>> deferredChanges = new TreeMap<>();
+
+  /**
+   * How many times a change is retried when another process changes the same task between reading
+   * and writing it.
+   */
+  private static final int MAX_ATTEMPTS = 10;
+
+  /** The number of days a task must have been done for to be archived, if nothing else is set. */
+  private static final int DEFAULT_ARCHIVE_DAYS = 30;
+
   /**
    * Adds a new task to the task list.
    *
@@ -34,9 +107,8 @@ public class TaskCLI {
    */
   public static void addTask(String description) throws Exception {
     Task task = new Task(description);
-    String jsonObject = task.toString();
-    JsonUtil.addJsonObject(fileName, jsonObject);
-    System.out.println("Task added successfully.");
+    storeTask(TaskLog.Operation.ADD, task);
+    out.println("Task added successfully.");
   }
 
   /**
@@ -47,12 +119,8 @@ public class TaskCLI {
    * @throws Exception if there is an error accessing or updating the task file
    */
   public static void updateTask(int id, String description) throws Exception {
-    String oldJsonObject = JsonUtil.accessJsonObject(fileName, id);
-    Task task = Task.fromJson(oldJsonObject);
-    task.updateDescription(description);
-    String newJsonObject = task.toString();
-    JsonUtil.updateJsonObject(fileName, oldJsonObject, newJsonObject);
-    System.out.println("Task updated successfully.");
+    changeTask(id, TaskLog.Operation.UPDATE, task -> task.updateDescription(description));
+    out.println("Task updated successfully.");
   }
 
   /**
@@ -62,9 +130,30 @@ public class TaskCLI {
    * @throws Exception if there is an error accessing or writing to the task file
    */
   public static void deleteTask(int id) throws Exception {
-    String oldJsonObject = JsonUtil.accessJsonObject(fileName, id);
-    JsonUtil.deleteJsonObject(fileName, oldJsonObject);
-    System.out.println("Task deleted successfully.");
+    if (loadedTasks != null) {
+      Task old = findTask(id);
+      if (!deferWrites) {
+        TaskLog.appendDelete(taskFileOf(id), id);
+      } else {
+        deferChange(
+            taskFileOf(id),
+            new TaskChangeFeed.Change(TaskChangeFeed.Type.DELETED, old.toString(), null));
+      }
+      loadedTasks.remove(id);
+      if (loadedFilterIndex != null) {
+        loadedFilterIndex.remove(id);
+      }
+    } else {
+      String taskFile = taskFile(id);
+      int attempts = 0;
+      while (!TaskLog.appendDeleteIfUnchanged(
+          taskFile, id, TaskLog.accessVersioned(taskFile, id).version())) {
+        if (++attempts == MAX_ATTEMPTS) {
+          throw new Exception("Too many concurrent changes to task " + id + ".");
+        }
+      }
+    }
+    out.println("Task deleted successfully.");
   }
 
   /**
@@ -75,44 +164,1069 @@ public class TaskCLI {
    * @throws Exception if there is an error accessing or updating the task file
    */
   public static void updateTaskStatus(int id, Task.Status status) throws Exception {
-    String oldJsonObject = JsonUtil.accessJsonObject(fileName, id);
-    Task task = Task.fromJson(oldJsonObject);
-    task.updateStatus(status);
-    String newJsonObject = task.toString();
-    JsonUtil.updateJsonObject(fileName, oldJsonObject, newJsonObject);
-    System.out.println("Task status updated successfully.");
+    changeTask(id, TaskLog.Operation.STATUS, task -> task.updateStatus(status));
+    out.println("Task status updated successfully.");
   }
 
   /**
-   * Lists tasks based on their status from the JSON file. If no status is provided, all tasks are
-   * listed.
+   * Applies a change to a task and stores it. Without a task list in memory, the task is read
+   * together with its version, and the change is only appended if no other process has changed the
+   * task since; otherwise it is read and applied again.
+   *
+   * @param id the ID of the task to change
+   * @param operation the kind of change
+   * @param change the change to apply to the task
+   * @throws Exception if the task is not found, keeps changing, or cannot be written
+   */
+  private static void changeTask(int id, TaskLog.Operation operation, Consumer<Task> change)
+      throws Exception {
+    if (loadedTasks != null) {
+      Task task = findTask(id);
+      change.accept(task);
+      storeTask(operation, task);
+      return;
+    }
+    String taskFile = taskFile(id);
+    for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+      TaskLog.Versioned current = TaskLog.accessVersioned(taskFile, id);
+      change.accept(current.task());
+      if (TaskLog.appendIfUnchanged(taskFile, operation, current.task(), current.version())) {
+        return;
+      }
+    }
+    throw new Exception("Too many concurrent changes to task " + id + ".");
+  }
+
+  /**
+   * Retrieves a copy of the current state of a task that can be changed and then stored.
+   *
+   * @param id the ID of the task
+   * @return the task with the given ID
+   * @throws Exception if the task is not found
+   */
+  private static Task findTask(int id) throws Exception {
+    if (loadedTasks == null) {
+      return TaskLog.accessTask(taskFile(id), id);
+    }
+    Task task = loadedTasks.get(id);
+    if (task == null) {
+      throw new Exception("Not Found");
+    }
+    return task;
+  }
+
+  /**
+   * Appends a changed task to the operation log, unless writes are deferred, and updates the task
+   * list in memory if there is one. A new task whose ID is already taken is rejected, as it is by
+   * TaskLog when the log is written.
+   *
+   * @param operation the kind of change
+   * @param task the task after the change
+   * @throws Exception if there is an error writing to the task file
+   */
+  private static void storeTask(TaskLog.Operation operation, Task task) throws Exception {
+    if (operation == TaskLog.Operation.ADD
+        && loadedTasks != null
+        && loadedTasks.get(task.getId()) != null) {
+      throw new Exception("Task " + task.getId() + " already exists.");
+    }
+    String taskFile = taskFileOf(task.getId());
+    if (shards != null && operation == TaskLog.Operation.ADD && !deferWrites) {
+      shards.create(task.getId());
+    }
+    if (!deferWrites) {
+      TaskLog.append(taskFile, operation, task);
+    } else {
+      Task old = loadedTasks.get(task.getId());
+      deferChange(
+          taskFile,
+          new TaskChangeFeed.Change(
+              TaskChangeFeed.Type.of(operation),
+              old == null ? null : old.toString(),
+              task.toString()));
+    }
+    if (loadedTasks != null) {
+      loadedTasks.put(task);
+      if (loadedFilterIndex != null) {
+        loadedFilterIndex.put(task);
+      }
+    }
+  }
+
+  /**
+   * Records a change made while writes are deferred.
+   *
+   * @param taskFile the task file the changed task belongs to
+   * @param change the change
+   */
+  private static void deferChange(String taskFile, TaskChangeFeed.Change change) {
+    deferredChanges.computeIfAbsent(taskFile, key -> new ArrayList<>()).add(change);
+  }
+
+  /**
+   * Returns the task file a task belongs to: the task file, or in a sharded layout the shard of the
+   * ID, which may not exist yet.
+   *
+   * @param id the ID of the task
+   * @return the name of the task file
+   */
+  private static String taskFileOf(int id) {
+    return shards == null ? fileName : shards.fileFor(id);
+  }
+
+  /**
+   * Returns the task file that holds an existing task, read from disk.
+   *
+   * @param id the ID of the task
+   * @return the name of the task file
+   * @throws Exception if the shard of the ID does not exist, so the task cannot either
+   */
+  private static String taskFile(int id) throws Exception {
+    String taskFile = taskFileOf(id);
+    if (shards != null && !new File(taskFile).exists()) {
+      throw new Exception("Not Found");
+    }
+    return taskFile;
+  }
+
+  /**
+   * Returns every task file of the task list in ID order: the task file, or in a sharded layout the
+   * shards that exist.
+   *
+   * @return the names of the task files
+   * @throws IOException if there is an error listing the shards
+   */
+  private static List<String> taskFiles() throws IOException {
+    return shards == null ? List.of(fileName) : shards.files();
+  }
+
+  /**
+   * Takes the shared lock on the layout of a sharded task list, which a command that may create
+   * shard files holds before it locks any of them.
+   *
+   * @return the held lock, to be closed when done, or null for a single task file
+   * @throws IOException if there is an error locking the layout, or it was moved away
+   */
+  private static TaskFileLock lockLayout() throws IOException {
+    return shards == null ? null : shards.lockLayout(true);
+  }
+
+  /**
+   * Lists tasks based on their status and dates. If no status is provided, or "all", tasks of every
+   * status are listed. Rows are written to one buffered writer that is flushed at the end.
+   *
+   * <p>Without a filter, tasks are streamed from the task file in file order. With one, only the
+   * matching tasks are read: the server looks them up in the secondary indexes of its task list,
+   * and otherwise the status and dates recorded in the slots of the task index are checked, so no
+   * other task is parsed. Filtered tasks are listed in ID order. The shards of a sharded task list
+   * are read one after the other, which keeps both orders across shards. With --all-history, the
+   * archived tasks that match are listed after the current ones.
+   *
+   * <p>With --sort=, --limit=, --offset=, or --after=, one page of the sorted list is written
+   * instead, as described at writePage. Paging without --sort= sorts by ID. A page cannot include
+   * archived tasks.
    *
-   * @param args the command-line arguments, where the second argument can be "done", "todo", or
-   *     "in-progress" to filter tasks by status
+   * <p>An unknown argument, a malformed date, or a negative or malformed number is reported as an
+   * invalid list option, and nothing is listed.
+   *
+   * @param args the command-line arguments: an optional status ("all", "done", "todo", or
+   *     "in-progress"), the optional date filters --created-after=, --created-before=,
+   *     --updated-after=, and --updated-before=, each followed by a date such as 2024-05-31,
+   *     --all-history to include archived tasks, --sort= followed by id, created, or updated,
+   *     --limit= and --offset= followed by a number of tasks, and --after= followed by the ID of
+   *     the task the page starts after
    * @throws Exception if there is an error accessing or reading from the task file
    */
   private static void handleListCommand(String[] args) throws Exception {
-    String[] objects = JsonUtil.readJsonFileAsObjects(fileName);
-    if (objects.length == 0) {
-      System.out.println("No tasks found.");
+    Task.Status status = null;
+    boolean allHistory = false;
+    TaskPage.Sort sort = null;
+    int limit = Integer.MAX_VALUE;
+    int offset = 0;
+    Integer afterId = null;
+    LocalDate[] bounds = new LocalDate[4];
+    String[] flags = {
+      "--created-after=", "--created-before=", "--updated-after=", "--updated-before="
+    };
+    for (int i = 1; i < args.length; i++) {
+      try {
+        int flag = 0;
+        while (flag < flags.length && !args[i].startsWith(flags[flag])) {
+          flag++;
+        }
+        if (flag < flags.length) {
+          bounds[flag] = LocalDate.parse(args[i].substring(flags[flag].length()));
+          continue;
+        }
+        if (args[i].equals("--all-history")) {
+          allHistory = true;
+          continue;
+        }
+        if (args[i].startsWith("--sort=")) {
+          switch (args[i].substring("--sort=".length())) {
+            case "id" -> sort = TaskPage.Sort.ID;
+            case "created" -> sort = TaskPage.Sort.CREATED;
+            case "updated" -> sort = TaskPage.Sort.UPDATED;
+            default -> {
+              out.println("Invalid sort order. Use id, created, or updated.");
+              return;
+            }
+          }
+          continue;
+        }
+        if (args[i].startsWith("--limit=")) {
+          limit = parseListNumber(args[i], "--limit=");
+          continue;
+        }
+        if (args[i].startsWith("--offset=")) {
+          offset = parseListNumber(args[i], "--offset=");
+          continue;
+        }
+        if (args[i].startsWith("--after=")) {
+          afterId = parseListNumber(args[i], "--after=");
+          continue;
+        }
+        switch (args[i]) {
+          case "all" -> status = null;
+          case "done" -> status = Task.Status.DONE;
+          case "todo" -> status = Task.Status.TODO;
+          case "in-progress" -> status = Task.Status.IN_PROGRESS;
+          default -> {
+            out.println("Invalid list option: " + args[i]);
+            return;
+          }
+        }
+      } catch (NumberFormatException | DateTimeParseException e) {
+        out.println("Invalid list option: " + args[i]);
+        return;
+      }
+    }
+    TaskFilter filter = new TaskFilter(status, bounds[0], bounds[1], bounds[2], bounds[3]);
+    boolean filtered = status != null || filter.hasDateBounds();
+    if (sort == null && (limit != Integer.MAX_VALUE || offset != 0 || afterId != null)) {
+      sort = TaskPage.Sort.ID;
+    }
+    if (sort != null && allHistory) {
+      out.println("--all-history cannot be combined with --sort, --limit, --offset, or --after.");
       return;
     }
-    for (String obj : objects) {
-      Task task = Task.fromJson(obj);
-      if (args.length == 1
-          || (args[1].equals("done") && task.getStatus() == Task.Status.DONE)
-          || (args[1].equals("todo") && task.getStatus() == Task.Status.TODO)
-          || (args[1].equals("in-progress") && task.getStatus() == Task.Status.IN_PROGRESS)) {
+    BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out), 1 << 16);
+    StringBuilder row = new StringBuilder();
+    boolean found = false;
+    if (sort != null) {
+      TaskPage page = new TaskPage(sort, offset, limit);
+      if (afterId != null && !startAfter(page, afterId)) {
+        out.println("Task " + afterId + " not found.");
+        return;
+      }
+      found = writePage(writer, row, filter, page);
+    } else if (loadedTasks != null && !filtered) {
+      for (Task task : loadedTasks.values()) {
+        writeRow(writer, row, task);
+        found = true;
+      }
+    } else if (loadedTasks != null) {
+      if (loadedFilterIndex == null) {
+        loadedFilterIndex = new TaskFilterIndex(loadedTasks.values());
+      }
+      for (int id : loadedFilterIndex.query(filter)) {
+        writeRow(writer, row, loadedTasks.get(id));
+        found = true;
+      }
+    } else if (!filtered) {
+      for (String taskFile : taskFiles()) {
+        try (TaskCursor tasks = new TaskCursor(taskFile, null)) {
+          while (tasks.hasNext()) {
+            writeRow(writer, row, tasks.next());
+            found = true;
+          }
+        }
+      }
+    } else {
+      for (String taskFile : taskFiles()) {
+        try (TaskFileLock lock = TaskFileLock.shared(taskFile);
+            TaskIndex index = TaskIndex.open(taskFile)) {
+          int capacity = index.capacity();
+          TaskMetrics.count("lookup.scanned", capacity - index.firstId());
+          for (int id = index.firstId(); id < capacity; id++) {
+            if (index.segment(id) != TaskIndex.ABSENT
+                && filter.matches(index.status(id), index.createdAt(id), index.updatedAt(id))) {
+              writeRow(writer, row, Task.fromJson(index.read(id)));
+              found = true;
+            }
+          }
+        }
+      }
+    }
+    if (allHistory) {
+      found |= writeArchivedRows(writer, row, filter);
+    }
+    if (!found) {
+      writer.write("No tasks found.\n");
+    }
+    writer.flush();
+  }
+
+  /**
+   * Parses the number that follows a --limit=, --offset=, or --after= option of the list command.
+   *
+   * @param arg the option
+   * @param flag the option name, up to and including the equals sign
+   * @return the number
+   * @throws NumberFormatException if the number is missing, malformed, or negative
+   */
+  private static int parseListNumber(String arg, String flag) {
+    int number = Integer.parseInt(arg.substring(flag.length()));
+    if (number < 0) {
+      throw new NumberFormatException(arg);
+    }
+    return number;
+  }
+
+  /**
+   * Starts a page after a cursor task, looking up the dates it is sorted by.
+   *
+   * @param page the page
+   * @param id the ID of the cursor task
+   * @return false if the page is sorted by a date and the cursor task does not exist
+   * @throws Exception if there is an error reading the task index
+   */
+  private static boolean startAfter(TaskPage page, int id) throws Exception {
+    if (page.sort() == TaskPage.Sort.ID) {
+      page.startAfter(id, TaskIndex.NO_DATE, TaskIndex.NO_DATE);
+      return true;
+    }
+    if (loadedTasks != null) {
+      Task task = loadedTasks.get(id);
+      if (task == null) {
+        return false;
+      }
+      page.startAfter(
+          id, TaskIndex.epochDay(task.getCreatedAt()), TaskIndex.epochDay(task.getUpdatedAt()));
+      return true;
+    }
+    String taskFile = taskFileOf(id);
+    if (!new File(taskFile).exists()) {
+      return false;
+    }
+    try (TaskFileLock lock = TaskFileLock.shared(taskFile);
+        TaskIndex index = TaskIndex.open(taskFile)) {
+      if (id < index.firstId() || id >= index.capacity() || index.segment(id) == TaskIndex.ABSENT) {
+        return false;
+      }
+      page.startAfter(id, index.createdAt(id), index.updatedAt(id));
+      return true;
+    }
+  }
 
-        System.out.printf(
-            "%15S    %15S    %15S    %15S    %s\n",
-            task.getId(),
-            task.getStatus(),
-            task.getCreatedAt(),
-            task.getUpdatedAt(),
-            task.getDescription());
+  /**
+   * Writes one page of the sorted list of the tasks that match a filter. Only the IDs of the page
+   * are collected, in a TaskPage, and then its tasks are read and written.
+   *
+   * <p>The server fills the page from the secondary indexes of its task list, which are walked in
+   * listing order from the cursor, so the cost of a page does not grow with the list. Otherwise
+   * the slots of the task index are scanned without parsing any task: sorted by ID, from the
+   * cursor up until the page is full, and sorted by a date, all of them, twice if there is an
+   * offset, first to count the tasks per day. Tasks within the offset are never kept. All task
+   * files stay locked while the page is read, so its tasks cannot change in between.
+   *
+   * @param writer the writer to write the rows to
+   * @param row a reused buffer to build the rows in
+   * @param filter the filter the tasks must match
+   * @param page the page, with its cursor set
+   * @return true if any row was written
+   * @throws Exception if there is an error reading the task files or writing the rows
+   */
+  private static boolean writePage(
+      BufferedWriter writer, StringBuilder row, TaskFilter filter, TaskPage page)
+      throws Exception {
+    if (loadedTasks != null) {
+      if (loadedFilterIndex == null) {
+        loadedFilterIndex = new TaskFilterIndex(loadedTasks.values());
       }
+      loadedFilterIndex.page(filter, page);
+      int[] ids = page.ids();
+      for (int id : ids) {
+        writeRow(writer, row, loadedTasks.get(id));
+      }
+      return ids.length > 0;
+    }
+    List<String> taskFiles = taskFiles();
+    try (TaskShards.Locks locks = TaskShards.lock(taskFiles, true)) {
+      if (page.sort() != TaskPage.Sort.ID && page.offset() > 0) {
+        scanPage(taskFiles, filter, page, true);
+        page.skipCounted();
+      }
+      scanPage(taskFiles, filter, page, false);
+      int[] ids = page.ids();
+      Map<String, TaskIndex> indexes = new TreeMap<>();
+      try {
+        for (int id : ids) {
+          String taskFile = taskFileOf(id);
+          TaskIndex index = indexes.get(taskFile);
+          if (index == null) {
+            index = TaskIndex.open(taskFile);
+            indexes.put(taskFile, index);
+          }
+          writeRow(writer, row, Task.fromJson(index.read(id)));
+        }
+      } finally {
+        for (TaskIndex index : indexes.values()) {
+          index.close();
+        }
+      }
+      return ids.length > 0;
+    }
+  }
+
+  /**
+   * Scans the slots of the task indexes for the tasks that match a filter and offers or counts
+   * them for a page, in ascending ID order. Sorted by ID, that is listing order, and the scan stops
+   * once the page is full. The caller must hold at least shared locks on the files.
+   *
+   * @param taskFiles the task files, in ID order
+   * @param filter the filter the tasks must match
+   * @param page the page
+   * @param count whether to count the tasks for TaskPage.skipCounted instead of offering them
+   * @throws Exception if there is an error reading an index
+   */
+  private static void scanPage(
+      List<String> taskFiles, TaskFilter filter, TaskPage page, boolean count) throws Exception {
+    boolean inOrder = page.sort() == TaskPage.Sort.ID;
+    for (String taskFile : taskFiles) {
+      if (inOrder && page.isFull()) {
+        return;
+      }
+      try (TaskIndex index = TaskIndex.open(taskFile)) {
+        int capacity = index.capacity();
+        int first = Math.max(index.firstId(), page.firstId());
+        TaskMetrics.count("lookup.scanned", Math.max(0, capacity - first));
+        for (int id = first; id < capacity; id++) {
+          if (index.segment(id) == TaskIndex.ABSENT
+              || !filter.matches(index.status(id), index.createdAt(id), index.updatedAt(id))) {
+            continue;
+          }
+          if (count) {
+            page.count(id, index.createdAt(id), index.updatedAt(id));
+          } else if (inOrder) {
+            page.offerInOrder(id, index.createdAt(id), index.updatedAt(id));
+            if (page.isFull()) {
+              return;
+            }
+          } else {
+            page.offer(id, index.createdAt(id), index.updatedAt(id));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes the rows of the archived tasks that match a filter, skipping those that are also in the
+   * current task list, as they are after a crash during archiving, and all but the first copy of a
+   * task archived twice.
+   *
+   * @param writer the writer to write the rows to
+   * @param row a reused buffer to build the rows in
+   * @param filter the filter the tasks must match
+   * @return true if any row was written
+   * @throws Exception if there is an error reading the archive or writing the rows
+   */
+  private static boolean writeArchivedRows(
+      BufferedWriter writer, StringBuilder row, TaskFilter filter) throws Exception {
+    boolean found = false;
+    BitSet seen = new BitSet();
+    for (String taskFile : taskFiles()) {
+      try (TaskFileLock lock = TaskFileLock.shared(taskFile);
+          TaskIndex index = loadedTasks == null ? TaskIndex.open(taskFile) : null) {
+        for (Path segment : TaskArchive.segments(taskFile)) {
+          try (TaskParser parser = TaskArchive.open(segment)) {
+            Task task;
+            while ((task = parser.next()) != null) {
+              int id = task.getId();
+              boolean current =
+                  loadedTasks != null
+                      ? loadedTasks.get(id) != null
+                      : index.segment(id) != TaskIndex.ABSENT;
+              if (!current && !seen.get(id) && filter.matches(task)) {
+                writeRow(writer, row, task);
+                found = true;
+              }
+              seen.set(id);
+            }
+          }
+        }
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Writes one row of the task listing.
+   *
+   * @param writer the writer to write the row to
+   * @param row a reused buffer to build the row in
+   * @param task the task to write
+   * @throws Exception if there is an error writing the row
+   */
+  private static void writeRow(BufferedWriter writer, StringBuilder row, Task task)
+      throws Exception {
+    row.setLength(0);
+    pad(row, Integer.toString(task.getId()));
+    pad(row, task.getStatus().name());
+    pad(row, task.getCreatedAt().toString());
+    pad(row, task.getUpdatedAt().toString());
+    row.append(task.getDescription()).append('\n');
+    writer.append(row);
+  }
+
+  /**
+   * Appends a column of the task listing, right-aligned in 15 characters and followed by the column
+   * separator.
+   *
+   * @param row the row being built
+   * @param value the value of the column
+   */
+  private static void pad(StringBuilder row, String value) {
+    for (int i = value.length(); i < 15; i++) {
+      row.append(' ');
     }
+    row.append(value).append("    ");
+  }
+
+  /**
+   * Prints a summary of the task list: the number of tasks of each status, the tasks created and
+   * completed on each of the last days and weeks, and the ages of the open tasks. The server
+   * answers from the counters of its secondary indexes, which are kept up to date with every
+   * change. Otherwise the status and dates in the slots of the task index are added up, on several
+   * threads for a large index, without reading any task.
+   *
+   * @param args the command-line arguments: the optional options --days= and --weeks=, each
+   *     followed by the number of days or weeks to list, 14 and 8 if not given
+   * @throws Exception if there is an error reading the task index
+   */
+  private static void summarizeTasks(String[] args) throws Exception {
+    int days = TaskSummary.DEFAULT_DAYS;
+    int weeks = TaskSummary.DEFAULT_WEEKS;
+    for (int i = 1; i < args.length; i++) {
+      if (args[i].startsWith("--days=")) {
+        days = Integer.parseInt(args[i].substring("--days=".length()));
+      } else if (args[i].startsWith("--weeks=")) {
+        weeks = Integer.parseInt(args[i].substring("--weeks=".length()));
+      } else {
+        out.println("Invalid option " + args[i] + ". Use --days=N or --weeks=N.");
+        return;
+      }
+    }
+    TaskSummary summary;
+    if (loadedTasks != null) {
+      if (loadedFilterIndex == null) {
+        loadedFilterIndex = new TaskFilterIndex(loadedTasks.values());
+      }
+      summary = new TaskSummary(LocalDate.now(), days, weeks);
+      loadedFilterIndex.summarize(summary);
+    } else {
+      List<String> taskFiles = taskFiles();
+      try (TaskShards.Locks locks = TaskShards.lock(taskFiles, true)) {
+        summary = TaskSummary.fromIndexes(taskFiles, LocalDate.now(), days, weeks);
+      }
+    }
+    BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out));
+    summary.write(writer);
+    writer.flush();
+  }
+
+  /**
+   * Lists the tasks whose descriptions match a query, in ID order, through the search index of the
+   * task file. The query is made of words that must all appear in a description; a word ending in
+   * * also matches longer words that start with it, and OR between words separates alternatives.
+   * Each shard of a sharded task list has its own search index and is searched in turn.
+   *
+   * @param args the command-line arguments: the words of the query, which are joined with spaces
+   * @throws Exception if there is an error reading the index or the task file
+   */
+  private static void searchTasks(String[] args) throws Exception {
+    String query = String.join(" ", List.of(args).subList(1, args.length));
+    BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out), 1 << 16);
+    StringBuilder row = new StringBuilder();
+    boolean found = false;
+    for (String taskFile : taskFiles()) {
+      int[] ids = TaskSearchIndex.search(taskFile, query);
+      if (loadedTasks != null) {
+        for (int id : ids) {
+          writeRow(writer, row, loadedTasks.get(id));
+          found = true;
+        }
+        continue;
+      }
+      try (TaskFileLock lock = TaskFileLock.shared(taskFile);
+          TaskIndex index = TaskIndex.open(taskFile)) {
+        for (int id : ids) {
+          String obj = index.read(id);
+          if (obj != null) { // deleted since the search
+            writeRow(writer, row, Task.fromJson(obj));
+            found = true;
+          }
+        }
+      }
+    }
+    if (!found) {
+      writer.write("No tasks found.\n");
+    }
+    writer.flush();
+  }
+
+  /**
+   * Prints the changes to the task list as they happen, one line of JSON per change, until the
+   * process is stopped. Without --from=N only changes made after the command starts are printed;
+   * with it, every change after the change with sequence number N is printed first, so a consumer
+   * can resume where it stopped. The feed is read without a lock, so a running server or batch does
+   * not hold the command up. A sharded task list has one feed per shard and cannot be watched as a
+   * whole.
+   *
+   * @param args the command-line arguments: an optional --from=N
+   * @throws Exception if there is an error reading the change feed
+   */
+  private static void watchChanges(String[] args) throws Exception {
+    if (shards != null) {
+      out.println("The watch command is not available for a sharded task list.");
+      return;
+    }
+    long after = -1;
+    for (int i = 1; i < args.length; i++) {
+      if (args[i].startsWith("--from=")) {
+        after = Long.parseLong(args[i].substring("--from=".length()));
+      } else {
+        out.println("Unknown option: " + args[i]);
+        return;
+      }
+    }
+    if (after < 0) {
+      after = TaskChangeFeed.lastSequence(fileName);
+    }
+    TaskChangeFeed.follow(
+        fileName,
+        after,
+        line -> {
+          out.println(line);
+          return !out.checkError(); // stops once the reader of the output has gone away
+        });
+  }
+
+  /**
+   * Folds the operation log into the task file.
+   *
+   * @throws Exception if there is an error accessing or writing to the task file
+   */
+  private static void compactTaskFile() throws Exception {
+    for (String taskFile : taskFiles()) {
+      TaskLog.compact(taskFile);
+    }
+    out.println("Task file compacted successfully.");
+  }
+
+  /**
+   * Writes the current task list to a file in the format given by its extension, JSON or binary.
+   *
+   * @param exportFileName the name of the file to write
+   * @throws Exception if the format is unknown or there is an error reading or writing the files
+   */
+  private static void exportTasks(String exportFileName) throws Exception {
+    TaskCodec codec = TaskCodec.forFile(exportFileName);
+    Collection<Task> tasks =
+        loadedTasks != null ? loadedTasks.values() : TaskStore.load(taskFiles()).values();
+    codec.write(exportFileName, tasks);
+    out.println("Exported " + tasks.size() + " tasks to " + exportFileName + ".");
+  }
+
+  /**
+   * Replaces the task list with the tasks read from a file in the format given by its extension,
+   * JSON or binary.
+   *
+   * @param importFileName the name of the file to read
+   * @throws Exception if the format is unknown or there is an error reading or writing the files
+   */
+  private static void importTasks(String importFileName) throws Exception {
+    List<Task> tasks = TaskCodec.forFile(importFileName).read(importFileName);
+    Map<String, List<Task>> tasksByFile =
+        shards == null ? Map.of(fileName, tasks) : shards.partition(tasks);
+    try (TaskFileLock layout = lockLayout()) {
+      List<String> taskFiles = new ArrayList<>(taskFiles());
+      taskFiles.removeAll(tasksByFile.keySet());
+      taskFiles.addAll(tasksByFile.keySet()); // shards without imported tasks are emptied
+      try (TaskShards.Locks locks = TaskShards.lock(taskFiles, false)) {
+        for (String taskFile : taskFiles) {
+          TaskLog.writeSnapshot(taskFile, tasksByFile.getOrDefault(taskFile, List.of()));
+          TaskChangeFeed.append(taskFile, TaskChangeFeed.Type.RESET, null, null);
+        }
+      }
+    }
+    out.println("Imported " + tasks.size() + " tasks from " + importFileName + ".");
+  }
+
+  /**
+   * Moves the tasks that were done before a cutoff date out of the task list into a new compressed
+   * archive segment next to the task file, or next to each shard of a sharded task list. The
+   * server removes them from its copy in memory as well.
+   *
+   * @param args the command-line arguments: an optional --older-than=N, the number of days a task
+   *     must have been done for, by default the value of -Dtaskcli.archiveAfterDays or else
+   *     DEFAULT_ARCHIVE_DAYS
+   * @throws Exception if there is an error reading the task list or writing the archive
+   */
+  private static void archiveTasks(String[] args) throws Exception {
+    int days = TaskArchive.AFTER_DAYS > 0 ? TaskArchive.AFTER_DAYS : DEFAULT_ARCHIVE_DAYS;
+    for (int i = 1; i < args.length; i++) {
+      if (args[i].startsWith("--older-than=")) {
+        days = Integer.parseInt(args[i].substring("--older-than=".length()));
+      } else {
+        out.println("Unknown option: " + args[i]);
+        return;
+      }
+    }
+    LocalDate cutoff = TaskArchive.cutoff(days);
+    List<Task> archived = new ArrayList<>();
+    if (loadedTasks != null) {
+      Map<String, List<Task>> tasksByFile =
+          shards == null
+              ? Map.of(fileName, new ArrayList<>(loadedTasks.values()))
+              : shards.partition(loadedTasks.values());
+      for (Map.Entry<String, List<Task>> tasks : tasksByFile.entrySet()) {
+        archived.addAll(TaskArchive.archive(tasks.getKey(), tasks.getValue(), cutoff));
+      }
+      for (Task task : archived) {
+        loadedTasks.remove(task.getId());
+        if (loadedFilterIndex != null) {
+          loadedFilterIndex.remove(task.getId());
+        }
+      }
+    } else {
+      for (String taskFile : taskFiles()) {
+        try (TaskFileLock lock = TaskFileLock.exclusive(taskFile)) {
+          archived.addAll(TaskArchive.archive(taskFile, TaskLog.replay(taskFile).values(), cutoff));
+        }
+      }
+    }
+    out.println("Archived " + archived.size() + " tasks done before " + cutoff + ".");
+  }
+
+  /**
+   * Moves the task list into a sharded layout: its current tasks are written to shard files in a
+   * new or empty directory, each holding the given number of consecutive IDs, and the config file
+   * is pointed at the directory. The archived tasks that are not current go along into one archive
+   * segment per shard, in the order --all-history lists them. Both a single task file and an
+   * already sharded list can be moved; the old files are left in place. They stay locked until the
+   * config file has been switched and are then marked as moved, so that a process that still uses
+   * the old config file fails instead of changing them, and for an old sharded list the layout lock
+   * keeps such a process from adding a shard in the meantime.
+   *
+   * @param directory the directory of the shards
+   * @param idsPerShard the number of consecutive IDs each shard holds
+   * @throws Exception if there is an error reading the task list or writing the shards
+   */
+  private static void reshardTasks(String directory, int idsPerShard) throws Exception {
+    TaskShards target = new TaskShards(directory, idsPerShard);
+    Path path = Path.of(directory);
+    if (Files.exists(path)) {
+      try (Stream<Path> entries = Files.list(path)) {
+        if (entries.findAny().isPresent()) {
+          out.println("The directory " + directory + " must be new or empty.");
+          return;
+        }
+      }
+    }
+    try (TaskFileLock layout = shards == null ? null : shards.lockLayout(false);
+        TaskShards.Locks locks = TaskShards.lock(taskFiles(), false)) {
+      TaskStore store = TaskStore.load(taskFiles());
+      Collection<Task> tasks = store.values();
+      Collection<Task> archived = TaskArchive.read(taskFiles(), id -> store.get(id) != null);
+      Map<String, List<Task>> tasksByShard = target.partition(tasks);
+      Map<String, List<Task>> archivedByShard = target.partition(archived);
+      Set<String> shardFiles = new TreeSet<>(tasksByShard.keySet());
+      shardFiles.addAll(archivedByShard.keySet());
+      Files.createDirectories(path);
+      for (String shardFile : shardFiles) {
+        try (TaskFileLock lock = TaskFileLock.exclusive(shardFile)) {
+          if (archivedByShard.containsKey(shardFile)) {
+            TaskArchive.writeSegment(shardFile, archivedByShard.get(shardFile));
+          }
+          TaskLog.writeSnapshot(shardFile, tasksByShard.getOrDefault(shardFile, List.of()));
+        }
+      }
+      IdAllocator.rewriteConfig("config.txt", directory, target.configLine());
+      for (String taskFile : taskFiles()) {
+        TaskFileLock.markMoved(taskFile, directory);
+      }
+      if (shards != null) {
+        TaskFileLock.markMoved(shards.layoutName(), directory);
+      }
+      out.println(
+          "Moved "
+              + tasks.size()
+              + " tasks and "
+              + archived.size()
+              + " archived tasks into "
+              + shardFiles.size()
+              + " shards in "
+              + directory
+              + ".");
+    }
+  }
+
+  /**
+   * Applies the commands read from a file or standard input, one per line, to a single in-memory
+   * copy of the task list and writes the result to the task file once at the end, or every given
+   * number of changes. A line holds a command in the same form as the command-line arguments, with
+   * double quotes around arguments that contain spaces. Blank lines and lines starting with # are
+   * ignored. The output of each command is printed prefixed with its line number. By default the
+   * batch stops at the first failing line; changes made before it are kept. Other processes wait
+   * for the batch to finish, since it holds the exclusive lock on the task file throughout.
+   *
+   * <p>Arguments: an optional file name ("-" or none for standard input), --keep-going to continue
+   * after a failing line, and --checkpoint=N to write the task list every N changes.
+   *
+   * @param args the command-line arguments
+   * @throws Exception if there is an error reading the commands or writing the task file
+   */
+  private static void runBatch(String[] args) throws Exception {
+    String source = "-";
+    boolean keepGoing = false;
+    int checkpoint = 0;
+    for (int i = 1; i < args.length; i++) {
+      if (args[i].equals("--keep-going")) {
+        keepGoing = true;
+      } else if (args[i].startsWith("--checkpoint=")) {
+        checkpoint = Integer.parseInt(args[i].substring("--checkpoint=".length()));
+      } else {
+        source = args[i];
+      }
+    }
+    if (source.equals("-") && loadedTasks != null) {
+      out.println("A batch sent to the server must be read from a file.");
+      return;
+    }
+    boolean loadedHere = loadedTasks == null;
+    try (TaskFileLock layout = lockLayout();
+        TaskShards.Locks locks = TaskShards.lock(taskFiles(), false)) {
+      if (loadedHere) {
+        loadedTasks = TaskStore.load(taskFiles());
+        loadedFilterIndex = null;
+      }
+      runBatch(source, keepGoing, checkpoint, loadedHere);
+    }
+  }
+
+  /**
+   * Applies the commands of a batch to the task list in memory, holding the exclusive lock on the
+   * task file.
+   *
+   * @param source the file to read the commands from, or "-" for standard input
+   * @param keepGoing whether to continue after a failing line
+   * @param checkpoint the number of changes after which the task list is written, or 0 for never
+   * @param loadedHere whether the task list was loaded for this batch and is dropped afterwards
+   * @throws Exception if there is an error reading the commands or writing the task file
+   */
+  private static void runBatch(
+      String source, boolean keepGoing, int checkpoint, boolean loadedHere) throws Exception {
+    PrintStream results = out;
+    PrintStream batchOut = new PrintStream(new BufferedOutputStream(results, 1 << 16), false);
+    ByteArrayOutputStream captured = new ByteArrayOutputStream();
+    PrintStream lineOut = new PrintStream(captured, true);
+    int lineNumber = 0;
+    int pending = 0;
+    deferWrites = true;
+    try (BufferedReader reader =
+        source.equals("-")
+            ? new BufferedReader(new InputStreamReader(System.in))
+            : Files.newBufferedReader(Path.of(source))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        lineNumber++;
+        String[] command = splitCommandLine(line);
+        if (command.length == 0 || command[0].startsWith("#")) {
+          continue;
+        }
+        captured.reset();
+        out = lineOut;
+        boolean failed = false;
+        try {
+          switch (command[0]) {
+            case "add", "update", "delete", "mark-in-progress", "mark-done", "list", "summary" -> {
+              runCommand(command);
+              if (!command[0].equals("list") && !command[0].equals("summary")) {
+                pending++;
+              }
+            }
+            default -> {
+              out.println("Error: " + command[0] + " is not available in a batch.");
+              failed = true;
+            }
+          }
+        } catch (Exception exc) {
+          out.println("Error: " + exc);
+          failed = true;
+        } finally {
+          out = results;
+        }
+        for (String result : captured.toString().split("\n")) {
+          batchOut.println(lineNumber + ": " + result);
+        }
+        if (failed && !keepGoing) {
+          break;
+        }
+        if (checkpoint > 0 && pending >= checkpoint) {
+          writeDeferred();
+          pending = 0;
+        }
+      }
+    } finally {
+      deferWrites = false;
+      if (pending > 0) {
+        writeDeferred();
+      }
+      deferredChanges.clear();
+      if (loadedHere) {
+        loadedTasks = null;
+        loadedFilterIndex = null;
+      }
+      batchOut.flush();
+    }
+  }
+
+  /**
+   * Writes the task list in memory to the task file and adds the changes made since the last write
+   * to the change feed. Of a sharded task list, only the shards with changes are written.
+   *
+   * @throws Exception if there is an error writing the task file or the feed
+   */
+  private static void writeDeferred() throws Exception {
+    Map<String, Collection<Task>> tasksByFile = new TreeMap<>();
+    if (shards == null) {
+      tasksByFile.put(fileName, loadedTasks.values());
+    } else {
+      Files.createDirectories(Path.of(fileName));
+      for (String taskFile : deferredChanges.keySet()) {
+        tasksByFile.put(taskFile, new ArrayList<>());
+      }
+      for (Task task : loadedTasks.values()) {
+        Collection<Task> tasks = tasksByFile.get(shards.fileFor(task.getId()));
+        if (tasks != null) {
+          tasks.add(task);
+        }
+      }
+    }
+    for (Map.Entry<String, Collection<Task>> shard : tasksByFile.entrySet()) {
+      String taskFile = shard.getKey();
+      try (TaskFileLock lock = TaskFileLock.exclusive(taskFile)) {
+        TaskLog.writeSnapshot(taskFile, shard.getValue());
+        TaskChangeFeed.append(taskFile, deferredChanges.getOrDefault(taskFile, List.of()));
+      }
+    }
+    deferredChanges.clear();
+  }
+
+  /**
+   * Splits a line of a batch into arguments the way a shell would for simple cases: arguments are
+   * separated by whitespace, and double quotes group words into one argument, inside which \" and
+   * \\ stand for a quote and a backslash.
+   *
+   * @param line the line to split
+   * @return the arguments of the line
+   */
+  private static String[] splitCommandLine(String line) {
+    List<String> args = new ArrayList<>();
+    StringBuilder arg = new StringBuilder();
+    boolean inArg = false;
+    boolean quoted = false;
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (quoted) {
+        if (c == '\\' && i + 1 < line.length() && "\"\\".indexOf(line.charAt(i + 1)) >= 0) {
+          arg.append(line.charAt(++i));
+        } else if (c == '"') {
+          quoted = false;
+        } else {
+          arg.append(c);
+        }
+      } else if (Character.isWhitespace(c)) {
+        if (inArg) {
+          args.add(arg.toString());
+          arg.setLength(0);
+          inArg = false;
+        }
+      } else {
+        quoted = c == '"';
+        if (!quoted) {
+          arg.append(c);
+        }
+        inArg = true;
+      }
+    }
+    if (inArg) {
+      args.add(arg.toString());
+    }
+    return args.toArray(new String[0]);
+  }
+
+  /**
+   * Loads the task list into memory and serves commands from other TaskCLI processes until a stop
+   * command is received. Every change is still appended to the operation log, so the task file
+   * stays up to date while the server runs. The server holds the exclusive lock on the task file
+   * for as long as it runs, so no other process can change the file behind the copy in memory.
+   * Requests that arrive together are made durable with one group commit.
+   *
+   * @throws Exception if there is an error reading the task file or creating the socket
+   */
+  private static void serve() throws Exception {
+    try (TaskFileLock layout = lockLayout();
+        TaskShards.Locks locks = TaskShards.lock(taskFiles(), false)) {
+      loadedTasks = TaskStore.load(taskFiles());
+      TaskMetrics.registerIfEnabled();
+      out.println("Serving " + fileName + " on " + TaskServer.SOCKET_FILE_NAME + ".");
+      TaskLog.setGroupCommit(true);
+      TaskArchive.setAutomatic(false); // compaction must not remove tasks behind the copy in memory
+      try {
+        serveLoaded();
+      } finally {
+        TaskLog.setGroupCommit(false);
+        TaskArchive.setAutomatic(true);
+      }
+    }
+  }
+
+  /**
+   * Serves commands against the task list in memory until a stop command is received.
+   *
+   * @throws IOException if the socket cannot be created or accepting a connection fails
+   */
+  private static void serveLoaded() throws IOException {
+    TaskServer.serve(
+        (args, response) -> {
+          out = response;
+          try {
+            if (!hasValidArgumentCount(args)) {
+              out.println("Invalid number of arguments.");
+            } else if (args[0].equals("stop")) {
+              out.println("Server stopped.");
+              return false;
+            } else if (args[0].equals("init")
+                || args[0].equals("config")
+                || args[0].equals("import")
+                || args[0].equals("serve")
+                || args[0].equals("watch")
+                || args[0].equals("reshard")) {
+              out.println("This command is not available while the server is running.");
+            } else {
+              runCommand(args);
+            }
+          } catch (Exception exc) {
+            exc.printStackTrace(out);
+          } finally {
+            out = System.out;
+          }
+          return true;
+        },
+        TaskLog::commit);
   }
 
   /**
@@ -127,7 +1241,7 @@ public class TaskCLI {
     if (args.length == 2) {
       fileName = args[1];
       if (fileName.contains(" ")) {
-        System.out.println("Invalid file name. It should not contain spaces.");
+        out.println("Invalid file name. It should not contain spaces.");
         return;
       }
     }
@@ -135,30 +1249,32 @@ public class TaskCLI {
       fileName += ".json";
     }
     if (new File(fileName).exists()) {
-      System.out.println("File already exists.");
+      out.println("File already exists.");
       return;
     }
     JsonUtil.initJsonFile(fileName);
-    int nextId = Task.getNextId();
-    FileWriter writer = new FileWriter("config.txt");
-    writer.write(nextId + "\n" + fileName);
-    writer.close();
-    System.out.println("Task file initialized successfully.");
+    IdAllocator.rewriteConfig("config.txt", fileName, null);
+    out.println("Task file initialized successfully.");
   }
 
   /**
    * Loads the file name from the config file and checks if the file exists. If the file does not
-   * exist, an error message is printed and the method returns.
+   * exist, an error message is printed and the method returns. This is the only time a command
+   * reads the config file, except for add, whose ID allocator reads the next ID under a lock. The
+   * file is always replaced as a whole, so it is read without a lock, and without a Scanner, whose
+   * regular expressions and locale data would cost more than the rest of a small list command.
    *
    * @throws Exception if there is an error reading from the config file
    */
   private static void loadFileNameFromConfig() throws Exception {
-    Scanner fileScanner = new Scanner(Path.of("config.txt"));
-    fileScanner.nextLine(); // skip first line
-    fileName = fileScanner.nextLine().trim();
-    fileScanner.close();
+    String[] lines;
+    try (TaskMetrics.Timer timer = TaskMetrics.time("config.read")) {
+      lines = IdAllocator.readConfig("config.txt");
+    }
+    fileName = lines[1].trim(); // the first line is the next ID
+    shards = lines.length > 2 ? TaskShards.fromConfig(fileName, lines[2]) : null;
     if (!new File(fileName).exists()) {
-      System.out.println(
+      out.println(
           "File does not exist.\n"
               + "Please run \"init\" to create a new file or use \"config\" to load an existing"
               + " file.");
@@ -167,26 +1283,25 @@ public class TaskCLI {
   }
 
   /**
-   * Updates the config file with a new JSON file name and the next task ID. If the new file name
-   * contains spaces, an error message is printed and the operation is aborted. If the file name
-   * does not end with ".json", the extension is appended automatically.
+   * Points the config file at a new JSON file name, keeping the next task ID. The file is rewritten
+   * in place by IdAllocator under the lock it reserves IDs with. If the new file name contains
+   * spaces, an error message is printed and the operation is aborted. If the file name does not end
+   * with ".json", the extension is appended automatically.
    *
    * @param newFileName the new file name to set in the config file
    * @throws Exception if there is an error writing to the config file
    */
   private static void updateConfigFile(String newFileName) throws Exception {
     if (newFileName.contains(" ")) {
-      System.out.println("Invalid file name. It should not contain spaces.");
+      out.println("Invalid file name. It should not contain spaces.");
       return;
     }
     if (!newFileName.endsWith(".json")) {
       newFileName += ".json";
     }
-    int nextId = Task.getNextId();
-    FileWriter writer = new FileWriter("config.txt");
-    writer.write(nextId + "\n" + newFileName);
-    writer.close();
-    System.out.println("Config file updated successfully.");
+    IdAllocator.rewriteConfig("config.txt", newFileName, null);
+    TaskFileLock.unmarkMoved(newFileName);
+    out.println("Config file updated successfully.");
   }
 
   /**
@@ -201,37 +1316,109 @@ public class TaskCLI {
    *   <li>delete <id>: Delete the task with the given ID.
    *   <li>mark-in-progress <id>: Mark the task with the given ID as in progress.
    *   <li>mark-done <id>: Mark the task with the given ID as done.
-   *   <li>list [all|todo|in-progress|done]: List tasks based on their status.
+   *   <li>list [all|todo|in-progress|done] [--created-after=DATE] [--created-before=DATE]
+   *       [--updated-after=DATE] [--updated-before=DATE] [--all-history]: List tasks based on
+   *       their status and dates, including archived tasks with --all-history.
+   *   <li>search <words...>: List the tasks whose descriptions contain the given words.
+   *   <li>watch [--from=N]: Print the changes to the task list as they happen.
+   *   <li>compact: Fold the operation log into the task file.
+   *   <li>export <file>: Write the task list to a .json or binary .tasks file.
+   *   <li>import <file>: Replace the task list with the tasks of a .json or binary .tasks file.
+   *   <li>batch [<file>] [--keep-going] [--checkpoint=N]: Apply many commands in one load/store
+   *       cycle.
+   *   <li>serve: Keep the task list in memory and serve commands from other processes.
+   *   <li>reshard <directory> <idsPerShard>: Move the task list into shard files split by ID range.
+   *   <li>archive [--older-than=N]: Move tasks done more than N days ago into the archive.
+   *   <li>stats: Print the operation metrics of a running server.
+   *   <li>stop: Stop a running server.
    * </ul>
    *
-   * If the number of arguments is invalid, an error message is printed and the program exits. If
-   * the command is unknown, an error message is printed and the program exits.
+   * If a server is running, every command except serve and watch is forwarded to it and its output
+   * is printed. With --stats anywhere in the arguments, the counters and timers of the process are
+   * printed to standard error after the command. If the number of arguments is invalid, an error
+   * message is printed and the program exits. If the command is unknown, an error message is
+   * printed and the program exits.
    *
    * @param args the command-line arguments
    */
   public static void main(String[] args) {
+    List<String> arguments = new ArrayList<>(List.of(args));
+    boolean stats = arguments.remove("--stats");
+    args = arguments.toArray(new String[0]);
     try {
+      if (args.length > 0
+          && !args[0].equals("serve")
+          && !args[0].equals("watch")
+          && Files.exists(Path.of(TaskServer.SOCKET_FILE_NAME)) // spares loading the socket classes
+          && TaskServer.forward(args, System.out)) {
+        return;
+      }
       fileName = "taskList.json";
 
-      if (args.length < 1 || args.length > 3) {
-        System.out.println("Invalid number of arguments.");
+      if (!hasValidArgumentCount(args)) {
+        out.println("Invalid number of arguments.");
       } else if (args.length > 0 && args[0].equals("init")) {
         initializeFileName(args);
       } else {
         loadFileNameFromConfig();
-        switch (args[0]) {
-          case "config" -> updateConfigFile(args[1]);
-          case "add" -> addTask(args[1]);
-          case "update" -> updateTask(Integer.parseInt(args[1]), args[2]);
-          case "delete" -> deleteTask(Integer.parseInt(args[1]));
-          case "mark-in-progress" ->
-              updateTaskStatus(Integer.parseInt(args[1]), Task.Status.IN_PROGRESS);
-          case "mark-done" -> updateTaskStatus(Integer.parseInt(args[1]), Task.Status.DONE);
-          case "list" -> handleListCommand(args);
+        if (args[0].equals("serve")) {
+          serve();
+        } else {
+          runCommand(args);
         }
       }
     } catch (Exception exc) {
       exc.printStackTrace();
     }
+    if (stats) {
+      TaskMetrics.print(System.err);
+    }
+  }
+
+  /**
+   * Checks the number of arguments of a command. Most commands take at most two arguments after
+   * the command name; batch and list take any number of options, and search any number of words.
+   *
+   * @param args the command-line arguments
+   * @return true if the number of arguments is valid
+   */
+  private static boolean hasValidArgumentCount(String[] args) {
+    return args.length >= 1
+        && (args.length <= 3
+            || args[0].equals("batch")
+            || args[0].equals("list")
+            || args[0].equals("search"));
+  }
+
+  /**
+   * Runs one command other than init and serve against the loaded task file.
+   *
+   * @param args the command-line arguments
+   * @throws Exception if there is an error running the command
+   */
+  private static void runCommand(String[] args) throws Exception {
+    try (TaskMetrics.Timer timer = TaskMetrics.time("command." + args[0])) {
+      switch (args[0]) {
+        case "config" -> updateConfigFile(args[1]);
+        case "add" -> addTask(args[1]);
+        case "update" -> updateTask(Integer.parseInt(args[1]), args[2]);
+        case "delete" -> deleteTask(Integer.parseInt(args[1]));
+        case "mark-in-progress" ->
+            updateTaskStatus(Integer.parseInt(args[1]), Task.Status.IN_PROGRESS);
+        case "mark-done" -> updateTaskStatus(Integer.parseInt(args[1]), Task.Status.DONE);
+        case "list" -> handleListCommand(args);
+        case "search" -> searchTasks(args);
+        case "summary" -> summarizeTasks(args);
+        case "watch" -> watchChanges(args);
+        case "compact" -> compactTaskFile();
+        case "export" -> exportTasks(args[1]);
+        case "import" -> importTasks(args[1]);
+        case "batch" -> runBatch(args);
+        case "reshard" -> reshardTasks(args[1], Integer.parseInt(args[2]));
+        case "archive" -> archiveTasks(args);
+        case "stats" -> TaskMetrics.print(out);
+        case "stop" -> out.println("No server is running.");
+      }
+    }
   }
 }
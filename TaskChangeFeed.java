@@ -0,0 +1,502 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * This class keeps a feed of the changes to a task list, so that other programs can follow the
+ * changes as they happen instead of reading the whole list again. Every change is one line of JSON
+ * in a file next to the task file, with a sequence number that grows by one with every change, the
+ * kind of change, and the task before and after it:
+ *
+ * <pre>{"Seq":42,"Type":"status-changed","Old":{"ID":7,...},"New":{"ID":7,...}}</pre>
+ *
+ * <p>The types are added, updated, status-changed, and deleted, with null for the missing task of
+ * an addition or deletion, archived for a task moved into the archive, and reset when the whole
+ * task list was replaced, after which a consumer has to read the task list again. A consumer
+ * remembers the sequence number of the last change it has seen and resumes after it. Once the feed
+ * grows past MAX_FEED_SIZE its older half is dropped; a consumer that resumes from a dropped change
+ * is sent a reset first.
+ *
+ * <p>Changes are appended under the exclusive lock of the task file. Followers are woken by a
+ * WatchService on the directory of the feed and only read the lines that were added.
+ *
+ * @author Muhammad Almorshidi
+ */
+public class TaskChangeFeed {
+  /** The size of the feed above which its older half is dropped. */
+  private static final long MAX_FEED_SIZE = 16L * 1024 * 1024;
+
+  /** How long a follower waits for a notification before it checks the feed anyway. */
+  private static final long POLL_SECONDS = 1;
+
+  /** The kinds of change. */
+  public enum Type {
+    ADDED("added"),
+    UPDATED("updated"),
+    STATUS_CHANGED("status-changed"),
+    DELETED("deleted"),
+    ARCHIVED("archived"),
+    RESET("reset");
+
+    /** The name of the type in the feed. */
+    private final String name;
+
+    Type(String name) {
+      this.name = name;
+    }
+
+    /**
+     * Returns the type of a change written to the operation log.
+     *
+     * @param operation the kind of log record
+     * @return the type of the change
+     */
+    public static Type of(TaskLog.Operation operation) {
+      return switch (operation) {
+        case ADD -> ADDED;
+        case UPDATE -> UPDATED;
+        case STATUS -> STATUS_CHANGED;
+        case DELETE -> DELETED;
+      };
+    }
+
+    /**
+     * Returns the type with a name.
+     *
+     * @param name the name of the type in the feed
+     * @return the type
+     */
+    public static Type named(String name) {
+      for (Type type : values()) {
+        if (type.name.equals(name)) {
+          return type;
+        }
+      }
+      throw new IllegalArgumentException("Unknown change type: " + name);
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  /**
+   * One change, as appended by a writer before it has a sequence number.
+   *
+   * @param type the kind of change
+   * @param oldTask the JSON object of the task before the change, or null
+   * @param newTask the JSON object of the task after the change, or null
+   */
+  public record Change(Type type, String oldTask, String newTask) {}
+
+  /**
+   * One change read from the feed.
+   *
+   * @param sequence the sequence number of the change
+   * @param type the kind of change
+   * @param oldTask the task before the change, or null
+   * @param newTask the task after the change, or null
+   */
+  public record Event(long sequence, Type type, Task oldTask, Task newTask) {
+    /**
+     * Parses one line of the feed. The fields are read in the order they are written, each key
+     * searched for only after the value of the one before, so a key that appears inside the old
+     * task, such as in its description, is never taken for the next field.
+     *
+     * @param line the line, without its line break
+     * @return the change it describes
+     */
+    public static Event parse(String line) {
+      int start = valueStart(line, "\"Seq\":", 0);
+      int end = valueEnd(line, start);
+      long sequence = Long.parseLong(line.substring(start, end));
+      start = valueStart(line, "\"Type\":", end);
+      end = valueEnd(line, start);
+      Type type = Type.named(line.substring(start + 1, end - 1));
+      start = valueStart(line, "\"Old\":", end);
+      end = valueEnd(line, start);
+      String oldTask = line.substring(start, end);
+      start = valueStart(line, "\"New\":", end);
+      end = valueEnd(line, start);
+      String newTask = line.substring(start, end);
+      return new Event(
+          sequence,
+          type,
+          oldTask.equals("null") ? null : Task.fromJson(oldTask),
+          newTask.equals("null") ? null : Task.fromJson(newTask));
+    }
+  }
+
+  /**
+   * Returns the name of the feed that belongs to the given JSON file.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @return the name of the feed
+   */
+  public static String feedFileName(String jsonFileName) {
+    return jsonFileName + ".changes";
+  }
+
+  /**
+   * Appends changes to the feed, numbering them after the last change in it. The caller must hold
+   * the exclusive lock on the task file.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @param changes the changes, in the order they were made
+   * @throws IOException if there is an error reading or writing the feed
+   */
+  public static void append(String jsonFileName, List<Change> changes) throws IOException {
+    if (changes.isEmpty()) {
+      return;
+    }
+    Path path = Path.of(feedFileName(jsonFileName));
+    try (FileChannel feed =
+        FileChannel.open(
+            path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      long end = lastLineBreakBefore(feed, feed.size()) + 1;
+      if (end < feed.size()) {
+        feed.truncate(end); // a line torn by an interrupted append
+      }
+      String last = lastLine(feed);
+      long sequence = last == null ? 0 : Long.parseLong(valueAfter(last, "\"Seq\":"));
+      StringBuilder lines = new StringBuilder();
+      for (Change change : changes) {
+        lines
+            .append("{\"Seq\":")
+            .append(++sequence)
+            .append(",\"Type\":\"")
+            .append(change.type())
+            .append("\",\"Old\":")
+            .append(Objects.requireNonNullElse(change.oldTask(), "null"))
+            .append(",\"New\":")
+            .append(Objects.requireNonNullElse(change.newTask(), "null"))
+            .append("}\n");
+      }
+      ByteBuffer bytes = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+      while (bytes.hasRemaining()) {
+        feed.write(bytes, end + bytes.position());
+      }
+      end = feed.size();
+      if (end > MAX_FEED_SIZE) {
+        dropOlderHalf(path, feed, end);
+      }
+    }
+  }
+
+  /**
+   * Appends one change to the feed. The caller must hold the exclusive lock on the task file.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @param type the kind of change
+   * @param oldTask the JSON object of the task before the change, or null
+   * @param newTask the JSON object of the task after the change, or null
+   * @throws IOException if there is an error reading or writing the feed
+   */
+  public static void append(String jsonFileName, Type type, String oldTask, String newTask)
+      throws IOException {
+    append(jsonFileName, List.of(new Change(type, oldTask, newTask)));
+  }
+
+  /**
+   * Returns the sequence number of the last change in the feed.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @return the sequence number, or 0 if there has been no change
+   * @throws IOException if there is an error reading the feed
+   */
+  public static long lastSequence(String jsonFileName) throws IOException {
+    Path path = Path.of(feedFileName(jsonFileName));
+    if (!Files.exists(path)) {
+      return 0;
+    }
+    try (FileChannel feed = FileChannel.open(path)) {
+      String last = lastLine(feed);
+      return last == null ? 0 : Long.parseLong(valueAfter(last, "\"Seq\":"));
+    }
+  }
+
+  /**
+   * Follows the feed, passing every line after a sequence number to a consumer as it is appended,
+   * until the consumer returns false or the thread is interrupted. If the changes right after the
+   * sequence number have been dropped, a reset line is passed first.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @param after the sequence number of the last change already seen
+   * @param consumer receives each line without its line break, and returns false to stop
+   * @throws IOException if there is an error reading the feed
+   */
+  public static void follow(String jsonFileName, long after, LineConsumer consumer)
+      throws IOException {
+    Path path = Path.of(feedFileName(jsonFileName)).toAbsolutePath();
+    try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+      path.getParent()
+          .register(
+              watcher,
+              StandardWatchEventKinds.ENTRY_CREATE,
+              StandardWatchEventKinds.ENTRY_MODIFY);
+      Cursor cursor = new Cursor(after);
+      while (cursor.read(path, consumer)) {
+        WatchKey key = watcher.poll(POLL_SECONDS, TimeUnit.SECONDS);
+        if (key != null) {
+          key.pollEvents(); // any change in the directory leads to a read; reads are cheap
+          key.reset();
+        }
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Follows the feed like follow, passing each change to a listener as a parsed event.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @param after the sequence number of the last change already seen
+   * @param listener receives each change
+   * @throws IOException if there is an error reading the feed
+   */
+  public static void listen(String jsonFileName, long after, Consumer<Event> listener)
+      throws IOException {
+    follow(
+        jsonFileName,
+        after,
+        line -> {
+          listener.accept(Event.parse(line));
+          return true;
+        });
+  }
+
+  /** Receives the lines of a followed feed. */
+  @FunctionalInterface
+  public interface LineConsumer {
+    /**
+     * Receives one line.
+     *
+     * @param line the line, without its line break
+     * @return true to keep following, false to stop
+     * @throws IOException if the line cannot be passed on
+     */
+    boolean accept(String line) throws IOException;
+  }
+
+  /** The position of a follower in the feed. */
+  private static class Cursor {
+    /** The sequence number of the last change passed on. */
+    private long sequence;
+
+    /** The identity of the feed file read last, to notice when it has been replaced. */
+    private Object fileKey;
+
+    /** The offset in that file after the last complete line read. */
+    private long offset;
+
+    Cursor(long sequence) {
+      this.sequence = sequence;
+    }
+
+    /**
+     * Passes on the complete lines appended to the feed since the last read.
+     *
+     * @param path the path of the feed
+     * @param consumer receives the lines
+     * @return false if the consumer asked to stop
+     * @throws IOException if there is an error reading the feed
+     */
+    boolean read(Path path, LineConsumer consumer) throws IOException {
+      if (!Files.exists(path)) {
+        return true;
+      }
+      try (FileChannel feed = FileChannel.open(path)) {
+        Object key = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        boolean resumed = key != null && key.equals(fileKey) && offset <= feed.size();
+        if (!resumed) {
+          fileKey = key;
+          offset = 0;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        boolean first = !resumed;
+        while (true) {
+          buffer.clear();
+          int read = feed.read(buffer, offset + line.size());
+          if (read <= 0) {
+            return true;
+          }
+          for (int i = 0; i < read; i++) {
+            byte b = buffer.get(i);
+            if (b != '\n') {
+              line.write(b);
+              continue;
+            }
+            String text = line.toString(StandardCharsets.UTF_8);
+            offset += line.size() + 1;
+            line.reset();
+            long lineSequence = Long.parseLong(valueAfter(text, "\"Seq\":"));
+            if (first && lineSequence > sequence + 1) {
+              // The changes after the last one seen have been dropped from the feed.
+              String reset =
+                  "{\"Seq\":"
+                      + (lineSequence - 1)
+                      + ",\"Type\":\"reset\",\"Old\":null,\"New\":null}";
+              if (!consumer.accept(reset)) {
+                return false;
+              }
+            }
+            first = false;
+            if (lineSequence > sequence) {
+              sequence = lineSequence;
+              if (!consumer.accept(text)) {
+                return false;
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Keeps the newer half of the feed, starting at a line boundary, and replaces the feed with it.
+   *
+   * @param path the path of the feed
+   * @param feed the open feed
+   * @param size the size of the feed
+   * @throws IOException if there is an error reading or replacing the feed
+   */
+  private static void dropOlderHalf(Path path, FileChannel feed, long size) throws IOException {
+    ByteBuffer newer = ByteBuffer.allocate((int) (size - size / 2));
+    while (newer.hasRemaining() && feed.read(newer, size / 2 + newer.position()) >= 0) {}
+    int start = 0;
+    while (start < newer.limit() && newer.get(start) != '\n') {
+      start++;
+    }
+    newer.position(Math.min(start + 1, newer.limit()));
+    JsonUtil.replaceFile(path.toString(), newer.slice());
+  }
+
+  /**
+   * Reads the last complete line of the feed.
+   *
+   * @param feed the open feed
+   * @return the line without its line break, or null if there is none
+   * @throws IOException if there is an error reading the feed
+   */
+  private static String lastLine(FileChannel feed) throws IOException {
+    long lineEnd = lastLineBreakBefore(feed, feed.size());
+    if (lineEnd < 0) {
+      return null;
+    }
+    long lineStart = lastLineBreakBefore(feed, lineEnd) + 1;
+    ByteBuffer line = ByteBuffer.allocate((int) (lineEnd - lineStart));
+    while (line.hasRemaining() && feed.read(line, lineStart + line.position()) >= 0) {}
+    return new String(line.array(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Finds the last line break before an offset of the feed.
+   *
+   * @param feed the open feed
+   * @param end the offset to search before
+   * @return the offset of the line break, or -1 if there is none
+   * @throws IOException if there is an error reading the feed
+   */
+  private static long lastLineBreakBefore(FileChannel feed, long end) throws IOException {
+    ByteBuffer chunk = ByteBuffer.allocate(4096);
+    while (end > 0) {
+      chunk.clear().limit((int) Math.min(chunk.capacity(), end));
+      long start = end - chunk.limit();
+      while (chunk.hasRemaining() && feed.read(chunk, start + chunk.position()) >= 0) {}
+      for (int i = chunk.limit() - 1; i >= 0; i--) {
+        if (chunk.get(i) == '\n') {
+          return start + i;
+        }
+      }
+      end = start;
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the raw value of the first field of a feed line with a key: a number, null, a string
+   * with its quotes, or a JSON object.
+   *
+   * @param line the line
+   * @param key the quoted key followed by a colon
+   * @return the text of the value
+   */
+  private static String valueAfter(String line, String key) {
+    int start = valueStart(line, key, 0);
+    return line.substring(start, valueEnd(line, start));
+  }
+
+  /**
+   * Finds where the value of a field of a feed line starts.
+   *
+   * @param line the line
+   * @param key the quoted key followed by a colon
+   * @param from the offset to search for the key from
+   * @return the offset of the value
+   * @throws IllegalArgumentException if the key does not appear after the offset
+   */
+  private static int valueStart(String line, String key, int from) {
+    int at = line.indexOf(key, from);
+    if (at < 0) {
+      throw new IllegalArgumentException("Malformed change: " + line);
+    }
+    return at + key.length();
+  }
+
+  /**
+   * Finds where the value of a field of a feed line ends, skipping over strings and nested
+   * objects.
+   *
+   * @param line the line
+   * @param start the offset of the value
+   * @return the offset after the value
+   * @throws IllegalArgumentException if the value is not closed
+   */
+  private static int valueEnd(String line, int start) {
+    int depth = 0;
+    boolean inString = false;
+    for (int i = start; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (inString) {
+        if (c == '\\') {
+          i++;
+        } else if (c == '"') {
+          inString = false;
+          if (depth == 0) {
+            return i + 1;
+          }
+        }
+      } else if (c == '"') {
+        inString = true;
+      } else if (c == '{') {
+        depth++;
+      } else if (c == '}' && depth > 0) {
+        if (--depth == 0) {
+          return i + 1;
+        }
+      } else if (depth == 0 && (c == ',' || c == '}')) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException("Malformed change: " + line);
+  }
+}
@@ -0,0 +1,571 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * This class checks the results of TaskCLI commands on a generated task list against results
+ * worked out independently from the generated tasks. It runs the commands in-process on a task
+ * list in a temporary directory and compares the IDs they list:
+ *
+ * <ul>
+ *   <li>paging: for every sort order and several filters, walking the pages with --after must list
+ *       exactly the sorted tasks, and every page at an --offset must be the matching part of them,
+ *       both when the pages are read from the task files and from the task list a batch loads.
+ *   <li>options: an unknown argument, a malformed date, or a negative or malformed number must be
+ *       reported as an invalid list option and list nothing.
+ *   <li>archiving: after each of two archive commands, list must show the tasks that were not
+ *       archived, and list --all-history those followed by the archived ones in the order they
+ *       were archived, with and without a filter, again both from the files and in a batch.
+ *   <li>resharding: after moving the list into shards, list must show the same tasks and list
+ *       --all-history the archived ones shard by shard, paging must work as before, changes must
+ *       land in the shards, and moving the shards into smaller ones must keep all of it. Writes to
+ *       the moved files must be refused, and after config goes back to the task file, it must list
+ *       what it held before the first move and take changes again.
+ * </ul>
+ *
+ * <p>Since TaskCLI reads the config file of the current directory, the checks run in a second JVM
+ * started in the temporary directory. It prints PASS or the failed checks and exits with status 1
+ * if there are any.
+ *
+ * <p>Usage: java TaskChecks
+ *
+ * @author Muhammad Almorshidi
+ */
+public class TaskChecks {
+  /** The number of tasks generated. */
+  private static final int TASKS = 400;
+
+  /** The number of days the generated creation dates are spread over. */
+  private static final int DAYS = 60;
+
+  /** The seed of the generated tasks. */
+  private static final long SEED = 20240611L;
+
+  /** The number of tasks per page; odd, so that pages end in the middle of a day. */
+  private static final int LIMIT = 37;
+
+  /** The name of the task file, relative to the temporary directory. */
+  private static final String TASK_FILE = "taskList.json";
+
+  /** The name of the file a batch reads its commands from. */
+  private static final String BATCH_FILE = "checks.batch";
+
+  /** The current day. */
+  private static final LocalDate TODAY = LocalDate.now();
+
+  /** Where the results of the checks are printed, since System.out is captured. */
+  private static PrintStream report;
+
+  /** The captured output of the commands. */
+  private static final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+  /** The descriptions of the failed checks. */
+  private static final List<String> failures = new ArrayList<>();
+
+  /** One filter of the list command together with the tasks it should match. */
+  private record Filter(List<String> args, Predicate<Task> matches) {}
+
+  /**
+   * Runs the checks in a new temporary directory, or in the current one when started with
+   * --in-directory by the checks themselves.
+   *
+   * @param args not used
+   * @throws Exception if the checks cannot be set up
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length > 0 && args[0].equals("--in-directory")) {
+      runChecks();
+      return;
+    }
+    Path directory = Files.createTempDirectory("taskchecks");
+    try {
+      String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+      List<String> classPath = new ArrayList<>();
+      for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+        classPath.add(new File(entry).getAbsolutePath()); // the checks run in the directory
+      }
+      Process process =
+          new ProcessBuilder(
+                  java,
+                  "-cp",
+                  String.join(File.pathSeparator, classPath),
+                  "TaskChecks",
+                  "--in-directory")
+              .directory(directory.toFile())
+              .inheritIO()
+              .start();
+      int status = process.waitFor();
+      if (status != 0) {
+        System.exit(status);
+      }
+    } finally {
+      try (Stream<Path> files = Files.walk(directory)) {
+        files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+      }
+    }
+  }
+
+  /**
+   * Runs the checks in the current directory and reports the result.
+   *
+   * @throws Exception if the task list cannot be written
+   */
+  private static void runChecks() throws Exception {
+    report = System.out;
+    System.setOut(new PrintStream(output, true, StandardCharsets.UTF_8)); // before TaskCLI loads
+    List<Task> tasks = generate();
+    checkInvalidOptions();
+    checkPaging("files", tasks, false);
+    checkPaging("batch", tasks, true);
+    List<Task> history = new ArrayList<>();
+    tasks = checkArchive(tasks, history);
+    checkReshard(tasks, history);
+    if (failures.isEmpty()) {
+      report.println("PASS");
+      return;
+    }
+    for (String failure : failures) {
+      report.println("FAIL: " + failure);
+    }
+    System.exit(1);
+  }
+
+  /**
+   * Checks that list reports each malformed argument in one line instead of listing tasks.
+   */
+  private static void checkInvalidOptions() {
+    String[] invalid = {
+      "--limit=-1", "--limit=x", "--offset=-1", "--after=x", "--limit", "20", "undone",
+      "--created-after=2024-13-01", "--updated-before="
+    };
+    for (String arg : invalid) {
+      check("list " + arg, List.of("Invalid list option: " + arg), run("list", "todo", arg));
+    }
+  }
+
+  /**
+   * Writes a task list of TASKS tasks with random statuses and dates, several of them on each day,
+   * and points the config file at it.
+   *
+   * @return the tasks
+   * @throws Exception if the task list cannot be written
+   */
+  private static List<Task> generate() throws Exception {
+    Random random = new Random(SEED);
+    Task.Status[] statuses = {Task.Status.TODO, Task.Status.IN_PROGRESS, Task.Status.DONE};
+    List<Task> tasks = new ArrayList<>();
+    for (int id = 1; id <= TASKS; id++) {
+      LocalDate createdAt = TODAY.minusDays(random.nextInt(DAYS));
+      LocalDate updatedAt = createdAt.plusDays(random.nextInt(10));
+      tasks.add(
+          new Task(
+              id,
+              statuses[random.nextInt(statuses.length)],
+              createdAt,
+              updatedAt.isAfter(TODAY) ? TODAY : updatedAt,
+              "task " + id));
+    }
+    Files.writeString(Path.of("config.txt"), (TASKS + 1) + "\n" + TASK_FILE);
+    TaskLog.writeSnapshot(TASK_FILE, tasks);
+    return tasks;
+  }
+
+  /**
+   * Checks paging in every sort order with several filters.
+   *
+   * @param name the name of the setting, for the failures
+   * @param tasks the current tasks
+   * @param batch whether to run the list commands in a batch, which pages through the indexes of
+   *     the task list in memory, instead of on their own, which scan the task index
+   * @throws Exception if a command cannot be run
+   */
+  private static void checkPaging(String name, List<Task> tasks, boolean batch) throws Exception {
+    LocalDate updatedAfter = TODAY.minusDays(DAYS / 3);
+    LocalDate createdBefore = TODAY.minusDays(DAYS / 2);
+    List<Filter> filters =
+        List.of(
+            new Filter(List.of(), task -> true),
+            new Filter(List.of("todo"), task -> task.getStatus() == Task.Status.TODO),
+            new Filter(
+                List.of("--updated-after=" + updatedAfter),
+                task -> task.getUpdatedAt().isAfter(updatedAfter)),
+            new Filter(
+                List.of("done", "--created-before=" + createdBefore),
+                task ->
+                    task.getStatus() == Task.Status.DONE
+                        && task.getCreatedAt().isBefore(createdBefore)));
+    for (String sort : List.of("id", "created", "updated")) {
+      for (Filter filter : filters) {
+        List<Integer> expected =
+            tasks.stream()
+                .filter(filter.matches())
+                .sorted(order(sort))
+                .map(Task::getId)
+                .toList();
+        String setting = name + " list " + String.join(" ", filter.args()) + " --sort=" + sort;
+
+        List<Integer> walked = new ArrayList<>();
+        String after = null;
+        for (int pages = 0; pages <= TASKS / LIMIT + 1; pages++) {
+          List<Integer> page = list(batch, filter.args(), sort, after, 0);
+          if (page.isEmpty()) {
+            break;
+          }
+          walked.addAll(page);
+          after = Integer.toString(page.get(page.size() - 1));
+        }
+        check(setting + " walked with --after", expected, walked);
+
+        int n = expected.size();
+        for (int offset : new int[] {1, LIMIT - 1, n / 2, Math.max(n - 1, 0), n, n + 5}) {
+          check(
+              setting + " --offset=" + offset,
+              expected.subList(Math.min(offset, n), Math.min(offset + LIMIT, n)),
+              list(batch, filter.args(), sort, null, offset));
+        }
+        if (n > 2) {
+          int from = n / 3;
+          check(
+              setting + " --after=" + expected.get(from) + " --offset=" + LIMIT / 2,
+              expected.subList(
+                  Math.min(from + 1 + LIMIT / 2, n), Math.min(from + 1 + LIMIT / 2 + LIMIT, n)),
+              list(batch, filter.args(), sort, expected.get(from).toString(), LIMIT / 2));
+        }
+      }
+    }
+  }
+
+  /**
+   * Archives the tasks done before two cutoffs one after the other, and checks the current and the
+   * whole history after each.
+   *
+   * @param tasks the current tasks, in ID order
+   * @param history receives the archived tasks, in the order they were archived
+   * @return the tasks still current after archiving
+   * @throws Exception if a command cannot be run
+   */
+  private static List<Task> checkArchive(List<Task> tasks, List<Task> history) throws Exception {
+    List<Task> current = new ArrayList<>(tasks);
+    for (int days : new int[] {DAYS * 2 / 3, DAYS / 3}) {
+      LocalDate cutoff = TODAY.minusDays(days);
+      Predicate<Task> old =
+          task -> task.getStatus() == Task.Status.DONE && task.getUpdatedAt().isBefore(cutoff);
+      List<Task> archived = current.stream().filter(old).toList();
+      current.removeIf(old);
+      check(
+          "archive --older-than=" + days,
+          List.of("Archived " + archived.size() + " tasks done before " + cutoff + "."),
+          run("archive", "--older-than=" + days));
+      List<Task> all = new ArrayList<>(current);
+      all.addAll(history);
+      all.addAll(archived);
+      history.addAll(archived);
+
+      LocalDate updatedAfter = TODAY.minusDays(DAYS / 2);
+      Predicate<Task> filter =
+          task -> task.getStatus() == Task.Status.DONE && task.getUpdatedAt().isAfter(updatedAfter);
+      for (boolean batch : new boolean[] {false, true}) {
+        String setting = (batch ? "batch" : "files") + " after archive --older-than=" + days;
+        check(setting + " list", ids(current, task -> true), listIds(batch, "list"));
+        check(
+            setting + " list --all-history",
+            ids(all, task -> true),
+            listIds(batch, "list", "--all-history"));
+        check(
+            setting + " list done --updated-after=" + updatedAfter + " --all-history",
+            ids(all, filter),
+            listIds(batch, "list", "done", "--updated-after=" + updatedAfter, "--all-history"));
+      }
+    }
+    return current;
+  }
+
+  /**
+   * Moves the task list into shards of 50 IDs, changes it, and moves it into shards of 7 IDs,
+   * checking the current tasks and the whole history after each move. Then checks that the moved
+   * files refuse writes and that going back to the task file restores what it held before.
+   *
+   * @param tasks the current tasks, in ID order
+   * @param history the archived tasks, in the order they were archived
+   * @throws Exception if a command cannot be run
+   */
+  private static void checkReshard(List<Task> tasks, List<Task> history) throws Exception {
+    List<Integer> before = ids(tasks, task -> true);
+    List<Integer> beforeHistory = new ArrayList<>(before);
+    beforeHistory.addAll(ids(history, task -> true));
+    List<Task> current = new ArrayList<>(tasks);
+
+    reshard("shards1", 50, current, history);
+    checkHistory("shards1", current, history, List.of(50));
+    checkPaging("shards1 files", current, false);
+    checkPaging("shards1 batch", current, true);
+
+    int added = TASKS + 1;
+    check("shards1 add", List.of("Task added successfully."), run("add", "added to shards"));
+    current.add(new Task(added, Task.Status.TODO, TODAY, TODAY, "added to shards"));
+    check(
+        "shards1 update",
+        List.of("Task updated successfully."),
+        run("update", Integer.toString(current.get(1).getId()), "updated in shards"));
+    check(
+        "shards1 delete",
+        List.of("Task deleted successfully."),
+        run("delete", Integer.toString(current.get(2).getId())));
+    current.remove(2);
+    Task todo =
+        current.stream().filter(task -> task.getStatus() == Task.Status.TODO).toList().get(0);
+    check(
+        "shards1 mark-done",
+        List.of("Task status updated successfully."),
+        run("mark-done", Integer.toString(todo.getId())));
+    todo.updateStatus(Task.Status.DONE);
+    checkHistory("shards1 after changes", current, history, List.of(50));
+
+    reshard("shards2", 7, current, history);
+    checkHistory("shards2", current, history, List.of(50, 7));
+
+    checkRefused(TASK_FILE, "shards1");
+    checkRefused(Path.of("shards1", "shard-000000.json").toString(), "shards2");
+
+    check(
+        "config " + TASK_FILE,
+        List.of("Config file updated successfully."),
+        run("config", TASK_FILE));
+    for (boolean batch : new boolean[] {false, true}) {
+      String setting = (batch ? "batch" : "files") + " back in " + TASK_FILE;
+      check(setting + " list", before, listIds(batch, "list"));
+      check(
+          setting + " list --all-history", beforeHistory, listIds(batch, "list", "--all-history"));
+    }
+    check("add back in " + TASK_FILE, List.of("Task added successfully."), run("add", "back"));
+    List<Integer> after = new ArrayList<>(before);
+    after.add(added + 1);
+    check("list after add back in " + TASK_FILE, after, listIds(false, "list"));
+  }
+
+  /**
+   * Runs reshard and checks what it reports.
+   *
+   * @param directory the directory of the shards
+   * @param idsPerShard the number of IDs per shard
+   * @param current the current tasks
+   * @param history the archived tasks
+   */
+  private static void reshard(
+      String directory, int idsPerShard, List<Task> current, List<Task> history) {
+    long shards =
+        Stream.concat(current.stream(), history.stream())
+            .map(task -> task.getId() / idsPerShard)
+            .distinct()
+            .count();
+    String moved =
+        "Moved "
+            + current.size()
+            + " tasks and "
+            + history.size()
+            + " archived tasks into "
+            + shards
+            + " shards in "
+            + directory
+            + ".";
+    check(
+        "reshard " + directory + " " + idsPerShard,
+        List.of(moved),
+        run("reshard", directory, Integer.toString(idsPerShard)));
+  }
+
+  /**
+   * Checks the current tasks and the whole history of a sharded list, from the files and in a
+   * batch. The archived tasks are listed shard by shard, and within a shard in the order they came
+   * out of the shards of the layouts the list was moved through before.
+   *
+   * @param name the name of the setting, for the failures
+   * @param current the current tasks, in ID order
+   * @param history the archived tasks, in the order they were archived
+   * @param layouts the numbers of IDs per shard of the layouts the list was moved into, in order
+   * @throws Exception if a command cannot be run
+   */
+  private static void checkHistory(
+      String name, List<Task> current, List<Task> history, List<Integer> layouts)
+      throws Exception {
+    Comparator<Task> byShard = null;
+    for (int i = layouts.size() - 1; i >= 0; i--) {
+      int idsPerShard = layouts.get(i);
+      Comparator<Task> shard = Comparator.comparingInt(task -> task.getId() / idsPerShard);
+      byShard = byShard == null ? shard : byShard.thenComparing(shard);
+    }
+    List<Integer> all = new ArrayList<>(ids(current, task -> true));
+    all.addAll(ids(history.stream().sorted(byShard).toList(), task -> true));
+    for (boolean batch : new boolean[] {false, true}) {
+      String setting = (batch ? "batch " : "files ") + name;
+      check(setting + " list", ids(current, task -> true), listIds(batch, "list"));
+      check(
+          setting + " list done",
+          ids(current, task -> task.getStatus() == Task.Status.DONE),
+          listIds(batch, "list", "done"));
+      check(setting + " list --all-history", all, listIds(batch, "list", "--all-history"));
+    }
+  }
+
+  /**
+   * Checks that appending to a task file that was moved away fails.
+   *
+   * @param taskFile the name of the moved task file
+   * @param destination where it was moved to
+   */
+  private static void checkRefused(String taskFile, String destination) {
+    String result;
+    try {
+      Task task = new Task(TASKS * 2, Task.Status.TODO, TODAY, TODAY, "stale");
+      TaskLog.append(taskFile, TaskLog.Operation.ADD, task);
+      result = "appended";
+    } catch (IOException e) {
+      result = e.getMessage();
+    } catch (Exception e) {
+      result = e.toString();
+    }
+    check(
+        "append to moved " + taskFile,
+        List.of(taskFile + " was moved to " + destination + ". Run the command again to use it."),
+        List.of(result));
+  }
+
+  /**
+   * Returns the IDs of the tasks that match a condition.
+   *
+   * @param tasks the tasks
+   * @param matches the condition
+   * @return the IDs of the matching tasks, in order
+   */
+  private static List<Integer> ids(List<Task> tasks, Predicate<Task> matches) {
+    return tasks.stream().filter(matches).map(Task::getId).toList();
+  }
+
+  /**
+   * Returns the listing order of a sort order: ascending ID, or the newest date first and the
+   * higher ID first within a day.
+   *
+   * @param sort the sort order as given to --sort=
+   * @return the order
+   */
+  private static Comparator<Task> order(String sort) {
+    Comparator<Task> byId = Comparator.comparingInt(Task::getId);
+    return switch (sort) {
+      case "created" -> Comparator.comparing(Task::getCreatedAt).thenComparing(byId).reversed();
+      case "updated" -> Comparator.comparing(Task::getUpdatedAt).thenComparing(byId).reversed();
+      default -> byId;
+    };
+  }
+
+  /**
+   * Lists one page of tasks.
+   *
+   * @param batch whether to run the command in a batch
+   * @param filter the filter arguments
+   * @param sort the sort order
+   * @param after the ID of the task the page starts after, or null
+   * @param offset the offset
+   * @return the IDs listed, in order
+   * @throws Exception if the command cannot be run
+   */
+  private static List<Integer> list(
+      boolean batch, List<String> filter, String sort, String after, int offset)
+      throws Exception {
+    List<String> command = new ArrayList<>(List.of("list"));
+    command.addAll(filter);
+    command.add("--sort=" + sort);
+    command.add("--limit=" + LIMIT);
+    if (after != null) {
+      command.add("--after=" + after);
+    }
+    if (offset > 0) {
+      command.add("--offset=" + offset);
+    }
+    return listIds(batch, command.toArray(new String[0]));
+  }
+
+  /**
+   * Runs a list command and reads the IDs it lists.
+   *
+   * @param batch whether to run the command in a batch
+   * @param args the command-line arguments
+   * @return the IDs listed, in order
+   * @throws Exception if the command cannot be run
+   */
+  private static List<Integer> listIds(boolean batch, String... args) throws Exception {
+    return ids(batch ? batch(String.join(" ", args)) : run(args));
+  }
+
+  /**
+   * Runs a command in a batch of its own.
+   *
+   * @param command the command line
+   * @return the output of the command, without the line numbers of the batch
+   * @throws Exception if the batch file cannot be written
+   */
+  private static List<String> batch(String command) throws Exception {
+    Files.writeString(Path.of(BATCH_FILE), command + "\n");
+    List<String> lines = new ArrayList<>();
+    for (String line : run("batch", BATCH_FILE)) {
+      lines.add(line.startsWith("1: ") ? line.substring(3) : line);
+    }
+    return lines;
+  }
+
+  /**
+   * Runs a command and captures its output.
+   *
+   * @param args the command-line arguments
+   * @return the lines written
+   */
+  private static List<String> run(String... args) {
+    output.reset();
+    TaskCLI.main(args);
+    String written = output.toString(StandardCharsets.UTF_8);
+    return written.isEmpty() ? List.of() : List.of(written.split("\n"));
+  }
+
+  /**
+   * Reads the IDs of the rows of a listing.
+   *
+   * @param lines the output of the list command
+   * @return the IDs, in order
+   */
+  private static List<Integer> ids(List<String> lines) {
+    List<Integer> ids = new ArrayList<>();
+    for (String line : lines) {
+      if (!line.equals("No tasks found.")) {
+        try {
+          ids.add(Integer.parseInt(line.trim().split("\\s+")[0]));
+        } catch (NumberFormatException e) {
+          failures.add("unexpected output: " + line);
+        }
+      }
+    }
+    return ids;
+  }
+
+  /**
+   * Records a failure if a result differs from the expected one.
+   *
+   * @param name the name of the check
+   * @param expected the expected IDs or lines
+   * @param actual the IDs listed or the lines written
+   */
+  private static void check(String name, List<?> expected, List<?> actual) {
+    if (!expected.equals(actual)) {
+      failures.add(name + ": expected " + expected + " but got " + actual);
+    }
+  }
+}
@@ -0,0 +1,54 @@
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * This interface is implemented by the file formats a task list can be stored in. The live task
+ * file, with its operation log and index, is always JSON; the other formats are used to export the
+ * task list and import it again.
+ *
+ * <p>The format of a file is chosen by its extension: JsonTaskCodec for ".json" and
+ * BinaryTaskCodec for ".tasks".
+ *
+ * @author Muhammad Almorshidi
+ */
+public interface TaskCodec {
+  /**
+   * Writes a complete task list to a file, replacing its previous content.
+   *
+   * @param fileName the name of the file
+   * @param tasks the tasks to write, in order
+   * @throws Exception if there is an error writing the file
+   */
+  void write(String fileName, Collection<Task> tasks) throws Exception;
+
+  /**
+   * Reads a complete task list from a file.
+   *
+   * @param fileName the name of the file
+   * @return the tasks in the file, in order
+   * @throws Exception if the file cannot be read or is not in this format
+   */
+  List<Task> read(String fileName) throws Exception;
+
+  /**
+   * Returns the codec for the format of a file, based on its extension.
+   *
+   * @param fileName the name of the file
+   * @return the codec for the file
+   * @throws Exception if the extension belongs to no known format
+   */
+  static TaskCodec forFile(String fileName) throws Exception {
+    if (fileName.endsWith(JsonTaskCodec.EXTENSION)) {
+      return new JsonTaskCodec();
+    }
+    if (fileName.endsWith(BinaryTaskCodec.EXTENSION)) {
+      return new BinaryTaskCodec();
+    }
+    throw new Exception(
+        "Unknown file format. The file name should end with "
+            + JsonTaskCodec.EXTENSION
+            + " or "
+            + BinaryTaskCodec.EXTENSION
+            + ".");
+  }
+}
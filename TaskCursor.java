@@ -0,0 +1,140 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+/**
+ * This class iterates lazily over the current tasks of a task file, in the same order as
+ * TaskLog.replay, without holding the task list in memory. It walks the mapped JSON file and asks
+ * the index where the current object of each task lives: objects still current in the JSON file are
+ * parsed in place, objects superseded by the log are read from the log, and deleted tasks are
+ * skipped. Tasks added through the log have IDs above every ID in the JSON file, so they are
+ * emitted afterwards in ID order straight from the index.
+ *
+ * <p>A status filter is pushed down into the parser, so a task whose status is rejected is never
+ * fully decoded. The cursor holds a shared lock on the task file until it is closed.
+ *
+ * @author Muhammad Almorshidi
+ */
+public class TaskCursor implements Iterator<Task>, AutoCloseable {
+  /** The shared lock on the task file, held for the lifetime of the cursor. */
+  private final TaskFileLock lock;
+
+  /** The index of the task file, open for the lifetime of the cursor. */
+  private final TaskIndex index;
+
+  /** The mapped JSON file. */
+  private final MappedTaskFile file;
+
+  /** The statuses to return, or null to return every task. */
+  private final Predicate<Task.Status> filter;
+
+  /** The highest ID seen in the JSON file so far. */
+  private int maxFileId = -1;
+
+  /** The next ID to look at once the JSON file is exhausted, or -1 while it is still being read. */
+  private int nextLogId = -1;
+
+  /** The task to return from the next call to next, or null if it has not been found yet. */
+  private Task pending;
+
+  /**
+   * Opens a cursor over the current tasks of a task file.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @param filter the statuses to return, or null to return every task
+   * @throws Exception if there is an error opening the index or the JSON file
+   */
+  public TaskCursor(String jsonFileName, Predicate<Task.Status> filter) throws Exception {
+    this.lock = TaskFileLock.shared(jsonFileName);
+    try {
+      this.index = TaskIndex.open(jsonFileName);
+    } catch (Exception e) {
+      lock.close();
+      throw e;
+    }
+    try {
+      this.file = MappedTaskFile.open(jsonFileName);
+    } catch (IOException e) {
+      index.close();
+      lock.close();
+      throw e;
+    }
+    this.filter = filter;
+  }
+
+  /**
+   * Returns whether there is another task, looking ahead in the files if needed.
+   *
+   * @return true if next will return a task
+   */
+  @Override
+  public boolean hasNext() {
+    try {
+      while (pending == null && nextLogId < 0 && file.next()) {
+        int id = file.id();
+        maxFileId = Math.max(maxFileId, id);
+        byte segment = index.segment(id);
+        if (segment == TaskIndex.IN_JSON_FILE && index.offset(id) == file.offset()) {
+          pending = file.task(filter);
+        } else if (segment == TaskIndex.IN_LOG) {
+          pending = readFromIndex(id);
+        }
+      }
+      if (nextLogId < 0 && pending == null) {
+        nextLogId = maxFileId + 1;
+      }
+      while (pending == null && nextLogId >= 0 && nextLogId < index.capacity()) {
+        int id = nextLogId++;
+        if (index.segment(id) == TaskIndex.IN_LOG) {
+          pending = readFromIndex(id);
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+    return pending != null;
+  }
+
+  /**
+   * Returns the next task.
+   *
+   * @return the next task
+   */
+  @Override
+  public Task next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    Task task = pending;
+    pending = null;
+    return task;
+  }
+
+  /**
+   * Closes the index and the JSON file and releases the lock.
+   *
+   * @throws IOException if there is an error closing either file or releasing the lock
+   */
+  @Override
+  public void close() throws IOException {
+    try (lock;
+        index) {
+      file.close();
+    }
+  }
+
+  /**
+   * Reads the current object of a task through the index and applies the filter to it.
+   *
+   * @param id the ID of the task
+   * @return the task, or null if its status is rejected
+   * @throws Exception if there is an error reading the object
+   */
+  private Task readFromIndex(int id) throws Exception {
+    return new TaskParser(index.read(id)).next(filter);
+  }
+}
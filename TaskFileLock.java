@@ -0,0 +1,184 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class coordinates processes that use the same task file. Readers take a shared lock and
+ * writers an exclusive one on a lock file next to the task file, so a writer never changes the task
+ * file, log, or index while another process is reading or writing them. A separate lock file is
+ * used because the task file itself is replaced when it is rewritten.
+ *
+ * <p>Locks are held per process and are reentrant: acquiring a lock that the process already holds
+ * only counts the nesting, and a held exclusive lock also satisfies a request for a shared one. A
+ * shared lock cannot be upgraded, so a read-modify-write releases its shared lock before taking the
+ * exclusive one and checks versions instead.
+ *
+ * <p>When reshard moves a task list elsewhere, it marks the old files as moved before it releases
+ * their locks. A process that read the old config file and acquires a lock on a moved file
+ * afterwards gets an error instead of the lock, so it cannot change a file that is no longer used.
+ *
+ * @author Muhammad Almorshidi
+ */
+public class TaskFileLock implements AutoCloseable {
+  /** The locks this process holds, by the name of their task file. */
+  private static final Map<String, TaskFileLock> held = new HashMap<>();
+
+  /** The name of the task file this lock belongs to. */
+  private final String jsonFileName;
+
+  /** The open lock file. */
+  private final FileChannel channel;
+
+  /** The operating system lock on the lock file. */
+  private final FileLock lock;
+
+  /** How many times the lock has been acquired and not yet closed. */
+  private int depth = 1;
+
+  /**
+   * Creates a lock that has just been acquired.
+   *
+   * @param jsonFileName the name of the task file
+   * @param channel the open lock file
+   * @param lock the operating system lock
+   */
+  private TaskFileLock(String jsonFileName, FileChannel channel, FileLock lock) {
+    this.jsonFileName = jsonFileName;
+    this.channel = channel;
+    this.lock = lock;
+  }
+
+  /**
+   * Returns the name of the lock file that belongs to the given JSON file.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @return the name of the lock file
+   */
+  public static String lockFileName(String jsonFileName) {
+    return jsonFileName + ".lock";
+  }
+
+  /**
+   * Returns the name of the file that marks a JSON file as moved away.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @return the name of the marker file
+   */
+  public static String movedFileName(String jsonFileName) {
+    return jsonFileName + ".moved";
+  }
+
+  /**
+   * Marks a JSON file as moved away, so that no lock on it can be acquired anymore. The caller
+   * holds the exclusive lock on it.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @param destination where its tasks were moved to, for the error message
+   * @throws IOException if there is an error writing the marker file
+   */
+  public static void markMoved(String jsonFileName, String destination) throws IOException {
+    JsonUtil.replaceFile(movedFileName(jsonFileName), destination + "\n");
+  }
+
+  /**
+   * Removes the mark of a JSON file that was moved away, so that it can be used again.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @throws IOException if there is an error deleting the marker file
+   */
+  public static void unmarkMoved(String jsonFileName) throws IOException {
+    Files.deleteIfExists(Path.of(movedFileName(jsonFileName)));
+  }
+
+  /**
+   * Acquires a shared lock for reading, waiting for writers in other processes to finish.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @return the held lock, to be closed when done
+   * @throws IOException if there is an error opening or locking the lock file, or the JSON file
+   *     was moved away
+   */
+  public static TaskFileLock shared(String jsonFileName) throws IOException {
+    return acquire(jsonFileName, true);
+  }
+
+  /**
+   * Acquires an exclusive lock for writing, waiting for readers and writers in other processes.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @return the held lock, to be closed when done
+   * @throws IOException if there is an error opening or locking the lock file, or the JSON file
+   *     was moved away
+   */
+  public static TaskFileLock exclusive(String jsonFileName) throws IOException {
+    return acquire(jsonFileName, false);
+  }
+
+  /**
+   * Acquires a lock, or nests into the one the process already holds.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @param shared whether a shared lock is enough
+   * @return the held lock
+   * @throws IOException if there is an error opening or locking the lock file, or the JSON file
+   *     was moved away
+   */
+  private static synchronized TaskFileLock acquire(String jsonFileName, boolean shared)
+      throws IOException {
+    TaskFileLock current = held.get(jsonFileName);
+    if (current != null) {
+      if (!shared && current.lock.isShared()) {
+        throw new IllegalStateException("A shared lock cannot be upgraded to an exclusive one.");
+      }
+      current.depth++;
+      return current;
+    }
+    FileChannel channel =
+        FileChannel.open(
+            Path.of(lockFileName(jsonFileName)),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+    TaskFileLock acquired;
+    try {
+      acquired = new TaskFileLock(jsonFileName, channel, channel.lock(0, Long.MAX_VALUE, shared));
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    held.put(jsonFileName, acquired);
+    Path moved = Path.of(movedFileName(jsonFileName));
+    if (Files.exists(moved)) {
+      String destination = Files.readString(moved).trim();
+      acquired.close();
+      throw new IOException(
+          jsonFileName + " was moved to " + destination + ". Run the command again to use it.");
+    }
+    return acquired;
+  }
+
+  /**
+   * Releases one level of nesting, and the lock itself when the outermost level is released.
+   *
+   * @throws IOException if there is an error releasing the lock or closing the lock file
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (TaskFileLock.class) {
+      if (--depth > 0) {
+        return;
+      }
+      held.remove(jsonFileName);
+      try {
+        lock.release();
+      } finally {
+        channel.close();
+      }
+    }
+  }
+}
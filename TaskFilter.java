@@ -0,0 +1,94 @@
+import java.time.LocalDate;
+
+/**
+ * This record describes which tasks a list command shows: an optional status and optional bounds on
+ * the creation and update dates. Every bound is exclusive, so a task created on the day given as
+ * createdAfter is not shown. A task without a date never matches a bound on that date.
+ *
+ * @param status the status to show, or null for every status
+ * @param createdAfter show only tasks created after this date, or null
+ * @param createdBefore show only tasks created before this date, or null
+ * @param updatedAfter show only tasks last updated after this date, or null
+ * @param updatedBefore show only tasks last updated before this date, or null
+ * @author Muhammad Almorshidi
+ */
+public record TaskFilter(
+    Task.Status status,
+    LocalDate createdAfter,
+    LocalDate createdBefore,
+    LocalDate updatedAfter,
+    LocalDate updatedBefore) {
+  /**
+   * Returns whether the filter restricts any of the dates.
+   *
+   * @return true if any date bound is set
+   */
+  public boolean hasDateBounds() {
+    return createdAfter != null
+        || createdBefore != null
+        || updatedAfter != null
+        || updatedBefore != null;
+  }
+
+  /**
+   * Returns whether a task with the given status and dates is shown.
+   *
+   * @param taskStatus the status of the task
+   * @param createdAt the creation date in days since the epoch, or TaskIndex.NO_DATE
+   * @param updatedAt the update date in days since the epoch, or TaskIndex.NO_DATE
+   * @return true if the task is shown
+   */
+  public boolean matches(Task.Status taskStatus, int createdAt, int updatedAt) {
+    return (status == null || status == taskStatus)
+        && within(createdAt, createdAfter, createdBefore)
+        && within(updatedAt, updatedAfter, updatedBefore);
+  }
+
+  /**
+   * Returns whether a task is shown.
+   *
+   * @param task the task
+   * @return true if the task is shown
+   */
+  public boolean matches(Task task) {
+    return matches(
+        task.getStatus(),
+        TaskIndex.epochDay(task.getCreatedAt()),
+        TaskIndex.epochDay(task.getUpdatedAt()));
+  }
+
+  /**
+   * Returns the first day allowed by a lower bound.
+   *
+   * @param after the exclusive lower bound, or null
+   * @return the first day in days since the epoch, excluding NO_DATE
+   */
+  public static int firstDay(LocalDate after) {
+    return after == null ? TaskIndex.NO_DATE + 1 : TaskIndex.epochDay(after) + 1;
+  }
+
+  /**
+   * Returns the last day allowed by an upper bound.
+   *
+   * @param before the exclusive upper bound, or null
+   * @return the last day in days since the epoch
+   */
+  public static int lastDay(LocalDate before) {
+    return before == null ? Integer.MAX_VALUE : TaskIndex.epochDay(before) - 1;
+  }
+
+  /**
+   * Checks a date against a pair of bounds.
+   *
+   * @param day the date in days since the epoch, or TaskIndex.NO_DATE
+   * @param after the exclusive lower bound, or null
+   * @param before the exclusive upper bound, or null
+   * @return true if the date is within the bounds
+   */
+  private static boolean within(int day, LocalDate after, LocalDate before) {
+    if (after == null && before == null) {
+      return true;
+    }
+    return day != TaskIndex.NO_DATE && day >= firstDay(after) && day <= lastDay(before);
+  }
+}
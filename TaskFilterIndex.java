@@ -0,0 +1,336 @@
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * This class keeps secondary indexes over a task list held in memory, so that a filtered list
+ * costs time in proportion to the tasks it returns rather than to all tasks. For every status it
+ * keeps a bitmap of the IDs with that status, and for the creation and update dates a sorted map
+ * from day to the IDs of that day, so a date range is a range of the map. The indexes are updated
+ * with every change instead of being rebuilt.
+ *
+ * <p>A query enumerates whichever of its candidate sets, the IDs of the status or of one of the
+ * date ranges, is smallest, and checks the other conditions of each candidate against the status
+ * and dates recorded per ID.
+ *
+ * <p>For summaries it also counts, per day, the done tasks last updated and the open tasks created
+ * on that day, so a summary never has to look at single tasks.
+ *
+ * @author Muhammad Almorshidi
+ */
+public class TaskFilterIndex {
+  /** The statuses by ordinal. */
+  private static final Task.Status[] STATUSES = Task.Status.values();
+
+  /** For every status, a bitmap with one bit per ID. */
+  private final long[][] statusBits = new long[STATUSES.length][1];
+
+  /** For every status, the number of IDs with that status. */
+  private final int[] statusCounts = new int[STATUSES.length];
+
+  /** The status ordinal of every ID plus one, or 0 for an ID without a task. */
+  private byte[] statusOf = new byte[16];
+
+  /** The creation date of every ID in days since the epoch. */
+  private int[] createdOf = new int[16];
+
+  /** The update date of every ID in days since the epoch. */
+  private int[] updatedOf = new int[16];
+
+  /** The IDs of the tasks created on each day. */
+  private final NavigableMap<Integer, IdSet> byCreated = new TreeMap<>();
+
+  /** The IDs of the tasks last updated on each day. */
+  private final NavigableMap<Integer, IdSet> byUpdated = new TreeMap<>();
+
+  /** The number of done tasks last updated on each day, for summaries. */
+  private final NavigableMap<Integer, Integer> doneByUpdated = new TreeMap<>();
+
+  /** The number of open tasks created on each day, for summaries. */
+  private final NavigableMap<Integer, Integer> openByCreated = new TreeMap<>();
+
+  /**
+   * Creates the indexes of a task list.
+   *
+   * @param tasks the tasks to index
+   */
+  public TaskFilterIndex(Collection<Task> tasks) {
+    for (Task task : tasks) {
+      put(task);
+    }
+  }
+
+  /**
+   * Indexes a new or changed task.
+   *
+   * @param task the task after the change
+   */
+  public void put(Task task) {
+    int id = task.getId();
+    remove(id);
+    if (id >= statusOf.length) {
+      int capacity = Math.max(id + 1, statusOf.length * 2);
+      statusOf = Arrays.copyOf(statusOf, capacity);
+      createdOf = Arrays.copyOf(createdOf, capacity);
+      updatedOf = Arrays.copyOf(updatedOf, capacity);
+    }
+    int status = task.getStatus().ordinal();
+    long[] bits = statusBits[status];
+    if (id >> 6 >= bits.length) {
+      bits = statusBits[status] = Arrays.copyOf(bits, Math.max((id >> 6) + 1, bits.length * 2));
+    }
+    bits[id >> 6] |= 1L << id;
+    statusCounts[status]++;
+    statusOf[id] = (byte) (status + 1);
+    createdOf[id] = TaskIndex.epochDay(task.getCreatedAt());
+    updatedOf[id] = TaskIndex.epochDay(task.getUpdatedAt());
+    byCreated.computeIfAbsent(createdOf[id], day -> new IdSet()).add(id);
+    byUpdated.computeIfAbsent(updatedOf[id], day -> new IdSet()).add(id);
+    if (task.getStatus() == Task.Status.DONE) {
+      doneByUpdated.merge(updatedOf[id], 1, Integer::sum);
+    } else if (TaskSummary.isOpen(task.getStatus())) {
+      openByCreated.merge(createdOf[id], 1, Integer::sum);
+    }
+  }
+
+  /**
+   * Removes a deleted task from the indexes.
+   *
+   * @param id the ID of the task
+   */
+  public void remove(int id) {
+    if (id < 0 || id >= statusOf.length || statusOf[id] == 0) {
+      return;
+    }
+    int status = statusOf[id] - 1;
+    statusBits[status][id >> 6] &= ~(1L << id);
+    statusCounts[status]--;
+    statusOf[id] = 0;
+    removeFromDay(byCreated, createdOf[id], id);
+    removeFromDay(byUpdated, updatedOf[id], id);
+    if (STATUSES[status] == Task.Status.DONE) {
+      doneByUpdated.computeIfPresent(updatedOf[id], (day, count) -> count > 1 ? count - 1 : null);
+    } else if (TaskSummary.isOpen(STATUSES[status])) {
+      openByCreated.computeIfPresent(createdOf[id], (day, count) -> count > 1 ? count - 1 : null);
+    }
+  }
+
+  /**
+   * Adds the task list to a summary from the maintained counters alone: the number of tasks of
+   * each status, and per day the IDs created, the done tasks last updated, and the open tasks
+   * created. This takes time in proportion to the number of distinct days, not of tasks.
+   *
+   * @param summary the summary to add to
+   */
+  public void summarize(TaskSummary summary) {
+    for (int status = 0; status < STATUSES.length; status++) {
+      summary.addStatus(STATUSES[status], statusCounts[status]);
+    }
+    for (Map.Entry<Integer, IdSet> day : byCreated.tailMap(summary.firstDay()).entrySet()) {
+      summary.addCreated(day.getKey(), day.getValue().size);
+    }
+    for (Map.Entry<Integer, Integer> day : doneByUpdated.tailMap(summary.firstDay()).entrySet()) {
+      summary.addCompleted(day.getKey(), day.getValue());
+    }
+    for (Map.Entry<Integer, Integer> day : openByCreated.entrySet()) {
+      summary.addOpen(day.getKey(), day.getValue());
+    }
+  }
+
+  /**
+   * Returns the IDs of the tasks that match a filter.
+   *
+   * @param filter the filter
+   * @return the matching IDs, in ascending order
+   */
+  public int[] query(TaskFilter filter) {
+    Collection<IdSet> created = null;
+    Collection<IdSet> updated = null;
+    long smallest = Long.MAX_VALUE;
+    if (filter.status() != null) {
+      smallest = statusCounts[filter.status().ordinal()];
+    }
+    if (filter.createdAfter() != null || filter.createdBefore() != null) {
+      created = range(byCreated, filter.createdAfter(), filter.createdBefore());
+      smallest = Math.min(smallest, size(created));
+    }
+    if (filter.updatedAfter() != null || filter.updatedBefore() != null) {
+      updated = range(byUpdated, filter.updatedAfter(), filter.updatedBefore());
+      smallest = Math.min(smallest, size(updated));
+    }
+    if (smallest == Long.MAX_VALUE) {
+      throw new IllegalArgumentException("The filter does not restrict any indexed field.");
+    }
+    int[] result = new int[(int) smallest];
+    int count = 0;
+    if (created != null && size(created) == smallest) {
+      count = collect(created, filter, result);
+    } else if (updated != null && size(updated) == smallest) {
+      count = collect(updated, filter, result);
+    } else {
+      long[] bits = statusBits[filter.status().ordinal()];
+      for (int word = 0; word < bits.length; word++) {
+        for (long w = bits[word]; w != 0; w &= w - 1) {
+          int id = (word << 6) + Long.numberOfTrailingZeros(w);
+          if (matches(filter, id)) {
+            result[count++] = id;
+          }
+        }
+      }
+      return Arrays.copyOf(result, count);
+    }
+    Arrays.sort(result, 0, count);
+    return Arrays.copyOf(result, count);
+  }
+
+  /**
+   * Offers the tasks that match a filter to a page, in listing order, and stops once no later task
+   * can be on the page. Sorted by ID, the IDs after the cursor are walked upwards; sorted by a
+   * date, the days of that date are walked from the day of the cursor, or the last day the filter
+   * allows, backwards, and the IDs of each day downwards. Either way, a page right after its cursor
+   * looks at about as many tasks as it holds, and a page after an offset at as many more as the
+   * offset skips, without keeping them.
+   *
+   * @param filter the filter
+   * @param page the page to fill
+   */
+  public void page(TaskFilter filter, TaskPage page) {
+    if (page.sort() == TaskPage.Sort.ID) {
+      for (int id = Math.max(0, page.firstId()); id < statusOf.length && !page.isFull(); id++) {
+        if (statusOf[id] != 0 && matches(filter, id)) {
+          page.offerInOrder(id, createdOf[id], updatedOf[id]);
+        }
+      }
+      return;
+    }
+    boolean created = page.sort() == TaskPage.Sort.CREATED;
+    LocalDate after = created ? filter.createdAfter() : filter.updatedAfter();
+    LocalDate before = created ? filter.createdBefore() : filter.updatedBefore();
+    int first = after == null ? Integer.MIN_VALUE : TaskFilter.firstDay(after);
+    int last = Math.min(page.firstDay(), TaskFilter.lastDay(before));
+    if (first > last) {
+      return;
+    }
+    NavigableMap<Integer, IdSet> byDay = created ? byCreated : byUpdated;
+    for (IdSet ids : byDay.subMap(first, true, last, true).descendingMap().values()) {
+      for (int i = ids.size - 1; i >= 0; i--) {
+        int id = ids.ids[i];
+        if (matches(filter, id)) {
+          page.offerInOrder(id, createdOf[id], updatedOf[id]);
+          if (page.isFull()) {
+            return;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Collects the IDs of a date range that match a filter.
+   *
+   * @param range the IDs of each day of the range
+   * @param filter the filter
+   * @param result the array to collect the IDs into
+   * @return the number of IDs collected
+   */
+  private int collect(Collection<IdSet> range, TaskFilter filter, int[] result) {
+    int count = 0;
+    for (IdSet ids : range) {
+      for (int i = 0; i < ids.size; i++) {
+        if (matches(filter, ids.ids[i])) {
+          result[count++] = ids.ids[i];
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Checks the status and dates recorded for an ID against a filter.
+   *
+   * @param filter the filter
+   * @param id the ID of an indexed task
+   * @return true if the task matches
+   */
+  private boolean matches(TaskFilter filter, int id) {
+    return filter.matches(STATUSES[statusOf[id] - 1], createdOf[id], updatedOf[id]);
+  }
+
+  /**
+   * Returns the days of a date map within exclusive bounds.
+   *
+   * @param byDay the IDs of each day
+   * @param after the exclusive lower bound, or null
+   * @param before the exclusive upper bound, or null
+   * @return the IDs of each day within the bounds
+   */
+  private static Collection<IdSet> range(
+      NavigableMap<Integer, IdSet> byDay, LocalDate after, LocalDate before) {
+    int first = TaskFilter.firstDay(after);
+    int last = TaskFilter.lastDay(before);
+    return first > last ? List.of() : byDay.subMap(first, true, last, true).values();
+  }
+
+  /**
+   * Returns the number of IDs in a date range.
+   *
+   * @param range the IDs of each day of the range
+   * @return the total number of IDs
+   */
+  private static long size(Collection<IdSet> range) {
+    long size = 0;
+    for (IdSet ids : range) {
+      size += ids.size;
+    }
+    return size;
+  }
+
+  /**
+   * Removes an ID from the set of its day, and the day from the map once it has no IDs left.
+   *
+   * @param byDay the IDs of each day
+   * @param day the day of the ID
+   * @param id the ID to remove
+   */
+  private static void removeFromDay(NavigableMap<Integer, IdSet> byDay, int day, int id) {
+    IdSet ids = byDay.get(day);
+    if (ids != null && ids.remove(id) && ids.size == 0) {
+      byDay.remove(day);
+    }
+  }
+
+  /** A sorted set of IDs in a primitive array. IDs are mostly added in ascending order. */
+  private static class IdSet {
+    int[] ids = new int[4];
+    int size;
+
+    void add(int id) {
+      int at = size > 0 && ids[size - 1] < id ? size : Arrays.binarySearch(ids, 0, size, id);
+      if (at < 0) {
+        at = -at - 1;
+      } else if (at < size) {
+        return; // already present
+      }
+      if (size == ids.length) {
+        ids = Arrays.copyOf(ids, size * 2);
+      }
+      System.arraycopy(ids, at, ids, at + 1, size - at);
+      ids[at] = id;
+      size++;
+    }
+
+    boolean remove(int id) {
+      int at = Arrays.binarySearch(ids, 0, size, id);
+      if (at < 0) {
+        return false;
+      }
+      System.arraycopy(ids, at + 1, ids, at, size - at - 1);
+      size--;
+      return true;
+    }
+  }
+}
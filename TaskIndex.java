@@ -0,0 +1,743 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class maintains a sidecar index file that maps a task ID to the location of the current
+ * JSON object of that task, either in the JSON file or in its operation log. Lookups by ID read one
+ * fixed-size slot from the index and then the object itself with one positioned read, instead of
+ * parsing the whole task list.
+ *
+ * <p>The index file starts with a header that records the size and modification time of the JSON
+ * file and of the log as they were when the index was last written. If either file has changed
+ * since, or the index is missing, it is rebuilt from scratch when it is opened. The header is
+ * followed by one slot per ID from the lowest ID in the file on, at a position computed from the
+ * ID, holding the byte offset and length of the object, the file it lives in, and its version.
+ * Starting at the lowest ID keeps the index of a shard that holds only high IDs small. A change to
+ * a task below that ID is written to the log only and leaves the header stale, so the next open
+ * rebuilds the index from a lower first ID. A slot also holds the status and the dates of the task,
+ * so that tasks can be filtered by them by scanning the slots alone, without reading or parsing any
+ * object.
+ *
+ * <p>The header also holds a sequence number that is advanced by every change. The version of a
+ * slot is the sequence number of the last change to it, which lets a writer check that a task has
+ * not changed since it was read. A rebuilt index starts from a higher sequence number than the one
+ * it replaces and gives every slot that number, so a version read before the rebuild never matches.
+ * The index is rebuilt into a temporary file that then replaces the old one, so readers holding
+ * only a shared lock can rebuild it safely.
+ *
+ * @author Muhammad Almorshidi
+ */
+public class TaskIndex implements AutoCloseable {
+  /** The slot of an ID that does not belong to any task. */
+  public static final byte ABSENT = 0;
+
+  /** The slot of a task whose current object is in the JSON file. */
+  public static final byte IN_JSON_FILE = 1;
+
+  /** The slot of a task whose current object is in the operation log. */
+  public static final byte IN_LOG = 2;
+
+  /** The value stored in place of a missing date. */
+  public static final int NO_DATE = Integer.MIN_VALUE;
+
+  /** Marks a file as a task index, and changes whenever the layout of the file changes. */
+  private static final int MAGIC = 0x54494433;
+
+  /**
+   * Magic number, first ID, size and modification time of the JSON file and of the log, and
+   * sequence.
+   */
+  private static final int HEADER_SIZE = 48;
+
+  /**
+   * Offset (8 bytes), length (4 bytes), segment (1 byte), status ordinal (1 byte), 2 bytes of
+   * padding, version (8 bytes), and the creation and update dates as days since the epoch (4 bytes
+   * each).
+   */
+  private static final int SLOT_SIZE = 32;
+
+  /** The statuses by ordinal, as stored in the slots. */
+  private static final Task.Status[] STATUSES = Task.Status.values();
+
+  /** The number of slots scan reads at a time. */
+  private static final int SCAN_SLOTS = 2048;
+
+  /** Counts the objects read through the index. */
+  private static final LongAdder lookups = TaskMetrics.counter("index.lookups");
+
+  /** Counts the bytes of the objects read through the index. */
+  private static final LongAdder bytesRead = TaskMetrics.counter("bytes.read");
+
+  /** The name of the JSON file this index belongs to. */
+  private final String jsonFileName;
+
+  /** The open index file. */
+  private final FileChannel channel;
+
+  /** The JSON file, opened for reading on the first read from it. */
+  private FileChannel jsonFile;
+
+  /** The log file, opened for reading on the first read from it. */
+  private FileChannel logFile;
+
+  /** A read-only mapping of the index file used for slot lookups, or null until first needed. */
+  private MappedByteBuffer slots;
+
+  /** The sequence number of the last change recorded in the index. */
+  private long sequence;
+
+  /** The ID of the first slot. */
+  private int firstId;
+
+  /** Whether a change could not be recorded in the slots, so the header must not be stamped. */
+  private boolean stale;
+
+  /**
+   * Creates an index over an already opened and validated index file.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @param channel the open index file
+   * @throws IOException if there is an error reading the header
+   */
+  private TaskIndex(String jsonFileName, FileChannel channel) throws IOException {
+    this.jsonFileName = jsonFileName;
+    this.channel = channel;
+    ByteBuffer header = readHeader(channel);
+    this.firstId = header.getInt(4);
+    this.sequence = header.getLong(40);
+  }
+
+  /**
+   * Returns the name of the index file that belongs to the given JSON file.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @return the name of the index file
+   */
+  public static String indexFileName(String jsonFileName) {
+    return jsonFileName + ".idx";
+  }
+
+  /**
+   * Opens the index of a JSON file, rebuilding it first if it is missing or stale.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @return the open index
+   * @throws Exception if there is an error reading or writing the index, JSON, or log file
+   */
+  public static TaskIndex open(String jsonFileName) throws Exception {
+    Path path = Path.of(indexFileName(jsonFileName));
+    FileChannel channel = openChannel(path);
+    try {
+      ByteBuffer header = readHeader(channel);
+      if (!isCurrent(header, jsonFileName)) {
+        long sequence = header.getInt(0) == MAGIC ? header.getLong(40) : 0;
+        channel.close();
+        try (TaskMetrics.Timer timer = TaskMetrics.time("index.rebuild")) {
+          rebuild(jsonFileName, path, sequence + 1);
+        }
+        channel = openChannel(path);
+      }
+      return new TaskIndex(jsonFileName, channel);
+    } catch (Exception e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Reads the current JSON object of a task with one positioned read.
+   *
+   * @param id the ID of the task
+   * @return the JSON object of the task, or null if there is no task with the given ID
+   * @throws Exception if there is an error reading the index, JSON, or log file
+   */
+  public String read(int id) throws Exception {
+    byte segment = segment(id);
+    if (segment == ABSENT) {
+      return null;
+    }
+    FileChannel file;
+    if (segment == IN_LOG) {
+      if (logFile == null) {
+        logFile = FileChannel.open(Path.of(TaskLog.logFileName(jsonFileName)));
+      }
+      file = logFile;
+    } else {
+      if (jsonFile == null) {
+        jsonFile = FileChannel.open(Path.of(jsonFileName));
+      }
+      file = jsonFile;
+    }
+    ByteBuffer object = ByteBuffer.allocate(length(id));
+    readFully(file, object, offset(id));
+    lookups.increment();
+    bytesRead.add(object.position());
+    return new String(object.array(), 0, object.position(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns the ID of the first slot in the index, at or below the lowest ID it has seen.
+   *
+   * @return the first ID
+   */
+  public int firstId() {
+    return firstId;
+  }
+
+  /**
+   * Returns the end of the slots in the index, which is one more than the highest ID it has seen.
+   *
+   * @return the ID after the last slot
+   * @throws IOException if there is an error reading the size of the index file
+   */
+  public int capacity() throws IOException {
+    return firstId + (int) Math.max(0, (channel.size() - HEADER_SIZE) / SLOT_SIZE);
+  }
+
+  /**
+   * Returns the file the current object of a task lives in.
+   *
+   * @param id the ID of the task
+   * @return IN_JSON_FILE, IN_LOG, or ABSENT if there is no task with the given ID
+   * @throws IOException if there is an error mapping the index file
+   */
+  public byte segment(int id) throws IOException {
+    int slot = mappedSlot(id);
+    return slot < 0 ? ABSENT : slots.get(slot + 12);
+  }
+
+  /**
+   * Returns the version of a task, which changes whenever the task is changed or deleted.
+   *
+   * @param id the ID of the task
+   * @return the version of the task, or 0 if the index has never seen the ID
+   * @throws IOException if there is an error mapping the index file
+   */
+  public long version(int id) throws IOException {
+    int slot = mappedSlot(id);
+    return slot < 0 ? 0 : slots.getLong(slot + 16);
+  }
+
+  /**
+   * Returns the status of a task as recorded in its slot.
+   *
+   * @param id the ID of a task that is not ABSENT
+   * @return the status of the task
+   * @throws IOException if there is an error mapping the index file
+   */
+  public Task.Status status(int id) throws IOException {
+    return STATUSES[slots.get(mappedSlot(id) + 13)];
+  }
+
+  /**
+   * Returns the creation date of a task as recorded in its slot.
+   *
+   * @param id the ID of a task that is not ABSENT
+   * @return the creation date in days since the epoch, or NO_DATE
+   * @throws IOException if there is an error mapping the index file
+   */
+  public int createdAt(int id) throws IOException {
+    return slots.getInt(mappedSlot(id) + 24);
+  }
+
+  /**
+   * Returns the date of the last update of a task as recorded in its slot.
+   *
+   * @param id the ID of a task that is not ABSENT
+   * @return the update date in days since the epoch, or NO_DATE
+   * @throws IOException if there is an error mapping the index file
+   */
+  public int updatedAt(int id) throws IOException {
+    return slots.getInt(mappedSlot(id) + 28);
+  }
+
+  /**
+   * Converts a date to the number stored for it in a slot.
+   *
+   * @param date the date, or null
+   * @return the days since the epoch, or NO_DATE for null
+   */
+  public static int epochDay(LocalDate date) {
+    return date == null ? NO_DATE : (int) date.toEpochDay();
+  }
+
+  /**
+   * Returns the sequence number of the last change recorded in the index.
+   *
+   * @return the sequence number
+   */
+  public long sequence() {
+    return sequence;
+  }
+
+  /**
+   * Returns the byte offset of the current object of a task in the file it lives in.
+   *
+   * @param id the ID of a task that is not ABSENT
+   * @return the offset of the object
+   * @throws IOException if there is an error mapping the index file
+   */
+  public long offset(int id) throws IOException {
+    return slots.getLong(mappedSlot(id));
+  }
+
+  /**
+   * Returns the length in bytes of the current object of a task.
+   *
+   * @param id the ID of a task that is not ABSENT
+   * @return the length of the object
+   * @throws IOException if there is an error mapping the index file
+   */
+  public int length(int id) throws IOException {
+    return slots.getInt(mappedSlot(id) + 8);
+  }
+
+  /**
+   * Hands the status and dates recorded in a range of slots to a consumer, skipping absent tasks.
+   * The slots are read with positional reads in blocks of SCAN_SLOTS rather than through the
+   * mapping, so several threads can scan disjoint ranges of one index at the same time.
+   *
+   * @param from the first ID to scan
+   * @param to the ID after the last one to scan
+   * @param consumer the consumer of each task's status and dates
+   * @throws IOException if there is an error reading the index file
+   */
+  public void scan(int from, int to, SlotConsumer consumer) throws IOException {
+    ByteBuffer block = ByteBuffer.allocate(SCAN_SLOTS * SLOT_SIZE);
+    int id = Math.max(from, firstId);
+    while (id < to) {
+      block.clear().limit(Math.min(SCAN_SLOTS, to - id) * SLOT_SIZE);
+      readFully(channel, block, slotPosition(id));
+      int count = block.position() / SLOT_SIZE;
+      if (count == 0) {
+        return; // the end of the index file
+      }
+      for (int slot = 0; slot < count * SLOT_SIZE; slot += SLOT_SIZE, id++) {
+        if (block.get(slot + 12) != ABSENT) {
+          consumer.accept(
+              id, STATUSES[block.get(slot + 13)], block.getInt(slot + 24), block.getInt(slot + 28));
+        }
+      }
+    }
+  }
+
+  /**
+   * Points the slot of a task at a new location of its JSON object.
+   *
+   * @param task the task as stored in the object
+   * @param segment the file the object lives in, IN_JSON_FILE or IN_LOG
+   * @param offset the byte offset of the object in that file
+   * @param length the length of the object in bytes
+   * @throws Exception if there is an error writing the index file
+   */
+  public void put(Task task, byte segment, long offset, int length) throws Exception {
+    if (channel.size() <= HEADER_SIZE) {
+      firstId = task.getId();
+    } else if (task.getId() < firstId) {
+      stale = true;
+      return;
+    }
+    ByteBuffer slot = ByteBuffer.allocate(SLOT_SIZE);
+    putSlot(
+        slot,
+        0,
+        segment,
+        offset,
+        length,
+        ++sequence,
+        (byte) task.getStatus().ordinal(),
+        epochDay(task.getCreatedAt()),
+        epochDay(task.getUpdatedAt()));
+    channel.write(slot, slotPosition(task.getId()));
+  }
+
+  /**
+   * Clears the slot of a deleted task and advances its version.
+   *
+   * @param id the ID of the task
+   * @throws Exception if there is an error writing the index file
+   */
+  public void remove(int id) throws Exception {
+    if (id >= firstId && slotPosition(id) < channel.size()) {
+      channel.write(ByteBuffer.allocate(SLOT_SIZE).putLong(16, ++sequence), slotPosition(id));
+    }
+  }
+
+  /**
+   * Records the current size and modification time of the JSON file and the log, and the
+   * sequence number, in the header. This must be called after every change to either file that the
+   * index has been updated for. If a change could not be recorded in the slots, the header is left
+   * as it is, so the index is rebuilt when it is next opened.
+   *
+   * @throws Exception if there is an error reading file attributes or writing the index file
+   */
+  public void stamp() throws Exception {
+    if (!stale) {
+      channel.write(header(jsonFileName, firstId, sequence), 0);
+    }
+  }
+
+  /**
+   * Closes the index file and the files objects were read from.
+   *
+   * @throws IOException if there is an error closing a file
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      channel.close();
+    } finally {
+      try {
+        if (jsonFile != null) {
+          jsonFile.close();
+        }
+      } finally {
+        if (logFile != null) {
+          logFile.close();
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes a slot into a buffer.
+   *
+   * @param buffer the buffer to write into
+   * @param index the position of the slot in the buffer
+   * @param segment the file the object lives in
+   * @param offset the byte offset of the object in that file
+   * @param length the length of the object in bytes
+   * @param version the version of the slot
+   * @param status the ordinal of the status of the task
+   * @param createdAt the creation date in days since the epoch
+   * @param updatedAt the update date in days since the epoch
+   */
+  private static void putSlot(
+      ByteBuffer buffer,
+      int index,
+      byte segment,
+      long offset,
+      int length,
+      long version,
+      byte status,
+      int createdAt,
+      int updatedAt) {
+    buffer.putLong(index, offset).putInt(index + 8, length).put(index + 12, segment);
+    buffer.put(index + 13, status).putLong(index + 16, version);
+    buffer.putInt(index + 24, createdAt).putInt(index + 28, updatedAt);
+  }
+
+  /**
+   * Opens an index file for reading and writing, creating it if needed.
+   *
+   * @param path the path of the index file
+   * @return the open index file
+   * @throws IOException if there is an error opening the file
+   */
+  private static FileChannel openChannel(Path path) throws IOException {
+    return FileChannel.open(
+        path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+  }
+
+  /**
+   * Reads the header of an index file.
+   *
+   * @param channel the open index file
+   * @return the header, all zeros where the file is too short
+   * @throws IOException if there is an error reading the file
+   */
+  private static ByteBuffer readHeader(FileChannel channel) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    readFully(channel, header, 0);
+    return header;
+  }
+
+  /**
+   * Builds a header describing the current state of a JSON file and its log.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @param firstId the ID of the first slot
+   * @param sequence the sequence number to record
+   * @return the header
+   * @throws Exception if there is an error reading file attributes
+   */
+  private static ByteBuffer header(String jsonFileName, int firstId, long sequence)
+      throws Exception {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(0, MAGIC).putInt(4, firstId).putLong(40, sequence);
+    putStamp(header, 8, Path.of(jsonFileName));
+    putStamp(header, 24, Path.of(TaskLog.logFileName(jsonFileName)));
+    return header;
+  }
+
+  /**
+   * Checks whether a header matches the current state of the JSON file and the log.
+   *
+   * @param stored the header read from the index file
+   * @param jsonFileName the name of the JSON file
+   * @return true if the index can be used as it is
+   * @throws Exception if there is an error reading file attributes
+   */
+  private static boolean isCurrent(ByteBuffer stored, String jsonFileName) throws Exception {
+    if (stored.getInt(0) != MAGIC) {
+      return false;
+    }
+    ByteBuffer actual = header(jsonFileName, 0, 0);
+    return stored.getLong(8) == actual.getLong(8)
+        && stored.getLong(16) == actual.getLong(16)
+        && stored.getLong(24) == actual.getLong(24)
+        && stored.getLong(32) == actual.getLong(32);
+  }
+
+  /**
+   * Rebuilds the whole index by scanning the mapped JSON file and then the log into a temporary
+   * file, which then atomically replaces the index file.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @param path the path of the index file
+   * @param sequence the sequence number, and version of every slot, of the rebuilt index
+   * @throws Exception if there is an error reading the JSON or log file or writing the index file
+   */
+  private static void rebuild(String jsonFileName, Path path, long sequence) throws Exception {
+    Slots slots = new Slots();
+    try (MappedTaskFile file = MappedTaskFile.open(jsonFileName)) {
+      while (file.next()) {
+        slots.set(file.task(), IN_JSON_FILE, file.offset(), file.length());
+      }
+    }
+    Path logPath = Path.of(TaskLog.logFileName(jsonFileName));
+    if (Files.exists(logPath)) {
+      try (InputStream in = new BufferedInputStream(Files.newInputStream(logPath))) {
+        scanLog(in, slots);
+      }
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + slots.count * SLOT_SIZE);
+    buffer.put(header(jsonFileName, slots.first, sequence));
+    for (int slot = 0; slot < slots.count; slot++) {
+      putSlot(
+          buffer,
+          HEADER_SIZE + slot * SLOT_SIZE,
+          slots.segments[slot],
+          slots.offsets[slot],
+          slots.lengths[slot],
+          sequence,
+          slots.statuses[slot],
+          slots.createdAt[slot],
+          slots.updatedAt[slot]);
+    }
+    buffer.position(0);
+    Path temporary = Files.createTempFile(path.toAbsolutePath().getParent(), "index", ".tmp");
+    try {
+      try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+        while (buffer.hasRemaining()) {
+          out.write(buffer);
+        }
+      }
+      Files.move(
+          temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  /**
+   * Replays the records of an operation log onto the slots.
+   *
+   * @param in the content of the log file
+   * @param slots the slots to update
+   * @throws Exception if there is an error reading the file
+   */
+  private static void scanLog(InputStream in, Slots slots) throws Exception {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    long position = 0;
+    long lineStart = 0;
+    int b;
+    while ((b = in.read()) != -1) {
+      position++;
+      if (b != '\n') {
+        line.write(b);
+        continue;
+      }
+      String record = line.toString(StandardCharsets.UTF_8);
+      int space = record.indexOf(' ');
+      if (space > 0) {
+        String payload = record.substring(space + 1);
+        if (TaskLog.Operation.valueOf(record.substring(0, space)) == TaskLog.Operation.DELETE) {
+          slots.remove(Integer.parseInt(payload.trim()));
+        } else {
+          int length = line.size() - space - 1;
+          slots.set(Task.fromJson(payload), IN_LOG, lineStart + space + 1, length);
+        }
+      }
+      line.reset();
+      lineStart = position;
+    }
+  }
+
+  /**
+   * Writes the size and modification time of a file into a header, or zeros if it does not exist.
+   *
+   * @param header the header to write into
+   * @param index the position of the size in the header
+   * @param path the file to describe
+   * @throws Exception if there is an error reading file attributes
+   */
+  private static void putStamp(ByteBuffer header, int index, Path path) throws Exception {
+    if (Files.exists(path)) {
+      header.putLong(index, Files.size(path));
+      header.putLong(index + 8, Files.getLastModifiedTime(path).toMillis());
+    } else {
+      header.putLong(index, 0).putLong(index + 8, 0);
+    }
+  }
+
+  /**
+   * Returns the index of the slot of an ID in the read-only mapping of the index file, mapping the
+   * file again first if it has grown past the mapping.
+   *
+   * @param id the ID of the task
+   * @return the index of the slot in the mapping, or -1 if the index has no slot for the ID
+   * @throws IOException if there is an error mapping the index file
+   */
+  private int mappedSlot(int id) throws IOException {
+    long position = slotPosition(id);
+    if (id < firstId) {
+      return -1;
+    } else if (slots == null || position + SLOT_SIZE > slots.limit()) {
+      long size = channel.size();
+      if (position + SLOT_SIZE > size) {
+        return -1;
+      }
+      slots = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+    return (int) position;
+  }
+
+  /**
+   * Returns the position of the slot of an ID in the index file.
+   *
+   * @param id the ID of the task, not below the first ID
+   * @return the byte position of the slot
+   */
+  private long slotPosition(int id) {
+    return HEADER_SIZE + (long) (id - firstId) * SLOT_SIZE;
+  }
+
+  /**
+   * Reads from a position in a file until the buffer is full or the end of the file is reached.
+   *
+   * @param file the file to read from
+   * @param buffer the buffer to fill
+   * @param position the position in the file to start reading from
+   * @throws IOException if there is an error reading the file
+   */
+  private static void readFully(FileChannel file, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      if (file.read(buffer, position + buffer.position()) < 0) {
+        return;
+      }
+    }
+  }
+
+  /** Receives the status and dates recorded in the slot of a task. */
+  @FunctionalInterface
+  public interface SlotConsumer {
+    /**
+     * Receives one slot.
+     *
+     * @param id the ID of the task
+     * @param status its status
+     * @param createdAt its creation date in days since the epoch, or NO_DATE
+     * @param updatedAt its update date in days since the epoch, or NO_DATE
+     */
+    void accept(int id, Task.Status status, int createdAt, int updatedAt);
+  }
+
+  /**
+   * The slots of an index being rebuilt, held in memory and grown as lower or higher IDs are seen.
+   */
+  private static class Slots {
+    long[] offsets = new long[16];
+    int[] lengths = new int[16];
+    byte[] segments = new byte[16];
+    byte[] statuses = new byte[16];
+    int[] createdAt = new int[16];
+    int[] updatedAt = new int[16];
+    int first;
+    int count;
+
+    void set(Task task, byte segment, long offset, int length) {
+      int slot = grow(task.getId());
+      offsets[slot] = offset;
+      lengths[slot] = length;
+      segments[slot] = segment;
+      statuses[slot] = (byte) task.getStatus().ordinal();
+      createdAt[slot] = epochDay(task.getCreatedAt());
+      updatedAt[slot] = epochDay(task.getUpdatedAt());
+    }
+
+    void remove(int id) {
+      if (count > 0 && id < first) {
+        return; // a slot below the first one is absent anyway
+      }
+      int slot = grow(id);
+      offsets[slot] = 0;
+      lengths[slot] = 0;
+      segments[slot] = ABSENT;
+      statuses[slot] = 0;
+      createdAt[slot] = 0;
+      updatedAt[slot] = 0;
+    }
+
+    int grow(int id) {
+      if (count == 0) {
+        first = id;
+      } else if (id < first) {
+        shift(first - id);
+      }
+      int slot = id - first;
+      if (slot >= offsets.length) {
+        int capacity = Math.max(slot + 1, offsets.length * 2);
+        offsets = Arrays.copyOf(offsets, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        segments = Arrays.copyOf(segments, capacity);
+        statuses = Arrays.copyOf(statuses, capacity);
+        createdAt = Arrays.copyOf(createdAt, capacity);
+        updatedAt = Arrays.copyOf(updatedAt, capacity);
+      }
+      count = Math.max(count, slot + 1);
+      return slot;
+    }
+
+    void shift(int distance) {
+      int capacity = Math.max(count + distance, offsets.length);
+      offsets = shifted(offsets, new long[capacity], distance);
+      lengths = shifted(lengths, new int[capacity], distance);
+      segments = shifted(segments, new byte[capacity], distance);
+      statuses = shifted(statuses, new byte[capacity], distance);
+      createdAt = shifted(createdAt, new int[capacity], distance);
+      updatedAt = shifted(updatedAt, new int[capacity], distance);
+      first -= distance;
+      count += distance;
+    }
+
+    <T> T shifted(T from, T to, int distance) {
+      System.arraycopy(from, 0, to, distance, count);
+      return to;
+    }
+  }
+}
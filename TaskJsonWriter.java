@@ -0,0 +1,272 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * This class writes tasks as JSON without building a String per task. The static methods append
+ * the JSON object of a task to a StringBuilder: the ID is appended as an int, the dates are written
+ * digit by digit, and the description is escaped in one pass, with backslashes, quotes, and
+ * control characters written as JSON escapes, so that every object stays on one line. Task.toString
+ * is built on them.
+ *
+ * <p>The status is followed by spaces up to the length of the longest status name, and a date
+ * always takes ten characters, so the objects of a task before and after a status change have the
+ * same length and differ only in the status and the update date. That lets TaskLog patch a status
+ * change into the file in place.
+ *
+ * <p>An instance streams many tasks to a channel in the layout of the task file. Objects are
+ * appended to one reused StringBuilder, which is encoded to UTF-8 into one reused buffer and
+ * written out whenever it has grown past CHUNK_SIZE characters, so writing a task list of any size
+ * keeps only a chunk of it in memory and creates almost no garbage.
+ *
+ * @author Muhammad Almorshidi
+ */
+public class TaskJsonWriter {
+  /** The number of characters collected before they are encoded and written. */
+  private static final int CHUNK_SIZE = 1 << 16;
+
+  /** The width of the longest status name, to which the status field is padded. */
+  private static final int STATUS_WIDTH =
+      Arrays.stream(Task.Status.values())
+          .mapToInt(status -> status.name().length())
+          .max()
+          .getAsInt();
+
+  /** The spaces that pad the status field. */
+  private static final String PADDING = " ".repeat(STATUS_WIDTH);
+
+  /** The digits of hexadecimal numbers, for \\u escapes. */
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  /** The channel to write to. */
+  private final WritableByteChannel channel;
+
+  /** The characters not yet encoded. */
+  private final StringBuilder chars = new StringBuilder(CHUNK_SIZE + 1024);
+
+  /** The encoded bytes not yet written. */
+  private final ByteBuffer bytes = ByteBuffer.allocate(3 * CHUNK_SIZE + 4096);
+
+  /** The UTF-8 encoder, which replaces unpaired surrogates like String.getBytes. */
+  private final CharsetEncoder encoder =
+      StandardCharsets.UTF_8
+          .newEncoder()
+          .onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+  /** The number of bytes written to the channel. */
+  private long written;
+
+  /**
+   * Creates a writer to a channel.
+   *
+   * @param channel the channel to write to, which is not closed by the writer
+   */
+  public TaskJsonWriter(WritableByteChannel channel) {
+    this.channel = channel;
+  }
+
+  /**
+   * Writes a task list as a JSON array with one object per line, as in the task file.
+   *
+   * @param channel the channel to write to
+   * @param tasks the tasks to write, in order
+   * @return the number of bytes written
+   * @throws IOException if there is an error writing to the channel
+   */
+  public static long writeArray(WritableByteChannel channel, Collection<Task> tasks)
+      throws IOException {
+    TaskJsonWriter writer = new TaskJsonWriter(channel);
+    writer.chars.append("[\n");
+    boolean first = true;
+    for (Task task : tasks) {
+      writer.chars.append(first ? "    " : ",\n    ");
+      task.appendJson(writer.chars);
+      writer.flushIfFull();
+      first = false;
+    }
+    writer.chars.append(first ? "]" : "\n]");
+    writer.finish();
+    return writer.written;
+  }
+
+  /**
+   * Encodes and writes the collected characters once there are more than CHUNK_SIZE of them.
+   *
+   * @throws IOException if there is an error writing to the channel
+   */
+  private void flushIfFull() throws IOException {
+    if (chars.length() >= CHUNK_SIZE) {
+      encode(false);
+    }
+  }
+
+  /**
+   * Encodes and writes every character collected and ends the output.
+   *
+   * @throws IOException if there is an error writing to the channel
+   */
+  private void finish() throws IOException {
+    encode(true);
+    while (encoder.flush(bytes).isOverflow()) {
+      drain();
+    }
+    drain();
+    encoder.reset();
+  }
+
+  /**
+   * Encodes the collected characters and writes the bytes. A high surrogate at the end is kept
+   * back until its low surrogate has been appended, unless the output ends.
+   *
+   * @param end whether no more characters follow
+   * @throws IOException if there is an error writing to the channel
+   */
+  private void encode(boolean end) throws IOException {
+    CharBuffer in = CharBuffer.wrap(chars);
+    CoderResult result;
+    while ((result = encoder.encode(in, bytes, end)).isOverflow()) {
+      drain();
+    }
+    if (result.isError()) {
+      result.throwException();
+    }
+    chars.delete(0, in.position());
+    drain();
+  }
+
+  /**
+   * Writes the encoded bytes to the channel and empties the buffer.
+   *
+   * @throws IOException if there is an error writing to the channel
+   */
+  private void drain() throws IOException {
+    bytes.flip();
+    while (bytes.hasRemaining()) {
+      written += channel.write(bytes);
+    }
+    bytes.clear();
+  }
+
+  /**
+   * Appends the JSON object of a task.
+   *
+   * @param out the builder to append to
+   * @param id the ID of the task
+   * @param status the status of the task
+   * @param createdAt the creation date, or null
+   * @param updatedAt the date of the last update, or null
+   * @param description the description, or null for an empty one
+   * @return the builder
+   */
+  public static StringBuilder appendTask(
+      StringBuilder out,
+      int id,
+      Task.Status status,
+      LocalDate createdAt,
+      LocalDate updatedAt,
+      CharSequence description) {
+    appendHead(out, id, status);
+    appendDate(out, createdAt);
+    out.append("\",\"UpdatedAt\":\"");
+    appendDate(out, updatedAt);
+    out.append("\",\"Description\":\"");
+    if (description != null) {
+      appendString(out, description);
+    }
+    return out.append("\"}");
+  }
+
+  /**
+   * Appends the part of the JSON object of a task up to the value of the creation date.
+   *
+   * @param out the builder to append to
+   * @param id the ID of the task
+   * @param status the status of the task
+   */
+  private static void appendHead(StringBuilder out, int id, Task.Status status) {
+    String name = status == null ? "null" : status.name();
+    out.append("{\"ID\":").append(id).append(",\"Status\":\"").append(name).append("\",");
+    out.append(PADDING, 0, Math.max(0, STATUS_WIDTH - name.length())).append("\"CreatedAt\":\"");
+  }
+
+  /**
+   * Appends the characters of a string, escaped for a JSON string literal.
+   *
+   * @param out the builder to append to
+   * @param value the string
+   */
+  public static void appendString(StringBuilder out, CharSequence value) {
+    int start = 0;
+    int length = value.length();
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if (c < 0x20 || c == '"' || c == '\\') {
+        out.append(value, start, i);
+        appendEscape(out, c);
+        start = i + 1;
+      }
+    }
+    out.append(value, start, length);
+  }
+
+  /**
+   * Appends the JSON escape of a character.
+   *
+   * @param out the builder to append to
+   * @param c a quote, a backslash, or a control character
+   */
+  private static void appendEscape(StringBuilder out, char c) {
+    out.append('\\');
+    switch (c) {
+      case '"', '\\' -> out.append(c);
+      case '\b' -> out.append('b');
+      case '\f' -> out.append('f');
+      case '\n' -> out.append('n');
+      case '\r' -> out.append('r');
+      case '\t' -> out.append('t');
+      default -> out.append("u00").append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xF]);
+    }
+  }
+
+  /**
+   * Appends a date in the ISO format of LocalDate.toString.
+   *
+   * @param out the builder to append to
+   * @param date the date, or null
+   */
+  public static void appendDate(StringBuilder out, LocalDate date) {
+    if (date == null) {
+      out.append("null");
+    } else {
+      appendDate(out, date.getYear(), date.getMonthValue(), date.getDayOfMonth());
+    }
+  }
+
+  /**
+   * Appends a date in the ISO format of LocalDate.toString.
+   *
+   * @param out the builder to append to
+   * @param year the year
+   * @param month the month, from 1 to 12
+   * @param day the day of the month
+   */
+  private static void appendDate(StringBuilder out, int year, int month, int day) {
+    if (year < 0 || year > 9999) {
+      out.append(LocalDate.of(year, month, day)); // signed years are rare enough to allocate
+      return;
+    }
+    out.append((char) ('0' + year / 1000)).append((char) ('0' + year / 100 % 10));
+    out.append((char) ('0' + year / 10 % 10)).append((char) ('0' + year % 10)).append('-');
+    out.append((char) ('0' + month / 10)).append((char) ('0' + month % 10)).append('-');
+    out.append((char) ('0' + day / 10)).append((char) ('0' + day % 10));
+  }
+}
@@ -0,0 +1,510 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * This class implements an operation log on top of a JSON task file. Every add, update, or delete,
+ * and every status change that is not patched in place as described below, is written as one line
+ * at the end of a log file that sits next to the task file, so the cost of a mutation does not
+ * depend on the number of tasks. The current state of the task list is rebuilt by reading the JSON
+ * file and replaying the log over it. Compaction folds the log back into the JSON array format and
+ * empties the log. It runs on demand and automatically once the log grows larger than the JSON
+ * file.
+ *
+ * <p>Each log record is one line: the record type, a space, and either the JSON object of the task
+ * after the change (ADD, UPDATE, STATUS) or the ID of the deleted task (DELETE).
+ *
+ * <p>A status change whose task is stored in the current layout of TaskJsonWriter, where the
+ * status is padded to a fixed width, is not appended at all. The few bytes that differ between the
+ * old and the new object, the status and the update date, are written over the old object where it
+ * is, in the JSON file or in the log, with one positioned write, so the log does not grow. These
+ * patches are the only bytes of either file that are ever overwritten. A patch is only made if the
+ * bytes it changes lie within one aligned block of SECTOR_SIZE bytes, which a disk writes as a
+ * whole, so that a crash or power failure leaves either the old or the new task and never a mix of
+ * the two; otherwise the status change is appended like any other change.
+ *
+ * <p>Reads take a shared TaskFileLock and writes an exclusive one, so several processes can use
+ * the same task file. A read-modify-write does not hold a lock across the modification. Instead it
+ * reads the task together with its version from the index and appends the change only if the
+ * version is still the same, retrying otherwise. An ADD is checked against the index under the
+ * exclusive lock as well, and rejected if a current task already has its ID.
+ *
+ * <p>When JsonUtil.SYNC is set, every record is forced to disk before the change is reported as
+ * done. A server turns on group commit instead, so that the records of several requests are forced
+ * together by one call to commit before any of them is answered. A record torn by a crash is cut
+ * off before the next one is appended and skipped by replay.
+ *
+ * @author Muhammad Almorshidi
+ */
+public class TaskLog {
+  /** The record types that can appear in the log. */
+  public enum Operation {
+    ADD,
+    UPDATE,
+    STATUS,
+    DELETE
+  }
+
+  /** A task read together with its version, for a later compare-and-set. */
+  public record Versioned(Task task, long version) {}
+
+  /** The log is never compacted automatically while it is smaller than this many bytes. */
+  private static final long MIN_COMPACTION_SIZE = 64 * 1024;
+
+  /** The size of the blocks a patch must not cross, the smallest unit a disk writes at once. */
+  private static final int SECTOR_SIZE = 512;
+
+  /** Whether forcing appended records to disk is left to commit. */
+  private static boolean groupCommit;
+
+  /** The logs with records appended since they were last forced, while group commit is on. */
+  private static final Set<String> unforced = new HashSet<>();
+
+  /**
+   * Returns the name of the log file that belongs to the given JSON file.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @return the name of the log file
+   */
+  public static String logFileName(String jsonFileName) {
+    return jsonFileName + ".log";
+  }
+
+  /**
+   * Appends a record carrying the new state of a task to the log. A new task is rejected if a
+   * current task already has its ID, so that an ID handed out twice can never replace a task.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @param operation the kind of change, one of ADD, UPDATE, or STATUS
+   * @param task the task after the change
+   * @throws Exception if there is an error writing to the log file, or if a new task has the ID
+   *     of a current one
+   */
+  public static void append(String jsonFileName, Operation operation, Task task) throws Exception {
+    if (operation == Operation.DELETE) {
+      throw new IllegalArgumentException("Use appendDelete to log a deletion.");
+    }
+    if (!appendRecord(jsonFileName, operation, task.getId(), task, -1)) {
+      throw new Exception("Task " + task.getId() + " already exists.");
+    }
+  }
+
+  /**
+   * Appends a record carrying the new state of a task to the log, but only if the task has not
+   * changed since it was read.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @param operation the kind of change, UPDATE or STATUS
+   * @param task the task after the change
+   * @param version the version the task had when it was read
+   * @return true if the record was appended, false if the task has changed in the meantime
+   * @throws Exception if there is an error writing to the log file
+   */
+  public static boolean appendIfUnchanged(
+      String jsonFileName, Operation operation, Task task, long version) throws Exception {
+    if (operation == Operation.DELETE) {
+      throw new IllegalArgumentException("Use appendDeleteIfUnchanged to log a deletion.");
+    }
+    return appendRecord(jsonFileName, operation, task.getId(), task, version);
+  }
+
+  /**
+   * Appends a record of a deleted task to the log.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @param id the ID of the deleted task
+   * @throws Exception if there is an error writing to the log file
+   */
+  public static void appendDelete(String jsonFileName, int id) throws Exception {
+    appendRecord(jsonFileName, Operation.DELETE, id, null, -1);
+  }
+
+  /**
+   * Appends a record of a deleted task to the log, but only if the task has not changed since it
+   * was read.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @param id the ID of the deleted task
+   * @param version the version the task had when it was read
+   * @return true if the record was appended, false if the task has changed in the meantime
+   * @throws Exception if there is an error writing to the log file
+   */
+  public static boolean appendDeleteIfUnchanged(String jsonFileName, int id, long version)
+      throws Exception {
+    return appendRecord(jsonFileName, Operation.DELETE, id, null, version);
+  }
+
+  /**
+   * Turns group commit on or off. While it is on, appended records are not forced to disk one by
+   * one; commit forces all of them at once. Has no effect unless JsonUtil.SYNC is set.
+   *
+   * @param enabled whether group commit is on
+   * @throws IOException if there is an error forcing records still pending when turning it off
+   */
+  public static void setGroupCommit(boolean enabled) throws IOException {
+    if (!enabled) {
+      commit();
+    }
+    groupCommit = enabled;
+  }
+
+  /**
+   * Forces the records appended or patched since the last commit to disk, with one force per file.
+   *
+   * @throws IOException if there is an error forcing a log file
+   */
+  public static void commit() throws IOException {
+    for (String logFileName : unforced) {
+      Path logPath = Path.of(logFileName);
+      if (Files.exists(logPath)) { // compaction may have folded the log away in the meantime
+        try (FileChannel log = FileChannel.open(logPath, StandardOpenOption.WRITE)) {
+          log.force(false);
+        }
+      }
+    }
+    unforced.clear();
+  }
+
+  /**
+   * Writes one record at the end of the log under the exclusive lock, or patches a status change
+   * into the current object of the task, points the index at it, passes the change on to the search
+   * index if that is current and to the change feed, and compacts the log if it has outgrown the
+   * JSON file.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @param operation the kind of change
+   * @param id the ID of the changed task
+   * @param task the task after the change, or null for a deletion
+   * @param expectedVersion the version the task must still have, or -1 to append unconditionally
+   * @return true if the record was appended, false if the version did not match or an added task
+   *     has the ID of a current one
+   * @throws Exception if there is an error writing to the log, index, or JSON file
+   */
+  private static boolean appendRecord(
+      String jsonFileName, Operation operation, int id, Task task, long expectedVersion)
+      throws Exception {
+    Path logPath = Path.of(logFileName(jsonFileName));
+    byte[] prefix = (operation + " ").getBytes(StandardCharsets.UTF_8);
+    String payload = task == null ? Integer.toString(id) : task.toString();
+    byte[] body = payload.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer record = ByteBuffer.allocate(prefix.length + body.length + 1);
+    record.put(prefix).put(body).put((byte) '\n').flip();
+    long logSize;
+    try (TaskMetrics.Timer timer = TaskMetrics.time("log.append");
+        TaskFileLock lock = TaskFileLock.exclusive(jsonFileName);
+        TaskIndex index = TaskIndex.open(jsonFileName)) {
+      if (expectedVersion >= 0 && index.version(id) != expectedVersion) {
+        return false;
+      }
+      if (operation == Operation.ADD && index.segment(id) != TaskIndex.ABSENT) {
+        TaskMetrics.count("log.rejected", 1);
+        return false;
+      }
+      boolean searchCurrent = TaskSearchIndex.isCurrent(jsonFileName);
+      String oldTask = operation == Operation.ADD ? null : index.read(id);
+      byte segment = TaskIndex.IN_LOG;
+      long offset = -1;
+      if (operation == Operation.STATUS) {
+        offset = patch(jsonFileName, index, id, oldTask, body);
+      }
+      if (offset >= 0) {
+        segment = index.segment(id);
+        logSize = 0;
+      } else {
+        try (FileChannel log =
+            FileChannel.open(
+                logPath,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+          long position = cutTornRecord(log);
+          while (record.hasRemaining()) {
+            log.write(record, position + record.position());
+          }
+          logSize = log.size();
+          TaskMetrics.count("bytes.written", record.limit());
+          if (JsonUtil.SYNC) {
+            if (groupCommit) {
+              unforced.add(logPath.toString());
+            } else {
+              log.force(false);
+            }
+            if (position == 0) {
+              JsonUtil.forceDirectory(logPath.toAbsolutePath().getParent());
+            }
+          }
+          offset = position + prefix.length;
+        }
+      }
+      if (operation == Operation.DELETE) {
+        index.remove(id);
+      } else {
+        index.put(task, segment, offset, body.length);
+      }
+      index.stamp();
+      if (searchCurrent && operation == Operation.STATUS) {
+        TaskSearchIndex.stamp(jsonFileName);
+      } else if (searchCurrent) {
+        TaskSearchIndex.record(jsonFileName, id, task);
+      }
+      TaskChangeFeed.append(
+          jsonFileName, TaskChangeFeed.Type.of(operation), oldTask, task == null ? null : payload);
+      if (logSize > MIN_COMPACTION_SIZE && logSize > new File(jsonFileName).length()) {
+        compact(jsonFileName);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Writes the new object of a task over its current object where that is stored, if both are in
+   * the layout of TaskJsonWriter and have the same length, as they have after a status change. Only
+   * the bytes from the first to the last one that differ are written, and only if they lie within
+   * one block of SECTOR_SIZE bytes, so that the write cannot be torn. The caller must hold the
+   * exclusive lock.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @param index the open index
+   * @param id the ID of the task
+   * @param oldTask the current object of the task as stored, or null if there is none
+   * @param body the new object of the task in UTF-8
+   * @return the offset of the object in the file it lives in, or -1 if it could not be patched
+   * @throws Exception if there is an error writing the file
+   */
+  private static long patch(
+      String jsonFileName, TaskIndex index, int id, String oldTask, byte[] body) throws Exception {
+    if (oldTask == null || !Task.fromJson(oldTask).toString().equals(oldTask)) {
+      return -1; // written in another layout, as by an older version or another program
+    }
+    byte[] old = oldTask.getBytes(StandardCharsets.UTF_8);
+    if (old.length != body.length || old.length != index.length(id)) {
+      return -1;
+    }
+    int start = 0;
+    while (start < old.length && old[start] == body[start]) {
+      start++;
+    }
+    int end = old.length;
+    while (end > start && old[end - 1] == body[end - 1]) {
+      end--;
+    }
+    long offset = index.offset(id);
+    if ((offset + start) / SECTOR_SIZE != (offset + end - 1) / SECTOR_SIZE) {
+      TaskMetrics.count("log.unpatched", 1);
+      return -1; // a crash could leave only part of the change on disk
+    }
+    Path path =
+        Path.of(index.segment(id) == TaskIndex.IN_LOG ? logFileName(jsonFileName) : jsonFileName);
+    try (FileChannel file = FileChannel.open(path, StandardOpenOption.WRITE)) {
+      ByteBuffer changed = ByteBuffer.wrap(body, start, end - start);
+      while (changed.hasRemaining()) {
+        file.write(changed, offset + changed.position());
+      }
+      TaskMetrics.count("bytes.written", end - start);
+      TaskMetrics.count("log.patched", 1);
+      if (JsonUtil.SYNC) {
+        if (groupCommit) {
+          unforced.add(path.toString());
+        } else {
+          file.force(false);
+        }
+      }
+    }
+    return offset;
+  }
+
+  /**
+   * Cuts off the last record of a log if an interrupted append left it without its line break, so
+   * that the next record starts on a line of its own.
+   *
+   * @param log the open log file
+   * @return the size of the log after the cut, where the next record goes
+   * @throws IOException if there is an error reading or truncating the log
+   */
+  private static long cutTornRecord(FileChannel log) throws IOException {
+    long end = log.size();
+    ByteBuffer chunk = ByteBuffer.allocate(4096);
+    while (end > 0) {
+      chunk.clear().limit((int) Math.min(chunk.capacity(), end));
+      long start = end - chunk.limit();
+      while (chunk.hasRemaining() && log.read(chunk, start + chunk.position()) >= 0) {}
+      for (int i = chunk.limit() - 1; i >= 0; i--) {
+        if (chunk.get(i) == '\n') {
+          long size = start + i + 1;
+          if (size < log.size()) {
+            log.truncate(size);
+          }
+          return size;
+        }
+      }
+      end = start;
+    }
+    log.truncate(0);
+    return 0;
+  }
+
+  /**
+   * Rebuilds the current task list by reading the JSON file and replaying the log over it. The
+   * returned map keeps the tasks in the order they appear in the JSON file, followed by the tasks
+   * that were added through the log.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @return the current tasks, keyed by ID
+   * @throws Exception if there is an error reading the JSON or log file
+   */
+  public static Map<Integer, Task> replay(String jsonFileName) throws Exception {
+    Map<Integer, Task> tasks = new LinkedHashMap<>();
+    replay(jsonFileName, task -> tasks.put(task.getId(), task), id -> tasks.remove(id));
+    return tasks;
+  }
+
+  /**
+   * Rebuilds the current task list into any container: every task of the JSON file is put, and
+   * then every change of the log is put or removed in turn. A large JSON file is parsed on several
+   * threads by ParallelTaskLoader, but put and remove are always called on the current thread.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @param put adds a task or replaces the task with the same ID
+   * @param remove deletes the task with an ID
+   * @throws Exception if there is an error reading the JSON or log file
+   */
+  public static void replay(String jsonFileName, Consumer<Task> put, IntConsumer remove)
+      throws Exception {
+    try (TaskMetrics.Timer timer = TaskMetrics.time("log.replay");
+        TaskFileLock lock = TaskFileLock.shared(jsonFileName)) {
+      ParallelTaskLoader.forEach(jsonFileName, put);
+      Path logPath = Path.of(logFileName(jsonFileName));
+      if (!Files.exists(logPath)) {
+        return;
+      }
+      try (BufferedReader reader = Files.newBufferedReader(logPath, StandardCharsets.UTF_8)) {
+        String line = reader.readLine();
+        while (line != null) {
+          String following = reader.readLine();
+          try {
+            applyRecord(put, remove, line);
+          } catch (RuntimeException e) {
+            if (following != null) {
+              throw e;
+            } // else a torn record from an interrupted append, which is skipped
+          }
+          line = following;
+        }
+      }
+    }
+  }
+
+  /**
+   * Applies one log record to a task list.
+   *
+   * @param put adds a task or replaces the task with the same ID
+   * @param remove deletes the task with an ID
+   * @param line the record
+   */
+  private static void applyRecord(Consumer<Task> put, IntConsumer remove, String line) {
+    int space = line.indexOf(' ');
+    if (space < 0) {
+      return; // torn record from an interrupted append
+    }
+    String payload = line.substring(space + 1);
+    switch (Operation.valueOf(line.substring(0, space))) {
+      case ADD, UPDATE, STATUS -> put.accept(Task.fromJson(payload));
+      case DELETE -> remove.accept(Integer.parseInt(payload.trim()));
+    }
+  }
+
+  /**
+   * Retrieves the current state of a task through the index, without replaying the log.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @param id the ID of the task to retrieve
+   * @return the task with the given ID
+   * @throws Exception if the task is not found
+   */
+  public static Task accessTask(String jsonFileName, int id) throws Exception {
+    return accessVersioned(jsonFileName, id).task();
+  }
+
+  /**
+   * Retrieves the current state of a task together with its version, for a later
+   * appendIfUnchanged or appendDeleteIfUnchanged.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @param id the ID of the task to retrieve
+   * @return the task with the given ID and its version
+   * @throws Exception if the task is not found
+   */
+  public static Versioned accessVersioned(String jsonFileName, int id) throws Exception {
+    String obj;
+    long version;
+    try (TaskFileLock lock = TaskFileLock.shared(jsonFileName);
+        TaskIndex index = TaskIndex.open(jsonFileName)) {
+      obj = index.read(id);
+      version = index.version(id);
+    }
+    if (obj == null) {
+      throw new Exception("Not Found");
+    }
+    return new Versioned(Task.fromJson(obj), version);
+  }
+
+  /**
+   * Folds the log into the JSON file and empties the log. The JSON file is written before the log
+   * is removed, and replaying a log over a JSON file that already contains its changes gives the
+   * same result, so an interruption between the two steps loses nothing. If archiving on
+   * compaction is on, the tasks done for long enough are moved into the archive on the way.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @throws Exception if there is an error reading or writing the JSON or log file
+   */
+  public static void compact(String jsonFileName) throws Exception {
+    try (TaskFileLock lock = TaskFileLock.exclusive(jsonFileName)) {
+      if (Files.exists(Path.of(logFileName(jsonFileName)))) {
+        boolean searchCurrent = TaskSearchIndex.isCurrent(jsonFileName);
+        Collection<Task> tasks = replay(jsonFileName).values();
+        if (TaskArchive.isAutomatic()
+            && !TaskArchive.archive(
+                    jsonFileName, tasks, TaskArchive.cutoff(TaskArchive.AFTER_DAYS))
+                .isEmpty()) {
+          return; // the search index is rebuilt on the next search, without the archived tasks
+        }
+        writeSnapshot(jsonFileName, tasks);
+        if (searchCurrent) {
+          TaskSearchIndex.stamp(jsonFileName); // the descriptions did not change
+        }
+      }
+    }
+  }
+
+  /**
+   * Replaces the content of the JSON file with the given tasks and empties the log. This is how a
+   * task list that was changed in memory, as in a batch, is stored in one write.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @param tasks the complete task list, in order
+   * @throws Exception if there is an error writing the JSON file or removing the log
+   */
+  public static void writeSnapshot(String jsonFileName, Collection<Task> tasks) throws Exception {
+    try (TaskMetrics.Timer timer = TaskMetrics.time("snapshot.write");
+        TaskFileLock lock = TaskFileLock.exclusive(jsonFileName)) {
+      new JsonTaskCodec().write(jsonFileName, tasks);
+      Path logPath = Path.of(logFileName(jsonFileName));
+      if (Files.deleteIfExists(logPath) && JsonUtil.SYNC) {
+        JsonUtil.forceDirectory(logPath.toAbsolutePath().getParent());
+      }
+    }
+  }
+}
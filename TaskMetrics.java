@@ -0,0 +1,297 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+/**
+ * This class collects metrics about the work a TaskCLI process does: named counters, such as the
+ * bytes read and written or the objects parsed, and named timers, each of which keeps a latency
+ * histogram. The --stats flag prints them after a command, the stats command prints those of a
+ * running server, and with -Dtaskcli.jmx=true they are also published as an MBean.
+ *
+ * <p>A histogram counts values in buckets of logarithmically growing width, like HdrHistogram: all
+ * values below 128 ns have their own bucket, and above that every power of two is split into 64
+ * buckets, so any percentile is within 1.6% of the true value while recording costs a few atomic
+ * increments and no allocation.
+ *
+ * @author Muhammad Almorshidi
+ */
+public class TaskMetrics {
+  /** The number of buckets per power of two, as a power of two. */
+  private static final int SUB_BUCKET_BITS = 6;
+
+  /** The number of buckets per power of two. */
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  /** The counters, by name. */
+  private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+  /** The timers, by name. */
+  private static final Map<String, Histogram> timers = new ConcurrentHashMap<>();
+
+  /** Receives the duration of one timed operation when it ends. */
+  public interface Timer extends AutoCloseable {
+    /** Records the time since the timer was started. */
+    @Override
+    void close();
+  }
+
+  /** The metrics as published over JMX. */
+  public interface MetricsMXBean {
+    /**
+     * Returns the value of every counter.
+     *
+     * @return the counters, by name
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * Returns the count, mean, and percentiles of every timer, in milliseconds.
+     *
+     * @return one summary line per timer, by name
+     */
+    Map<String, String> getTimers();
+
+    /** Sets every counter and timer back to zero. */
+    void reset();
+  }
+
+  /**
+   * Adds to a counter.
+   *
+   * @param name the name of the counter
+   * @param amount the amount to add
+   */
+  public static void count(String name, long amount) {
+    counter(name).add(amount);
+  }
+
+  /**
+   * Returns a counter, for code that counts so often that it keeps the counter instead of looking
+   * it up by name every time.
+   *
+   * @param name the name of the counter
+   * @return the counter
+   */
+  public static LongAdder counter(String name) {
+    LongAdder counter = counters.get(name);
+    if (counter == null) {
+      counters.putIfAbsent(name, new LongAdder());
+      counter = counters.get(name);
+    }
+    return counter;
+  }
+
+  /**
+   * Starts timing an operation, to be used in a try-with-resources statement.
+   *
+   * @param name the name of the timer
+   * @return the running timer, which records the duration when closed
+   */
+  public static Timer time(String name) {
+    Histogram histogram = timers.get(name);
+    if (histogram == null) {
+      timers.putIfAbsent(name, new Histogram());
+      histogram = timers.get(name);
+    }
+    return new Running(histogram, System.nanoTime());
+  }
+
+  /**
+   * Prints every counter and timer.
+   *
+   * @param out the stream to print to
+   */
+  public static void print(PrintStream out) {
+    out.println("Counters:");
+    for (Map.Entry<String, LongAdder> counter : new TreeMap<>(counters).entrySet()) {
+      out.printf(Locale.ROOT, "  %-28s %14d%n", counter.getKey(), counter.getValue().sum());
+    }
+    out.printf(
+        Locale.ROOT,
+        "Timers (ms):%29s %10s %10s %10s %10s %10s%n",
+        "count",
+        "mean",
+        "p50",
+        "p90",
+        "p99",
+        "max");
+    for (Map.Entry<String, Histogram> timer : new TreeMap<>(timers).entrySet()) {
+      out.printf(Locale.ROOT, "  %-28s %s%n", timer.getKey(), timer.getValue().summary());
+    }
+  }
+
+  /**
+   * Publishes the metrics as the MBean TaskCLI:type=Metrics if -Dtaskcli.jmx=true is set.
+   *
+   * @throws Exception if the MBean cannot be registered
+   */
+  public static void registerIfEnabled() throws Exception {
+    if (!Boolean.getBoolean("taskcli.jmx")) {
+      return;
+    }
+    MetricsMXBean bean =
+        new MetricsMXBean() {
+          @Override
+          public Map<String, Long> getCounters() {
+            Map<String, Long> values = new TreeMap<>();
+            counters.forEach((name, counter) -> values.put(name, counter.sum()));
+            return values;
+          }
+
+          @Override
+          public Map<String, String> getTimers() {
+            Map<String, String> values = new TreeMap<>();
+            timers.forEach((name, histogram) -> values.put(name, histogram.summary().trim()));
+            return values;
+          }
+
+          @Override
+          public void reset() {
+            counters.clear();
+            timers.clear();
+          }
+        };
+    ManagementFactory.getPlatformMBeanServer()
+        .registerMBean(bean, new ObjectName("TaskCLI:type=Metrics"));
+  }
+
+  /**
+   * A timer that has been started. It is a class rather than a lambda, like the lookups above avoid
+   * computeIfAbsent, because every command is timed and the first lambda of a process costs
+   * milliseconds of startup to link.
+   */
+  private static class Running implements Timer {
+    /** The histogram that receives the duration. */
+    private final Histogram histogram;
+
+    /** The value of System.nanoTime when the timer was started. */
+    private final long start;
+
+    /**
+     * Creates a started timer.
+     *
+     * @param histogram the histogram that receives the duration
+     * @param start the value of System.nanoTime when the timer was started
+     */
+    Running(Histogram histogram, long start) {
+      this.histogram = histogram;
+      this.start = start;
+    }
+
+    @Override
+    public void close() {
+      histogram.record(System.nanoTime() - start);
+    }
+  }
+
+  /** A latency histogram with logarithmic buckets. */
+  private static class Histogram {
+    /** The number of values in each bucket. */
+    private final AtomicLongArray buckets =
+        new AtomicLongArray((64 - SUB_BUCKET_BITS) * SUB_BUCKETS);
+
+    /** The number of values recorded. */
+    private final AtomicLong count = new AtomicLong();
+
+    /** The sum of the values recorded. */
+    private final AtomicLong sum = new AtomicLong();
+
+    /** The largest value recorded. */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records one value.
+     *
+     * @param nanos the value, in nanoseconds
+     */
+    void record(long nanos) {
+      long value = Math.max(nanos, 0);
+      buckets.incrementAndGet(bucketOf(value));
+      count.incrementAndGet();
+      sum.addAndGet(value);
+      long largest = max.get();
+      while (value > largest && !max.compareAndSet(largest, value)) {
+        largest = max.get();
+      }
+    }
+
+    /**
+     * Returns the value below which a fraction of the recorded values lie.
+     *
+     * @param fraction the fraction, between 0 and 1
+     * @return the middle of the bucket the percentile falls into, in nanoseconds
+     */
+    long percentile(double fraction) {
+      long total = count.get();
+      long rank = Math.max(1, (long) Math.ceil(fraction * total));
+      long seen = 0;
+      for (int bucket = 0; bucket < buckets.length(); bucket++) {
+        seen += buckets.get(bucket);
+        if (seen >= rank) {
+          return Math.min(lowestValueOf(bucket) + widthOf(bucket) / 2, max.get());
+        }
+      }
+      return max.get();
+    }
+
+    /**
+     * Describes the histogram in one line of fixed-width columns.
+     *
+     * @return the count, mean, p50, p90, p99, and maximum, in milliseconds
+     */
+    String summary() {
+      long total = count.get();
+      return String.format(
+          Locale.ROOT,
+          "%10d %10.3f %10.3f %10.3f %10.3f %10.3f",
+          total,
+          total == 0 ? 0 : sum.get() / 1e6 / total,
+          percentile(0.5) / 1e6,
+          percentile(0.9) / 1e6,
+          percentile(0.99) / 1e6,
+          max.get() / 1e6);
+    }
+
+    /**
+     * Returns the bucket of a value.
+     *
+     * @param value the value, not negative
+     * @return the index of the bucket
+     */
+    private static int bucketOf(long value) {
+      int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+      return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    /**
+     * Returns the smallest value of a bucket.
+     *
+     * @param bucket the index of the bucket
+     * @return the smallest value counted in it
+     */
+    private static long lowestValueOf(int bucket) {
+      if (bucket < 2 * SUB_BUCKETS) {
+        return bucket;
+      }
+      int shift = (bucket >> SUB_BUCKET_BITS) - 1;
+      return (long) (bucket - (shift << SUB_BUCKET_BITS)) << shift;
+    }
+
+    /**
+     * Returns the number of values a bucket counts.
+     *
+     * @param bucket the index of the bucket
+     * @return the width of the bucket
+     */
+    private static long widthOf(int bucket) {
+      return bucket < 2 * SUB_BUCKETS ? 1 : 1L << ((bucket >> SUB_BUCKET_BITS) - 1);
+    }
+  }
+}
@@ -0,0 +1,295 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * This class collects one page of a sorted task listing: the tasks after an optional cursor task,
+ * minus an offset, up to a limit. The first limit tasks in listing order that are not skipped are
+ * kept in a bounded max-heap of sort keys, so picking a page out of a large list takes memory in
+ * proportion to the page and not to the list or the offset.
+ *
+ * <p>Tasks offered in listing order, as by the walks of TaskFilterIndex or an ID-sorted scan, are
+ * counted against the offset and dropped. Tasks offered in another order, as by a scan of the index
+ * slots for a page sorted by a date, are counted per day in a first pass if there is an offset;
+ * that tells which days, and which part of one day, lie within the offset, so the second pass only
+ * keeps tasks of the page itself. Either way a cursor is cheaper than an offset, since it lets the
+ * walks start at the page instead of at the top of the list.
+ *
+ * <p>Every task is reduced to one long key that orders it. Sorted by ID, the key is the ID. Sorted
+ * by a date, the newest tasks come first and tasks of the same day are listed with the higher ID
+ * first, so the key is the complement of the day and the ID packed into one long; tasks without
+ * the date come last. Keys are unique, so a cursor task marks an exact place in the listing even
+ * when other tasks share its date.
+ *
+ * @author Muhammad Almorshidi
+ */
+public class TaskPage {
+  /** The orders a listing can be sorted in. */
+  public enum Sort {
+    /** Ascending ID. */
+    ID,
+    /** Newest creation date first. */
+    CREATED,
+    /** Newest update date first. */
+    UPDATED
+  }
+
+  /** The order of the listing. */
+  private final Sort sort;
+
+  /** The number of tasks after the cursor to skip. */
+  private final int offset;
+
+  /** The number of tasks on the page and in the offset: the offset plus the limit. */
+  private final int capacity;
+
+  /** The number of tasks of the offset that were counted and dropped instead of kept. */
+  private int skipped;
+
+  /** The number of tasks after the cursor on each day, while they are counted, or null. */
+  private NavigableMap<Integer, Integer> dayCounts;
+
+  /** Once counted tasks are offered, the newest day whose tasks are not all within the offset. */
+  private int keepDay = Integer.MAX_VALUE;
+
+  /** The number of tasks of keepDay, the ones with the lowest IDs, that are not in the offset. */
+  private int keepOnDay = Integer.MAX_VALUE;
+
+  /** The key of the cursor task, or Long.MIN_VALUE if the page starts at the top of the list. */
+  private long after = Long.MIN_VALUE;
+
+  /** The kept keys, as a max-heap while tasks are offered. */
+  private long[] heap = new long[16];
+
+  /** The number of kept keys. */
+  private int size;
+
+  /**
+   * Creates an empty page.
+   *
+   * @param sort the order of the listing
+   * @param offset the number of tasks after the cursor to skip
+   * @param limit the number of tasks on the page, or Integer.MAX_VALUE for all of them
+   * @throws IllegalArgumentException if the offset or the limit is negative
+   */
+  public TaskPage(Sort sort, int offset, int limit) {
+    if (offset < 0 || limit < 0) {
+      throw new IllegalArgumentException("The offset and the limit must not be negative.");
+    }
+    this.sort = sort;
+    this.offset = offset;
+    this.capacity = (int) Math.min((long) offset + limit, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Returns the order of the listing.
+   *
+   * @return the sort order
+   */
+  public Sort sort() {
+    return sort;
+  }
+
+  /**
+   * Returns the number of tasks after the cursor to skip.
+   *
+   * @return the offset
+   */
+  public int offset() {
+    return offset;
+  }
+
+  /**
+   * Starts the page after a cursor task, usually the last task of the previous page.
+   *
+   * @param id the ID of the cursor task
+   * @param createdAt its creation date in days since the epoch, or TaskIndex.NO_DATE
+   * @param updatedAt its update date in days since the epoch, or TaskIndex.NO_DATE
+   */
+  public void startAfter(int id, int createdAt, int updatedAt) {
+    after = key(id, createdAt, updatedAt);
+  }
+
+  /**
+   * Returns the lowest ID that can be on the page when it is sorted by ID.
+   *
+   * @return the ID after the cursor, or Integer.MIN_VALUE without a cursor
+   */
+  public int firstId() {
+    return after == Long.MIN_VALUE ? Integer.MIN_VALUE : (int) after + 1;
+  }
+
+  /**
+   * Returns the newest day that can be on the page when it is sorted by a date.
+   *
+   * @return the day of the cursor in days since the epoch, or Integer.MAX_VALUE without a cursor
+   */
+  public int firstDay() {
+    return after == Long.MIN_VALUE ? Integer.MAX_VALUE : day(after);
+  }
+
+  /**
+   * Offers the next task in listing order for the page. If it comes after the cursor, it is dropped
+   * while the offset is not used up, and kept otherwise.
+   *
+   * @param id the ID of the task
+   * @param createdAt its creation date in days since the epoch, or TaskIndex.NO_DATE
+   * @param updatedAt its update date in days since the epoch, or TaskIndex.NO_DATE
+   */
+  public void offerInOrder(int id, int createdAt, int updatedAt) {
+    if (skipped < offset && key(id, createdAt, updatedAt) > after) {
+      skipped++;
+      return;
+    }
+    offer(id, createdAt, updatedAt);
+  }
+
+  /**
+   * Counts a task of a page sorted by a date, in a first pass over tasks that are then offered
+   * again in the same order, which must be ascending ID order, as a scan of the index slots has.
+   * Once all of them have been counted, skipCounted works out which of them are in the offset.
+   *
+   * @param id the ID of the task
+   * @param createdAt its creation date in days since the epoch, or TaskIndex.NO_DATE
+   * @param updatedAt its update date in days since the epoch, or TaskIndex.NO_DATE
+   */
+  public void count(int id, int createdAt, int updatedAt) {
+    long key = key(id, createdAt, updatedAt);
+    if (key > after) {
+      if (dayCounts == null) {
+        dayCounts = new TreeMap<>();
+      }
+      dayCounts.merge(day(key), 1, Integer::sum);
+    }
+  }
+
+  /**
+   * Ends the counting pass. Walking the counted days from the newest, the days whose tasks all fit
+   * into the offset are skipped whole, and of the first day that does not fit, as many tasks with
+   * the highest IDs as are left of the offset, since those are listed first within the day. Offers
+   * of tasks on skipped days, or of the skipped tasks of that day, are then dropped.
+   *
+   * @throws IllegalStateException if the page is sorted by ID
+   */
+  public void skipCounted() {
+    if (sort == Sort.ID) {
+      throw new IllegalStateException("A page sorted by ID is offered in order.");
+    }
+    int remaining = offset - skipped;
+    keepDay = Integer.MIN_VALUE;
+    keepOnDay = 0; // all counted tasks are in the offset unless a day is found below
+    if (dayCounts != null) {
+      for (Map.Entry<Integer, Integer> day : dayCounts.descendingMap().entrySet()) {
+        if (day.getValue() > remaining) {
+          keepDay = day.getKey();
+          keepOnDay = day.getValue() - remaining;
+          break;
+        }
+        remaining -= day.getValue();
+      }
+    }
+    skipped = offset;
+    dayCounts = null;
+  }
+
+  /**
+   * Offers a task for the page in any order. It is kept if it comes after the cursor, is not
+   * skipped, and is among the first tasks in listing order offered so far that fill the rest of
+   * the offset and the limit.
+   *
+   * @param id the ID of the task
+   * @param createdAt its creation date in days since the epoch, or TaskIndex.NO_DATE
+   * @param updatedAt its update date in days since the epoch, or TaskIndex.NO_DATE
+   */
+  public void offer(int id, int createdAt, int updatedAt) {
+    long key = key(id, createdAt, updatedAt);
+    int room = capacity - skipped;
+    if (key <= after || room == 0) {
+      return;
+    }
+    if (keepDay != Integer.MAX_VALUE) {
+      int day = day(key);
+      if (day > keepDay || (day == keepDay && --keepOnDay < 0)) {
+        return; // within the offset, as counted
+      }
+    }
+    if (size < room) {
+      if (size == heap.length) {
+        heap = Arrays.copyOf(heap, (int) Math.min(2L * size, room));
+      }
+      int at = size++;
+      while (at > 0 && heap[(at - 1) / 2] < key) {
+        heap[at] = heap[(at - 1) / 2];
+        at = (at - 1) / 2;
+      }
+      heap[at] = key;
+    } else if (key < heap[0]) {
+      int at = 0;
+      for (int child = 1; child < size; child = 2 * at + 1) {
+        if (child + 1 < size && heap[child + 1] > heap[child]) {
+          child++;
+        }
+        if (heap[child] <= key) {
+          break;
+        }
+        heap[at] = heap[child];
+        at = child;
+      }
+      heap[at] = key;
+    }
+  }
+
+  /**
+   * Returns whether the page holds or has skipped offset + limit tasks, so that a caller offering
+   * tasks in listing order can stop.
+   *
+   * @return true if no later task in listing order can be on the page
+   */
+  public boolean isFull() {
+    return skipped + size >= capacity;
+  }
+
+  /**
+   * Returns the IDs on the page, without the skipped offset.
+   *
+   * @return the IDs in listing order
+   */
+  public int[] ids() {
+    long[] keys = Arrays.copyOf(heap, size);
+    Arrays.sort(keys);
+    int skip = offset - skipped;
+    int[] ids = new int[Math.max(0, size - skip)];
+    for (int i = 0; i < ids.length; i++) {
+      long key = keys[skip + i];
+      ids[i] = (int) (sort == Sort.ID ? key : ~key);
+    }
+    return ids;
+  }
+
+  /**
+   * Returns the day of the sort key of a task in a page sorted by a date.
+   *
+   * @param key the sort key
+   * @return the day in days since the epoch, or TaskIndex.NO_DATE
+   */
+  private static int day(long key) {
+    return (int) (~key >> 32);
+  }
+
+  /**
+   * Returns the sort key of a task.
+   *
+   * @param id the ID of the task
+   * @param createdAt its creation date in days since the epoch, or TaskIndex.NO_DATE
+   * @param updatedAt its update date in days since the epoch, or TaskIndex.NO_DATE
+   * @return a key that is smaller for tasks listed earlier
+   */
+  private long key(int id, int createdAt, int updatedAt) {
+    return switch (sort) {
+      case ID -> id;
+      case CREATED -> ~(((long) createdAt << 32) | (id & 0xFFFFFFFFL));
+      case UPDATED -> ~(((long) updatedAt << 32) | (id & 0xFFFFFFFFL));
+    };
+  }
+}
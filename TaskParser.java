@@ -0,0 +1,655 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * This class is a single-pass streaming tokenizer for task JSON. It reads characters from a Reader,
+ * a CharSequence, or UTF-8 bytes in a ByteBuffer exactly once and turns each JSON object it meets
+ * into a Task, without splitting the input into substrings first. Bytes are decoded one character
+ * at a time as they are consumed, so a mapped file never has to be decoded as a whole. Strings are
+ * decoded into one reused buffer and follow the JSON escaping rules, so descriptions may contain
+ * commas, colons, braces, quotes, and backslashes.
+ *
+ * <p>The input may be a single object, an array of objects as stored in the task file, or any
+ * sequence of objects separated by commas and whitespace. Keys other than the ones of a task are
+ * skipped.
+ *
+ * @author Muhammad Almorshidi
+ */
+public class TaskParser implements Closeable {
+  /** Counts the tasks parsed by every parser. */
+  private static final LongAdder parsed = TaskMetrics.counter("tasks.parsed");
+
+  /** The reader to pull characters from, or null when parsing a CharSequence. */
+  private final Reader reader;
+
+  /** The characters to parse when no reader is used. */
+  private final CharSequence chars;
+
+  /** The UTF-8 bytes to parse when neither a reader nor a CharSequence is used. */
+  private ByteBuffer bytes;
+
+  /** The number of bytes taken by the character returned by the last call to peek. */
+  private int width = 1;
+
+  /** Whether the high surrogate of the 4-byte sequence at the position has been consumed. */
+  private boolean lowSurrogateNext;
+
+  /** Holds the characters read from the reader but not consumed yet. */
+  private final char[] buffer;
+
+  /** The position of the next character to consume, in the buffer, CharSequence, or bytes. */
+  private int position;
+
+  /** The end of the valid characters in the buffer, CharSequence, or bytes. */
+  private int limit;
+
+  /** The value of the last string read. It is reused for every string. */
+  private final StringBuilder text = new StringBuilder();
+
+  /**
+   * Creates a parser that reads from a Reader. The reader is closed when the parser is closed.
+   *
+   * @param reader the reader to parse
+   */
+  public TaskParser(Reader reader) {
+    this.reader = reader;
+    this.chars = null;
+    this.buffer = new char[8192];
+  }
+
+  /**
+   * Creates a parser over a sequence of characters, such as a String or a CharBuffer.
+   *
+   * @param chars the characters to parse
+   */
+  public TaskParser(CharSequence chars) {
+    this.reader = null;
+    this.chars = chars;
+    this.buffer = null;
+    this.limit = chars.length();
+  }
+
+  /**
+   * Creates a parser over the UTF-8 bytes between the position and the limit of a buffer, such as
+   * a region of a memory-mapped file. The position of the buffer is not changed.
+   *
+   * @param bytes the bytes to parse
+   */
+  public TaskParser(ByteBuffer bytes) {
+    this.reader = null;
+    this.chars = null;
+    this.buffer = null;
+    reset(bytes, bytes.position(), bytes.limit());
+  }
+
+  /**
+   * Points a byte parser at another range of bytes, so that one parser can be reused for many
+   * objects.
+   *
+   * @param bytes the buffer holding the bytes
+   * @param start the index of the first byte to parse
+   * @param end the index after the last byte to parse
+   */
+  public void reset(ByteBuffer bytes, int start, int end) {
+    if (reader != null || chars != null) {
+      throw new IllegalStateException("Only a byte parser can be reset.");
+    }
+    this.bytes = bytes;
+    this.position = start;
+    this.limit = end;
+    this.lowSurrogateNext = false;
+  }
+
+  /**
+   * Parses a single task from its JSON object.
+   *
+   * @param json the JSON object of a task
+   * @return the parsed task
+   */
+  public static Task parse(CharSequence json) {
+    try {
+      Task task = new TaskParser(json).next();
+      if (task == null) {
+        throw new IllegalArgumentException("No JSON object found.");
+      }
+      return task;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Returns the value of one field of a JSON object without building a Task. Other fields are
+   * skipped without decoding them.
+   *
+   * @param json the JSON object of a task
+   * @param key the name of the field
+   * @return the value of the field, or null if it is not present
+   */
+  public static Object field(CharSequence json, String key) {
+    try {
+      return new TaskParser(json).nextField(key);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Returns the value of one field of the next JSON object of the input. Other fields are skipped
+   * without decoding them, and the input is left somewhere inside the object.
+   *
+   * @param key the name of the field
+   * @return the value of the field, or null if it is not present
+   * @throws IOException if there is an error reading from the reader
+   */
+  public Object nextField(String key) throws IOException {
+    expect(skipSeparators(), '{');
+    int c = skipWhitespace();
+    if (c == '}') {
+      return null;
+    }
+    while (true) {
+      expect(c, '"');
+      readString();
+      expect(skipWhitespace(), ':');
+      if (keyIs(key)) {
+        return readValue(key);
+      }
+      skipValue(skipWhitespace());
+      c = skipWhitespace();
+      if (c == '}') {
+        return null;
+      }
+      expect(c, ',');
+      c = skipWhitespace();
+    }
+  }
+
+  /**
+   * Parses the next JSON object of the input into a Task. Fields that are missing get the same
+   * defaults as in Task.fromJson.
+   *
+   * @return the next task, or null if the end of the input has been reached
+   * @throws IOException if there is an error reading from the reader
+   */
+  public Task next() throws IOException {
+    return next(null);
+  }
+
+  /**
+   * Parses the next JSON object of the input whose status is accepted by a filter. As soon as the
+   * status of an object is rejected, the rest of it is skipped without decoding its strings and no
+   * Task is built for it.
+   *
+   * @param filter the statuses to accept, or null to accept every object
+   * @return the next accepted task, or null if the end of the input has been reached
+   * @throws IOException if there is an error reading from the reader
+   */
+  public Task next(Predicate<Task.Status> filter) throws IOException {
+    while (true) {
+      int c = skipSeparators();
+      if (c == -1) {
+        return null;
+      }
+      expect(c, '{');
+      int id = 0;
+      Task.Status status = Task.Status.UNKNOWN;
+      LocalDate createdAt = null;
+      LocalDate updatedAt = null;
+      String description = "";
+      boolean rejected = false;
+      c = skipWhitespace();
+      while (c != '}') {
+        expect(c, '"');
+        readString();
+        expect(skipWhitespace(), ':');
+        if (rejected) {
+          skipValue(skipWhitespace());
+        } else if (keyIs("ID")) {
+          id = readInt(skipWhitespace());
+        } else if (keyIs("Status")) {
+          status = statusOf(readStringValue());
+          rejected = filter != null && !filter.test(status);
+        } else if (keyIs("CreatedAt")) {
+          createdAt = dateOf(readStringValue());
+        } else if (keyIs("UpdatedAt")) {
+          updatedAt = dateOf(readStringValue());
+        } else if (keyIs("Description")) {
+          description = readStringValue().toString();
+        } else {
+          skipValue(skipWhitespace());
+        }
+        c = skipWhitespace();
+        if (c == ',') {
+          c = skipWhitespace();
+        } else if (c != '}') {
+          throw malformed(c, "',' or '}'");
+        }
+      }
+      if (!rejected) {
+        parsed.increment();
+        return new Task(
+            id,
+            status,
+            createdAt != null ? createdAt : LocalDate.now(),
+            updatedAt != null ? updatedAt : LocalDate.now(),
+            description);
+      }
+    }
+  }
+
+  /**
+   * Returns the raw text of the next JSON object of the input, exactly as it appears.
+   *
+   * @return the next JSON object, or null if the end of the input has been reached
+   * @throws IOException if there is an error reading from the reader
+   */
+  public String nextObject() throws IOException {
+    int c = skipSeparators();
+    if (c == -1) {
+      return null;
+    }
+    expect(c, '{');
+    StringBuilder object = new StringBuilder().append('{');
+    int depth = 1;
+    boolean inString = false;
+    boolean escaped = false;
+    while (depth > 0) {
+      c = read();
+      if (c == -1) {
+        throw malformed(c, "'}'");
+      }
+      object.append((char) c);
+      if (inString) {
+        if (escaped) {
+          escaped = false;
+        } else if (c == '\\') {
+          escaped = true;
+        } else if (c == '"') {
+          inString = false;
+        }
+      } else if (c == '"') {
+        inString = true;
+      } else if (c == '{' || c == '[') {
+        depth++;
+      } else if (c == '}' || c == ']') {
+        depth--;
+      }
+    }
+    return object.toString();
+  }
+
+  /**
+   * Closes the underlying reader, if there is one.
+   *
+   * @throws IOException if there is an error closing the reader
+   */
+  @Override
+  public void close() throws IOException {
+    if (reader != null) {
+      reader.close();
+    }
+  }
+
+  /**
+   * Reads the value of a known task field, the first character of which has not been consumed.
+   *
+   * @param key the name of the field
+   * @return the value, typed as in Task.getField
+   * @throws IOException if there is an error reading from the reader
+   */
+  private Object readValue(String key) throws IOException {
+    switch (key) {
+      case "ID":
+        return readInt(skipWhitespace());
+      case "Status":
+        return statusOf(readStringValue());
+      case "CreatedAt":
+      case "UpdatedAt":
+        return dateOf(readStringValue());
+      case "Description":
+        return readStringValue().toString();
+      default:
+        skipValue(skipWhitespace());
+        return null;
+    }
+  }
+
+  /**
+   * Reads a string value, the opening quote of which has not been consumed.
+   *
+   * @return the reused text buffer holding the decoded string
+   * @throws IOException if there is an error reading from the reader
+   */
+  private CharSequence readStringValue() throws IOException {
+    expect(skipWhitespace(), '"');
+    readString();
+    return text;
+  }
+
+  /**
+   * Reads a JSON string whose opening quote has been consumed into the reused text buffer.
+   *
+   * @throws IOException if there is an error reading from the reader
+   */
+  private void readString() throws IOException {
+    text.setLength(0);
+    while (true) {
+      int c = read();
+      if (c == '"') {
+        return;
+      } else if (c == -1) {
+        throw malformed(c, "'\"'");
+      } else if (c != '\\') {
+        text.append((char) c);
+        continue;
+      }
+      c = read();
+      switch (c) {
+        case '"', '\\', '/' -> text.append((char) c);
+        case 'b' -> text.append('\b');
+        case 'f' -> text.append('\f');
+        case 'n' -> text.append('\n');
+        case 'r' -> text.append('\r');
+        case 't' -> text.append('\t');
+        case 'u' -> {
+          int code = 0;
+          for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(read(), 16);
+            if (digit < 0) {
+              throw malformed(c, "a hexadecimal digit");
+            }
+            code = code * 16 + digit;
+          }
+          text.append((char) code);
+        }
+        case -1 -> throw malformed(c, "an escape character");
+        default -> text.append('\\').append((char) c); // written before backslashes were escaped
+      }
+    }
+  }
+
+  /**
+   * Reads an integer whose first character has already been read.
+   *
+   * @param c the first character of the number
+   * @return the value of the number
+   * @throws IOException if there is an error reading from the reader
+   */
+  private int readInt(int c) throws IOException {
+    boolean negative = c == '-';
+    if (negative) {
+      c = read();
+    }
+    if (c < '0' || c > '9') {
+      throw malformed(c, "a digit");
+    }
+    int value = 0;
+    while (c >= '0' && c <= '9') {
+      value = value * 10 + (c - '0');
+      c = peek();
+      if (c >= '0' && c <= '9') {
+        read();
+      }
+    }
+    return negative ? -value : value;
+  }
+
+  /**
+   * Skips a value of any type whose first character has already been read.
+   *
+   * @param c the first character of the value
+   * @throws IOException if there is an error reading from the reader
+   */
+  private void skipValue(int c) throws IOException {
+    if (c == '"') {
+      int previous = 0;
+      while ((c = read()) != '"' || previous == '\\') {
+        if (c == -1) {
+          throw malformed(c, "'\"'");
+        }
+        previous = previous == '\\' ? 0 : c;
+      }
+    } else if (c == '{' || c == '[') {
+      int close = c == '{' ? '}' : ']';
+      c = skipWhitespace();
+      while (c != close) {
+        if (close == '}') {
+          expect(c, '"');
+          skipValue(c);
+          expect(skipWhitespace(), ':');
+          c = skipWhitespace();
+        }
+        skipValue(c);
+        c = skipWhitespace();
+        if (c == ',') {
+          c = skipWhitespace();
+        } else if (c != close) {
+          throw malformed(c, "',' or '" + (char) close + "'");
+        }
+      }
+    } else {
+      while (true) {
+        int next = peek();
+        if (next == -1 || next == ',' || next == '}' || next == ']' || next <= ' ') {
+          return;
+        }
+        read();
+      }
+    }
+  }
+
+  /**
+   * Consumes whitespace, commas, and array brackets, and returns the first other character.
+   *
+   * @return the first character that is not a separator, or -1 at the end of the input
+   * @throws IOException if there is an error reading from the reader
+   */
+  private int skipSeparators() throws IOException {
+    int c;
+    do {
+      c = read();
+    } while (c == ',' || c == '[' || c == ']' || (c != -1 && c <= ' '));
+    return c;
+  }
+
+  /**
+   * Consumes whitespace and returns the first other character.
+   *
+   * @return the first character that is not whitespace, or -1 at the end of the input
+   * @throws IOException if there is an error reading from the reader
+   */
+  private int skipWhitespace() throws IOException {
+    int c;
+    do {
+      c = read();
+    } while (c != -1 && c <= ' ');
+    return c;
+  }
+
+  /**
+   * Checks whether the last string read equals a key, without creating a String.
+   *
+   * @param key the key to compare with
+   * @return true if the last string read equals the key
+   */
+  private boolean keyIs(String key) {
+    return text.length() == key.length() && key.contentEquals(text);
+  }
+
+  /**
+   * Consumes and returns the next character.
+   *
+   * @return the next character, or -1 at the end of the input
+   * @throws IOException if there is an error reading from the reader
+   */
+  private int read() throws IOException {
+    int c = peek();
+    if (c == -1) {
+      return c;
+    } else if (bytes == null) {
+      position++;
+    } else if (width == 0) {
+      lowSurrogateNext = true;
+    } else {
+      position += width;
+      lowSurrogateNext = false;
+    }
+    return c;
+  }
+
+  /**
+   * Returns the next character without consuming it, refilling the buffer when needed.
+   *
+   * @return the next character, or -1 at the end of the input
+   * @throws IOException if there is an error reading from the reader
+   */
+  private int peek() throws IOException {
+    if (position < limit) {
+      if (bytes != null) {
+        return decode();
+      }
+      return reader == null ? chars.charAt(position) : buffer[position];
+    }
+    if (reader == null) {
+      return -1;
+    }
+    int n;
+    do {
+      n = reader.read(buffer, 0, buffer.length);
+    } while (n == 0);
+    if (n < 0) {
+      return -1;
+    }
+    position = 0;
+    limit = n;
+    return buffer[0];
+  }
+
+  /**
+   * Decodes the UTF-8 character at the position of the byte input and records how many bytes it
+   * takes. A 4-byte sequence is returned as its high surrogate first, taking no bytes, and then as
+   * its low surrogate, taking all four.
+   *
+   * @return the decoded character, or U+FFFD for an invalid sequence
+   */
+  private int decode() {
+    int b = bytes.get(position);
+    if (b >= 0) {
+      width = 1;
+      return b;
+    }
+    int length;
+    int codePoint;
+    if ((b & 0xE0) == 0xC0) {
+      length = 2;
+      codePoint = b & 0x1F;
+    } else if ((b & 0xF0) == 0xE0) {
+      length = 3;
+      codePoint = b & 0x0F;
+    } else if ((b & 0xF8) == 0xF0) {
+      length = 4;
+      codePoint = b & 0x07;
+    } else {
+      width = 1;
+      return 0xFFFD;
+    }
+    if (position + length > limit) {
+      width = limit - position;
+      return 0xFFFD;
+    }
+    for (int i = 1; i < length; i++) {
+      codePoint = (codePoint << 6) | (bytes.get(position + i) & 0x3F);
+    }
+    if (length < 4) {
+      width = length;
+      return codePoint;
+    } else if (lowSurrogateNext) {
+      width = length;
+      return Character.lowSurrogate(codePoint);
+    }
+    width = 0;
+    return Character.highSurrogate(codePoint);
+  }
+
+  /**
+   * Throws if a character is not the expected one.
+   *
+   * @param c the character that was read
+   * @param expected the character that was expected
+   */
+  private static void expect(int c, char expected) {
+    if (c != expected) {
+      throw malformed(c, "'" + expected + "'");
+    }
+  }
+
+  /**
+   * Creates the exception thrown for input that is not valid task JSON.
+   *
+   * @param c the character that was read
+   * @param expected a description of what was expected
+   * @return the exception to throw
+   */
+  private static IllegalArgumentException malformed(int c, String expected) {
+    String found = c == -1 ? "end of input" : "'" + (char) c + "'";
+    return new IllegalArgumentException(
+        "Malformed task JSON: expected " + expected + ", found " + found);
+  }
+
+  /**
+   * Maps the text of a status to its value without creating a String.
+   *
+   * @param value the text of the status
+   * @return the status, or UNKNOWN if the text is not a known status
+   */
+  private static Task.Status statusOf(CharSequence value) {
+    if ("TODO".contentEquals(value)) {
+      return Task.Status.TODO;
+    } else if ("IN_PROGRESS".contentEquals(value)) {
+      return Task.Status.IN_PROGRESS;
+    } else if ("DONE".contentEquals(value)) {
+      return Task.Status.DONE;
+    }
+    return Task.Status.UNKNOWN;
+  }
+
+  /**
+   * Parses an ISO date of the form yyyy-MM-dd without creating a String.
+   *
+   * @param value the text of the date
+   * @return the date
+   */
+  private static LocalDate dateOf(CharSequence value) {
+    if (value.length() != 10 || value.charAt(4) != '-' || value.charAt(7) != '-') {
+      return LocalDate.parse(value);
+    }
+    return LocalDate.of(digits(value, 0, 4), digits(value, 5, 7), digits(value, 8, 10));
+  }
+
+  /**
+   * Parses a run of decimal digits.
+   *
+   * @param value the text containing the digits
+   * @param start the index of the first digit
+   * @param end the index after the last digit
+   * @return the value of the digits
+   */
+  private static int digits(CharSequence value, int start, int end) {
+    int result = 0;
+    for (int i = start; i < end; i++) {
+      int digit = value.charAt(i) - '0';
+      if (digit < 0 || digit > 9) {
+        throw new IllegalArgumentException("Malformed task JSON: invalid date " + value);
+      }
+      result = result * 10 + digit;
+    }
+    return result;
+  }
+}
@@ -0,0 +1,608 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class maintains a persisted inverted index over the task descriptions, mapping every token
+ * to the sorted IDs of the tasks whose description contains it. It lives in two files next to the
+ * task file: a base file built from the whole task list, and a delta log with the tokens of every
+ * task added, updated, or deleted since.
+ *
+ * <p>The base file starts with a header that records the size and modification time of the JSON
+ * file and of the operation log as of the last change the index has seen, followed by a table of
+ * fixed-size entries, one per token in sorted order, the token bytes, and the posting lists as
+ * delta-encoded varints. A query finds tokens and prefixes by binary search over the mapped table.
+ * Tasks in the delta log are answered from their tokens there instead of from the base file.
+ *
+ * <p>TaskLog records every change in the delta log while it holds the exclusive lock, as long as
+ * the index is current. If the index is missing or stale, or the delta log has grown past
+ * MAX_DELTA_SIZE, the next search rebuilds the base file from the task list.
+ *
+ * <p>Tokens are the maximal runs of letters and digits in a description, in lower case. A query is
+ * a list of terms that must all match, where a term ending in * matches every token with that
+ * prefix; OR between terms separates alternatives, and binds more loosely than the implicit AND.
+ *
+ * @author Muhammad Almorshidi
+ */
+public class TaskSearchIndex {
+  /** Marks a file as a search index, and changes whenever the layout of the file changes. */
+  private static final int MAGIC = 0x54534931;
+
+  /** Magic number, 4 reserved bytes, size and mtime of the JSON file and the log, token count. */
+  private static final int HEADER_SIZE = 48;
+
+  /** Postings offset (8 bytes), posting count (4 bytes), token offset and length (4 bytes each). */
+  private static final int ENTRY_SIZE = 20;
+
+  /** The size of the delta log above which the next search rebuilds the base file. */
+  private static final long MAX_DELTA_SIZE = 1024 * 1024;
+
+  /** The mapped base file. */
+  private final MappedByteBuffer base;
+
+  /** The number of tokens in the base file. */
+  private final int tokenCount;
+
+  /** The tokens of the tasks changed since the base file was built, by ID; empty when deleted. */
+  private final Map<Integer, Set<String>> delta;
+
+  /**
+   * Creates a view of an index that has been opened and validated.
+   *
+   * @param base the mapped base file
+   * @param delta the tokens of the changed tasks, by ID
+   */
+  private TaskSearchIndex(MappedByteBuffer base, Map<Integer, Set<String>> delta) {
+    this.base = base;
+    this.tokenCount = base.getInt(40);
+    this.delta = delta;
+  }
+
+  /**
+   * Returns the name of the base file of the search index that belongs to the given JSON file.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @return the name of the base file
+   */
+  public static String indexFileName(String jsonFileName) {
+    return jsonFileName + ".search";
+  }
+
+  /**
+   * Returns the name of the delta log of the search index that belongs to the given JSON file.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @return the name of the delta log
+   */
+  public static String deltaFileName(String jsonFileName) {
+    return jsonFileName + ".search.log";
+  }
+
+  /**
+   * Finds the tasks whose descriptions match a query. If the index needs to be rebuilt, it is
+   * rebuilt under the exclusive lock first; the query itself runs under a shared lock.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @param query the query
+   * @return the IDs of the matching tasks, in ascending order
+   * @throws Exception if there is an error reading or rebuilding the index
+   */
+  public static int[] search(String jsonFileName, String query) throws Exception {
+    Path deltaPath = Path.of(deltaFileName(jsonFileName));
+    boolean current;
+    try (TaskFileLock lock = TaskFileLock.shared(jsonFileName)) {
+      current = !needsRebuild(jsonFileName, deltaPath);
+    }
+    if (!current) {
+      try (TaskFileLock lock = TaskFileLock.exclusive(jsonFileName)) {
+        if (needsRebuild(jsonFileName, deltaPath)) {
+          try (TaskMetrics.Timer timer = TaskMetrics.time("search.rebuild")) {
+            rebuild(jsonFileName);
+          }
+        }
+      }
+    }
+    try (TaskMetrics.Timer timer = TaskMetrics.time("search.query");
+        TaskFileLock lock = TaskFileLock.shared(jsonFileName);
+        FileChannel channel = FileChannel.open(Path.of(indexFileName(jsonFileName)))) {
+      MappedByteBuffer base = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return new TaskSearchIndex(base, readDelta(deltaPath)).evaluate(query);
+    }
+  }
+
+  /**
+   * Returns whether the base file must be rebuilt before a query: because it is missing or stale,
+   * or because the delta log has grown too large to read on every query.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @param deltaPath the path of the delta log
+   * @return true if the base file must be rebuilt
+   * @throws IOException if there is an error reading the index or file attributes
+   */
+  private static boolean needsRebuild(String jsonFileName, Path deltaPath) throws IOException {
+    return !isCurrent(jsonFileName)
+        || (Files.exists(deltaPath) && Files.size(deltaPath) > MAX_DELTA_SIZE);
+  }
+
+  /**
+   * Returns whether the index exists and has seen every change to the task file and log. The
+   * caller must hold at least a shared lock on the task file.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @return true if the index is current
+   * @throws IOException if there is an error reading the index or file attributes
+   */
+  public static boolean isCurrent(String jsonFileName) throws IOException {
+    Path path = Path.of(indexFileName(jsonFileName));
+    if (!Files.exists(path)) {
+      return false;
+    }
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    try (FileChannel channel = FileChannel.open(path)) {
+      while (header.hasRemaining() && channel.read(header) >= 0) {}
+    }
+    return header.getInt(0) == MAGIC
+        && Arrays.equals(
+            Arrays.copyOfRange(header.array(), 8, 40), stampOf(jsonFileName).array());
+  }
+
+  /**
+   * Records the new description of a task, or its deletion, in the delta log and marks the index
+   * as current. The caller must hold the exclusive lock, must have checked that the index was
+   * current before changing the task file or log, and must call this after the change.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @param id the ID of the changed task
+   * @param task the task after the change, or null if it was deleted
+   * @throws IOException if there is an error writing the index
+   */
+  public static void record(String jsonFileName, int id, Task task) throws IOException {
+    StringBuilder line = new StringBuilder().append(id);
+    if (task != null) {
+      for (String token : tokenize(task.getDescription())) {
+        line.append(' ').append(token);
+      }
+    }
+    line.append('\n');
+    try (FileChannel channel =
+        FileChannel.open(
+            Path.of(deltaFileName(jsonFileName)),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND)) {
+      ByteBuffer bytes = ByteBuffer.wrap(line.toString().getBytes(StandardCharsets.UTF_8));
+      while (bytes.hasRemaining()) {
+        channel.write(bytes);
+      }
+    }
+    stamp(jsonFileName);
+  }
+
+  /**
+   * Marks the index as current after a change to the task file or log that did not change any
+   * description, such as a status change or a compaction. The caller must hold the exclusive lock
+   * and must have checked that the index was current before the change.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @throws IOException if there is an error writing the index
+   */
+  public static void stamp(String jsonFileName) throws IOException {
+    try (FileChannel channel =
+        FileChannel.open(Path.of(indexFileName(jsonFileName)), StandardOpenOption.WRITE)) {
+      ByteBuffer stamp = stampOf(jsonFileName);
+      while (stamp.hasRemaining()) {
+        channel.write(stamp, 8 + stamp.position());
+      }
+    }
+  }
+
+  /**
+   * Splits a description into its distinct tokens.
+   *
+   * @param description the description, or null
+   * @return the lower-case runs of letters and digits in it, without duplicates
+   */
+  public static Set<String> tokenize(String description) {
+    Set<String> tokens = new HashSet<>();
+    if (description == null) {
+      return tokens;
+    }
+    int start = -1;
+    for (int i = 0; i <= description.length(); i++) {
+      boolean inToken = i < description.length() && isTokenChar(description.codePointAt(i));
+      if (inToken && start < 0) {
+        start = i;
+      } else if (!inToken && start >= 0) {
+        tokens.add(description.substring(start, i).toLowerCase(Locale.ROOT));
+        start = -1;
+      }
+      if (inToken && Character.isSupplementaryCodePoint(description.codePointAt(i))) {
+        i++;
+      }
+    }
+    return tokens;
+  }
+
+  /**
+   * One term of a query: a token, and whether every token that starts with it matches too.
+   *
+   * @param token the token
+   * @param prefix whether the term ended in *
+   */
+  private record Term(String token, boolean prefix) {
+    /**
+     * Returns whether the term matches one of the tokens of a description.
+     *
+     * @param tokens the tokens of the description
+     * @return whether the term matches
+     */
+    boolean matches(Set<String> tokens) {
+      if (!prefix) {
+        return tokens.contains(token);
+      }
+      for (String candidate : tokens) {
+        if (candidate.startsWith(token)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Splits a query into its alternatives, each a list of terms that must all match. An alternative
+   * with a term that is not a single token, such as punctuation alone, matches nothing and is
+   * left out.
+   *
+   * @param query the query
+   * @return the alternatives
+   */
+  private static List<List<Term>> parse(String query) {
+    List<List<Term>> groups = new ArrayList<>();
+    List<Term> terms = new ArrayList<>();
+    boolean valid = true;
+    for (String word : (query + " OR").trim().split("\\s+")) {
+      if (!word.equals("OR")) {
+        boolean prefix = word.endsWith("*");
+        Set<String> tokens = tokenize(prefix ? word.substring(0, word.length() - 1) : word);
+        valid &= tokens.size() == 1;
+        if (valid) {
+          terms.add(new Term(tokens.iterator().next(), prefix));
+        }
+        continue;
+      }
+      if (valid && !terms.isEmpty()) {
+        groups.add(terms);
+      }
+      terms = new ArrayList<>();
+      valid = true;
+    }
+    return groups;
+  }
+
+  /**
+   * Evaluates a query against the base file and the delta log. The base file is stale for the
+   * tasks in the delta log, so they are dropped from what it matches and the whole query is
+   * matched against their tokens instead, in one pass over the delta log.
+   *
+   * @param query the query
+   * @return the IDs of the matching tasks, in ascending order
+   */
+  private int[] evaluate(String query) {
+    List<List<Term>> groups = parse(query);
+    int[] result = new int[0];
+    for (List<Term> group : groups) {
+      int[] ids = match(group.get(0));
+      for (int i = 1; i < group.size() && ids.length > 0; i++) {
+        ids = intersect(ids, match(group.get(i)));
+      }
+      result = union(result, ids);
+    }
+    int count = 0;
+    for (int id : result) {
+      if (!delta.containsKey(id)) {
+        result[count++] = id;
+      }
+    }
+    List<Integer> changed = new ArrayList<>();
+    for (Map.Entry<Integer, Set<String>> task : delta.entrySet()) {
+      for (List<Term> group : groups) {
+        if (group.stream().allMatch(term -> term.matches(task.getValue()))) {
+          changed.add(task.getKey());
+          break;
+        }
+      }
+    }
+    int[] added = changed.stream().mapToInt(Integer::intValue).sorted().toArray();
+    return union(Arrays.copyOf(result, count), added);
+  }
+
+  /**
+   * Finds the tasks whose tokens in the base file match one term. A prefix term reads the posting
+   * lists of all tokens in its range of the table into one bitmap, rather than merging them one by
+   * one, which would copy the IDs found so far for every token.
+   *
+   * @param term the term
+   * @return the IDs of the matching tasks, in ascending order
+   */
+  private int[] match(Term term) {
+    byte[] key = term.token().getBytes(StandardCharsets.UTF_8);
+    int first = lowerBound(key);
+    int end = first;
+    while (end < tokenCount && compareToken(end, key, term.prefix()) == 0) {
+      end++;
+      if (!term.prefix()) {
+        break;
+      }
+    }
+    if (end == first) {
+      return new int[0];
+    } else if (end - first == 1) {
+      return postings(first);
+    }
+    BitSet ids = new BitSet();
+    for (int entry = first; entry < end; entry++) {
+      for (int id : postings(entry)) {
+        ids.set(id);
+      }
+    }
+    return ids.stream().toArray();
+  }
+
+  /**
+   * Finds the first entry whose token is not less than a key.
+   *
+   * @param key the UTF-8 bytes of the key
+   * @return the index of the entry, or tokenCount if every token is less
+   */
+  private int lowerBound(byte[] key) {
+    int low = 0;
+    int high = tokenCount;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (compareToken(middle, key, false) < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Compares the token of an entry with a key, byte by byte.
+   *
+   * @param entry the index of the entry
+   * @param key the UTF-8 bytes of the key
+   * @param prefix whether a token that starts with the key counts as equal
+   * @return a negative number, zero, or a positive number as the token is less than, equal to, or
+   *     greater than the key
+   */
+  private int compareToken(int entry, byte[] key, boolean prefix) {
+    int position = HEADER_SIZE + entry * ENTRY_SIZE;
+    int offset = base.getInt(position + 12);
+    int length = base.getInt(position + 16);
+    int common = Math.min(length, key.length);
+    for (int i = 0; i < common; i++) {
+      int compared = Byte.toUnsignedInt(base.get(offset + i)) - Byte.toUnsignedInt(key[i]);
+      if (compared != 0) {
+        return compared;
+      }
+    }
+    return prefix && length >= key.length ? 0 : length - key.length;
+  }
+
+  /**
+   * Decodes the posting list of an entry.
+   *
+   * @param entry the index of the entry
+   * @return the IDs in the posting list, in ascending order
+   */
+  private int[] postings(int entry) {
+    int position = HEADER_SIZE + entry * ENTRY_SIZE;
+    int offset = (int) base.getLong(position);
+    int[] ids = new int[base.getInt(position + 8)];
+    int id = 0;
+    for (int i = 0; i < ids.length; i++) {
+      int gap = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = base.get(offset++);
+        gap |= (b & 0x7f) << shift;
+        shift += 7;
+      } while (b < 0);
+      id += gap;
+      ids[i] = id;
+    }
+    return ids;
+  }
+
+  /**
+   * Rebuilds the base file from the current task list and empties the delta log. The caller must
+   * hold the exclusive lock.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @throws Exception if there is an error reading the task list or writing the index
+   */
+  private static void rebuild(String jsonFileName) throws Exception {
+    Map<String, int[]> postings = new HashMap<>();
+    try (TaskCursor tasks = new TaskCursor(jsonFileName, null)) {
+      while (tasks.hasNext()) {
+        Task task = tasks.next();
+        for (String token : tokenize(task.getDescription())) {
+          int[] ids = postings.get(token);
+          if (ids == null) {
+            ids = new int[] {0, 0, 0, 0}; // ids[0] holds the count
+            postings.put(token, ids);
+          } else if (ids[0] + 1 == ids.length) {
+            ids = Arrays.copyOf(ids, ids.length * 2);
+            postings.put(token, ids);
+          }
+          ids[++ids[0]] = task.getId();
+        }
+      }
+    }
+    List<byte[]> tokens = new ArrayList<>(postings.size());
+    for (String token : postings.keySet()) {
+      tokens.add(token.getBytes(StandardCharsets.UTF_8));
+    }
+    tokens.sort(Arrays::compareUnsigned);
+    long tokenBytes = 0;
+    long postingBytes = 0;
+    for (int[] ids : postings.values()) {
+      Arrays.sort(ids, 1, ids[0] + 1);
+      postingBytes += 5L * ids[0];
+    }
+    for (byte[] token : tokens) {
+      tokenBytes += token.length;
+    }
+    long size = HEADER_SIZE + (long) tokens.size() * ENTRY_SIZE + tokenBytes + postingBytes;
+    if (size > Integer.MAX_VALUE) {
+      throw new Exception("Task list too large for the search index.");
+    }
+    ByteBuffer buffer = ByteBuffer.allocate((int) size);
+    buffer.putInt(0, MAGIC).putInt(40, tokens.size());
+    buffer.put(8, stampOf(jsonFileName), 0, 32);
+    int tokenOffset = HEADER_SIZE + tokens.size() * ENTRY_SIZE;
+    int postingOffset = (int) (tokenOffset + tokenBytes);
+    for (int entry = 0; entry < tokens.size(); entry++) {
+      byte[] token = tokens.get(entry);
+      int[] ids = postings.get(new String(token, StandardCharsets.UTF_8));
+      int position = HEADER_SIZE + entry * ENTRY_SIZE;
+      buffer.putLong(position, postingOffset).putInt(position + 8, ids[0]);
+      buffer.putInt(position + 12, tokenOffset).putInt(position + 16, token.length);
+      buffer.put(tokenOffset, token);
+      tokenOffset += token.length;
+      int previous = 0;
+      for (int i = 1; i <= ids[0]; i++) {
+        int gap = ids[i] - previous;
+        previous = ids[i];
+        while ((gap & ~0x7f) != 0) {
+          buffer.put(postingOffset++, (byte) ((gap & 0x7f) | 0x80));
+          gap >>>= 7;
+        }
+        buffer.put(postingOffset++, (byte) gap);
+      }
+    }
+    JsonUtil.replaceFile(indexFileName(jsonFileName), buffer.limit(postingOffset));
+    Files.deleteIfExists(Path.of(deltaFileName(jsonFileName)));
+  }
+
+  /**
+   * Reads the delta log, keeping the latest tokens of every task in it.
+   *
+   * @param deltaPath the path of the delta log
+   * @return the tokens of the changed tasks, by ID, with an empty set for a deleted task
+   * @throws IOException if there is an error reading the log
+   */
+  private static Map<Integer, Set<String>> readDelta(Path deltaPath) throws IOException {
+    Map<Integer, Set<String>> delta = new HashMap<>();
+    if (!Files.exists(deltaPath)) {
+      return delta;
+    }
+    try (BufferedReader reader = Files.newBufferedReader(deltaPath, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split(" ");
+        Set<String> tokens = new HashSet<>(Arrays.asList(fields).subList(1, fields.length));
+        delta.put(Integer.parseInt(fields[0]), tokens);
+      }
+    }
+    return delta;
+  }
+
+  /**
+   * Describes the current size and modification time of the JSON file and the log.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @return 32 bytes: size and modification time of each file, or zeros if it does not exist
+   * @throws IOException if there is an error reading file attributes
+   */
+  private static ByteBuffer stampOf(String jsonFileName) throws IOException {
+    ByteBuffer stamp = ByteBuffer.allocate(32);
+    Path[] paths = {Path.of(jsonFileName), Path.of(TaskLog.logFileName(jsonFileName))};
+    for (Path path : paths) {
+      if (Files.exists(path)) {
+        stamp.putLong(Files.size(path)).putLong(Files.getLastModifiedTime(path).toMillis());
+      } else {
+        stamp.putLong(0).putLong(0);
+      }
+    }
+    return stamp.flip();
+  }
+
+  /**
+   * Returns whether a code point belongs to a token.
+   *
+   * @param codePoint the code point
+   * @return true for letters and digits
+   */
+  private static boolean isTokenChar(int codePoint) {
+    return Character.isLetterOrDigit(codePoint);
+  }
+
+  /**
+   * Returns the IDs that are in both of two sorted arrays.
+   *
+   * @param a the first sorted array
+   * @param b the second sorted array
+   * @return the sorted intersection
+   */
+  private static int[] intersect(int[] a, int[] b) {
+    int[] result = new int[Math.min(a.length, b.length)];
+    int count = 0;
+    for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+      if (a[i] < b[j]) {
+        i++;
+      } else if (a[i] > b[j]) {
+        j++;
+      } else {
+        result[count++] = a[i++];
+        j++;
+      }
+    }
+    return Arrays.copyOf(result, count);
+  }
+
+  /**
+   * Returns the IDs that are in either of two sorted arrays.
+   *
+   * @param a the first sorted array
+   * @param b the second sorted array
+   * @return the sorted union, without duplicates
+   */
+  private static int[] union(int[] a, int[] b) {
+    if (a.length == 0) {
+      return b;
+    } else if (b.length == 0) {
+      return a;
+    }
+    int[] result = new int[a.length + b.length];
+    int count = 0;
+    int i = 0;
+    int j = 0;
+    while (i < a.length || j < b.length) {
+      int next = j == b.length || (i < a.length && a[i] <= b[j]) ? a[i++] : b[j++];
+      if (count == 0 || result[count - 1] != next) {
+        result[count++] = next;
+      }
+    }
+    return Arrays.copyOf(result, count);
+  }
+}
@@ -0,0 +1,195 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class carries TaskCLI commands over a Unix domain socket, so that a long-running server
+ * process can keep the task list loaded and answer commands without paying JVM startup, config
+ * loading, and parsing for each one. The socket file lives next to the config file.
+ *
+ * <p>The protocol is plain text so that scripts can talk to the server directly. A request is one
+ * argument per line, with backslashes and newlines inside an argument escaped as \\ and \n, ended
+ * by an empty line. The response is the output of the command, after which the server closes the
+ * connection. For example: {@code printf 'mark-done\n7\n\n' | nc -U taskcli.sock}.
+ *
+ * <p>Requests that are already waiting when one has been handled are handled right away as a
+ * group, and their responses are only sent after a single group commit has made all of their
+ * changes durable.
+ *
+ * @author Muhammad Almorshidi
+ */
+public class TaskServer {
+  /** The name of the socket file a running server listens on. */
+  public static final String SOCKET_FILE_NAME = "taskcli.sock";
+
+  /** The largest number of requests handled before their responses are committed and sent. */
+  private static final int MAX_GROUP_SIZE = 64;
+
+  /** Handles the requests received by the server. */
+  @FunctionalInterface
+  public interface CommandHandler {
+    /**
+     * Handles one command.
+     *
+     * @param args the arguments of the command, as they would be passed to TaskCLI.main
+     * @param out the stream to write the output of the command to
+     * @return false to stop the server after this command, true to keep serving
+     */
+    boolean handle(String[] args, PrintStream out);
+  }
+
+  /** Makes the changes of a group of handled requests durable before they are answered. */
+  @FunctionalInterface
+  public interface GroupCommit {
+    /**
+     * Commits the changes of the requests handled since the last commit.
+     *
+     * @throws IOException if the changes cannot be made durable
+     */
+    void commit() throws IOException;
+  }
+
+  /**
+   * Sends a command to a running server and copies its output to a stream.
+   *
+   * @param args the arguments of the command
+   * @param out the stream to copy the output to
+   * @return true if a server handled the command, false if no server is running
+   * @throws IOException if the connection fails after the command has been sent
+   */
+  public static boolean forward(String[] args, PrintStream out) throws IOException {
+    Path socket = Path.of(SOCKET_FILE_NAME);
+    if (!Files.exists(socket)) {
+      return false;
+    }
+    SocketChannel channel;
+    try {
+      channel = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+    } catch (IOException e) {
+      return false; // left behind by a server that did not shut down cleanly
+    }
+    try (channel) {
+      OutputStream request = Channels.newOutputStream(channel);
+      request.write(encodeRequest(args).getBytes(StandardCharsets.UTF_8));
+      request.flush();
+      Channels.newInputStream(channel).transferTo(out);
+      out.flush();
+    }
+    return true;
+  }
+
+  /**
+   * Listens on the socket and hands every request to a handler, one at a time, until the handler
+   * asks to stop. Requests are handled sequentially, so the handler needs no synchronization.
+   * Requests that arrive while one is handled form a group with it; the responses of a group are
+   * held back until groupCommit has run.
+   *
+   * @param handler the handler of the requests
+   * @param groupCommit makes the changes of a group durable before the responses are sent
+   * @throws IOException if the socket cannot be created or accepting a connection fails
+   */
+  public static void serve(CommandHandler handler, GroupCommit groupCommit) throws IOException {
+    Path socket = Path.of(SOCKET_FILE_NAME);
+    Files.deleteIfExists(socket);
+    try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+      server.bind(UnixDomainSocketAddress.of(socket));
+      boolean serving = true;
+      List<SocketChannel> clients = new ArrayList<>();
+      List<PrintStream> responses = new ArrayList<>();
+      while (serving) {
+        SocketChannel client = server.accept();
+        while (client != null) {
+          clients.add(client);
+          try {
+            String[] args = decodeRequest(Channels.newInputStream(client));
+            PrintStream out =
+                new PrintStream(
+                    new BufferedOutputStream(Channels.newOutputStream(client), 1 << 16),
+                    false,
+                    StandardCharsets.UTF_8);
+            responses.add(out);
+            serving = args == null || handler.handle(args, out);
+          } catch (IOException e) {
+            e.printStackTrace(); // a client went away; keep serving the others
+          }
+          if (!serving || clients.size() == MAX_GROUP_SIZE) {
+            break;
+          }
+          server.configureBlocking(false);
+          client = server.accept();
+          server.configureBlocking(true);
+        }
+        try {
+          groupCommit.commit();
+        } catch (IOException e) {
+          for (PrintStream out : responses) {
+            e.printStackTrace(out);
+          }
+        }
+        for (PrintStream out : responses) {
+          out.flush();
+        }
+        for (SocketChannel done : clients) {
+          done.close();
+        }
+        clients.clear();
+        responses.clear();
+      }
+    } finally {
+      Files.deleteIfExists(socket);
+    }
+  }
+
+  /**
+   * Encodes the arguments of a command as a request.
+   *
+   * @param args the arguments of the command
+   * @return the text of the request
+   */
+  private static String encodeRequest(String[] args) {
+    StringBuilder request = new StringBuilder();
+    for (String arg : args) {
+      request.append(arg.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+    }
+    return request.append('\n').toString();
+  }
+
+  /**
+   * Reads a request and decodes the arguments of the command.
+   *
+   * @param in the stream to read the request from
+   * @return the arguments of the command, or null if the client sent no complete request
+   * @throws IOException if there is an error reading from the stream
+   */
+  private static String[] decodeRequest(InputStream in) throws IOException {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    List<String> args = new ArrayList<>();
+    String line;
+    while ((line = reader.readLine()) != null && !line.isEmpty()) {
+      StringBuilder arg = new StringBuilder(line.length());
+      for (int i = 0; i < line.length(); i++) {
+        char c = line.charAt(i);
+        if (c == '\\' && i + 1 < line.length()) {
+          c = line.charAt(++i) == 'n' ? '\n' : line.charAt(i);
+        }
+        arg.append(c);
+      }
+      args.add(arg.toString());
+    }
+    return line == null ? null : args.toArray(new String[0]);
+  }
+}
@@ -0,0 +1,284 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * This class describes a task list that is split by ID range across several task files, the
+ * shards, in one directory. The shard numbered k holds the tasks with IDs from k * idsPerShard up
+ * to (k + 1) * idsPerShard, so a change only touches the files of one shard, and reading the shards
+ * in the order of their numbers yields the tasks in ID order. Every shard is an ordinary task file
+ * with its own log, index, lock, search index, and change feed.
+ *
+ * <p>The layout is recorded in the config file: the second line names the directory instead of a
+ * task file, and a third line holds "shards=" followed by the number of IDs per shard. Shard files
+ * are created when the first task of their range is added.
+ *
+ * <p>Besides the lock of each shard, the layout as a whole has a lock of its own. Every process
+ * that may create a shard file holds it shared before it locks any shard, and reshard holds it
+ * exclusively, so no shard can be added to a layout while reshard moves it elsewhere.
+ *
+ * @author Muhammad Almorshidi
+ */
+public class TaskShards {
+  /** The prefix of the config line that records the layout. */
+  private static final String CONFIG_PREFIX = "shards=";
+
+  /** The start of the name of a shard file, which is followed by the shard number. */
+  private static final String SHARD_FILE_PREFIX = "shard-";
+
+  /** The name of a shard file, as a format for the shard number. */
+  private static final String SHARD_FILE_FORMAT =
+      SHARD_FILE_PREFIX + "%06d" + JsonTaskCodec.EXTENSION;
+
+  /** The name the layout as a whole is locked under, relative to its directory. */
+  private static final String LAYOUT_LOCK_NAME = "shards";
+
+  /** The directory that holds the shard files. */
+  private final Path directory;
+
+  /** The number of consecutive IDs each shard holds. */
+  private final int idsPerShard;
+
+  /**
+   * Creates a layout.
+   *
+   * @param directory the directory that holds the shard files
+   * @param idsPerShard the number of consecutive IDs each shard holds
+   * @throws IllegalArgumentException if the number of IDs per shard is not positive
+   */
+  public TaskShards(String directory, int idsPerShard) {
+    if (idsPerShard <= 0) {
+      throw new IllegalArgumentException("The number of IDs per shard must be positive.");
+    }
+    this.directory = Path.of(directory);
+    this.idsPerShard = idsPerShard;
+  }
+
+  /**
+   * Reads a layout from the lines of the config file after the next ID.
+   *
+   * @param directory the second line of the config file
+   * @param layout the third line of the config file, or null if there is none
+   * @return the layout, or null if the task list is a single file
+   */
+  public static TaskShards fromConfig(String directory, String layout) {
+    if (layout == null || !layout.trim().startsWith(CONFIG_PREFIX)) {
+      return null;
+    }
+    return new TaskShards(
+        directory.trim(), Integer.parseInt(layout.trim().substring(CONFIG_PREFIX.length())));
+  }
+
+  /**
+   * Returns the config line that records the layout.
+   *
+   * @return the third line of the config file
+   */
+  public String configLine() {
+    return CONFIG_PREFIX + idsPerShard;
+  }
+
+  /**
+   * Returns the name of the shard file a task belongs to, whether the file exists yet or not.
+   *
+   * @param id the ID of the task
+   * @return the name of the shard file
+   */
+  public String fileFor(int id) {
+    return directory.resolve(String.format(SHARD_FILE_FORMAT, id / idsPerShard)).toString();
+  }
+
+  /**
+   * Returns the name under which the layout as a whole is locked and marked as moved.
+   *
+   * @return the name to pass to TaskFileLock
+   */
+  public String layoutName() {
+    return directory.resolve(LAYOUT_LOCK_NAME).toString();
+  }
+
+  /**
+   * Locks the layout as a whole, creating its directory first if it does not exist.
+   *
+   * @param shared whether a shared lock is enough
+   * @return the held lock, to be closed when done
+   * @throws IOException if there is an error creating the directory or locking the layout
+   */
+  public TaskFileLock lockLayout(boolean shared) throws IOException {
+    Files.createDirectories(directory);
+    return shared ? TaskFileLock.shared(layoutName()) : TaskFileLock.exclusive(layoutName());
+  }
+
+  /**
+   * Returns the name of the shard file a task belongs to, creating the directory and an empty
+   * shard file first if they do not exist. The shard is created under the shared layout lock.
+   *
+   * @param id the ID of the task
+   * @return the name of the shard file
+   * @throws Exception if there is an error creating the directory or the file
+   */
+  public String create(int id) throws Exception {
+    String shardFileName = fileFor(id);
+    if (!Files.exists(Path.of(shardFileName))) {
+      try (TaskFileLock layout = lockLayout(true);
+          TaskFileLock lock = TaskFileLock.exclusive(shardFileName)) {
+        JsonUtil.initJsonFile(shardFileName);
+      }
+    }
+    return shardFileName;
+  }
+
+  /**
+   * Returns the shard files that exist, in ID order. The shard numbers in their names have a fixed
+   * width only up to 999999, so the names are sorted by length first.
+   *
+   * @return the names of the shard files
+   * @throws IOException if there is an error listing the directory
+   */
+  public List<String> files() throws IOException {
+    List<String> files = new ArrayList<>();
+    if (!Files.isDirectory(directory)) {
+      return files;
+    }
+    String pattern = SHARD_FILE_PREFIX + "*" + JsonTaskCodec.EXTENSION;
+    try (DirectoryStream<Path> shards = Files.newDirectoryStream(directory, pattern)) {
+      for (Path shard : shards) {
+        String name = shard.getFileName().toString();
+        String number =
+            name.substring(
+                SHARD_FILE_PREFIX.length(), name.length() - JsonTaskCodec.EXTENSION.length());
+        if (!number.isEmpty() && number.chars().allMatch(c -> c >= '0' && c <= '9')) {
+          files.add(shard.toString());
+        }
+      }
+    }
+    files.sort(Comparator.comparingInt(String::length).thenComparing(Comparator.naturalOrder()));
+    return files;
+  }
+
+  /**
+   * Splits tasks into the shards they belong to.
+   *
+   * @param tasks the tasks, in the order they are to be stored in
+   * @return the tasks of each shard, by shard file name in ID order
+   */
+  public Map<String, List<Task>> partition(Collection<Task> tasks) {
+    Map<String, List<Task>> shards = new TreeMap<>();
+    for (Task task : tasks) {
+      shards.computeIfAbsent(fileFor(task.getId()), key -> new ArrayList<>()).add(task);
+    }
+    return shards;
+  }
+
+  /**
+   * Reads the current tasks of several task files, on up to ParallelTaskLoader.THREADS threads,
+   * and hands them to an action in the order of the files and, within a file, in replay order. The
+   * action itself is always called on the current thread. Only a few files are read ahead of the
+   * one being handed on, so the tasks of the whole list are never held as objects at once.
+   *
+   * @param jsonFileNames the names of the task files
+   * @param action the action to apply to each task
+   * @throws Exception if there is an error reading a file
+   */
+  public static void forEach(List<String> jsonFileNames, Consumer<Task> action) throws Exception {
+    if (ParallelTaskLoader.THREADS <= 1 || jsonFileNames.size() <= 1) {
+      for (String jsonFileName : jsonFileNames) {
+        TaskLog.replay(jsonFileName).values().forEach(action); // so deletions in the log apply
+      }
+      return;
+    }
+    ForkJoinPool pool = new ForkJoinPool(ParallelTaskLoader.THREADS);
+    try {
+      Deque<Future<Collection<Task>>> reads = new ArrayDeque<>();
+      int next = 0;
+      while (next < jsonFileNames.size() || !reads.isEmpty()) {
+        while (next < jsonFileNames.size() && reads.size() < 2 * ParallelTaskLoader.THREADS) {
+          String jsonFileName = jsonFileNames.get(next++);
+          reads.add(pool.submit(() -> TaskLog.replay(jsonFileName).values()));
+        }
+        try {
+          reads.poll().get().forEach(action);
+        } catch (ExecutionException e) {
+          throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Locks several task files, in the order of their names, so that processes locking overlapping
+   * sets of files cannot deadlock.
+   *
+   * @param jsonFileNames the names of the task files
+   * @param shared whether shared locks are enough
+   * @return the held locks, to be closed when done
+   * @throws IOException if there is an error locking a file
+   */
+  public static Locks lock(List<String> jsonFileNames, boolean shared) throws IOException {
+    Locks locks = new Locks();
+    try {
+      for (String jsonFileName : sorted(jsonFileNames)) {
+        locks.held.add(
+            shared ? TaskFileLock.shared(jsonFileName) : TaskFileLock.exclusive(jsonFileName));
+      }
+    } catch (IOException | RuntimeException e) {
+      locks.close();
+      throw e;
+    }
+    return locks;
+  }
+
+  /**
+   * Returns a sorted copy of a list of file names.
+   *
+   * @param names the file names
+   * @return the names in order
+   */
+  private static List<String> sorted(List<String> names) {
+    List<String> sorted = new ArrayList<>(names);
+    sorted.sort(null);
+    return sorted;
+  }
+
+  /** The locks on several task files, released together. */
+  public static class Locks implements AutoCloseable {
+    /** The locks, in the order they were acquired. */
+    private final List<TaskFileLock> held = new ArrayList<>();
+
+    /**
+     * Releases the locks in the reverse order they were acquired.
+     *
+     * @throws IOException if there is an error releasing a lock
+     */
+    @Override
+    public void close() throws IOException {
+      IOException failure = null;
+      for (int i = held.size() - 1; i >= 0; i--) {
+        try {
+          held.get(i).close();
+        } catch (IOException e) {
+          failure = e;
+        }
+      }
+      held.clear();
+      if (failure != null) {
+        throw failure;
+      }
+    }
+  }
+}
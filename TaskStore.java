@@ -0,0 +1,444 @@
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * This class holds a task list in memory in columns of primitives instead of one Task object per
+ * task, for the server and batch, which keep a whole task list loaded. Every task is a row: its ID,
+ * status ordinal, and dates in days since the epoch are elements of parallel arrays, and its
+ * description is a run of UTF-8 bytes in one shared arena. An open-addressing hash table of
+ * primitive ints maps IDs to rows, so neither lookups nor the columns box any value.
+ *
+ * <p>Rows keep the order in which tasks were first added, like TaskLog.replay. Deleting a task only
+ * marks its row, and changing a description appends the new bytes to the arena; the columns and the
+ * arena are compacted once more than half of them is unused.
+ *
+ * <p>Tasks are handed out as copies: every Task returned by get or by the iterator of values is
+ * built from the columns of its row when it is asked for, and is independent of the store from
+ * then on. It can be changed and kept like any Task, and a changed task is stored with put.
+ *
+ * @author Muhammad Almorshidi
+ */
+public class TaskStore {
+  /** The statuses by ordinal, as stored in the status column. */
+  private static final Task.Status[] STATUSES = Task.Status.values();
+
+  /** The status stored for a deleted row. */
+  private static final byte DELETED = -1;
+
+  /** The key of an empty slot in the ID table. */
+  private static final int EMPTY = Integer.MIN_VALUE;
+
+  /** The ID of every row. */
+  private int[] ids = new int[16];
+
+  /** The status ordinal of every row, or DELETED. */
+  private byte[] statuses = new byte[16];
+
+  /** The creation date of every row in days since the epoch, or TaskIndex.NO_DATE. */
+  private int[] createdAt = new int[16];
+
+  /** The update date of every row in days since the epoch, or TaskIndex.NO_DATE. */
+  private int[] updatedAt = new int[16];
+
+  /** The offset of the description of every row in the arena. */
+  private int[] descriptionOffsets = new int[16];
+
+  /** The length of the description of every row in bytes, or -1 for no description. */
+  private int[] descriptionLengths = new int[16];
+
+  /** The number of rows in use, including deleted ones. */
+  private int rows;
+
+  /** The number of tasks, which is rows minus the deleted ones. */
+  private int size;
+
+  /** The UTF-8 bytes of the descriptions. */
+  private byte[] arena = new byte[1024];
+
+  /** The number of bytes of the arena in use, including those no row points to anymore. */
+  private int arenaSize;
+
+  /** The number of bytes of the arena no row points to anymore. */
+  private int arenaGarbage;
+
+  /** The keys of the ID table: the ID in each slot, or EMPTY. */
+  private int[] slotIds = newSlots(16);
+
+  /** The values of the ID table: the row of the ID in each slot. */
+  private int[] slotRows = new int[16];
+
+  /** The number of changes, so that iterators notice a change under them. */
+  private int modifications;
+
+  /**
+   * Loads the current tasks of a task file, copying each task into the columns as soon as it is
+   * read, so that no list of Task objects is kept.
+   *
+   * @param jsonFileName the name of the JSON file
+   * @return the loaded task list
+   * @throws Exception if there is an error reading the task file
+   */
+  public static TaskStore load(String jsonFileName) throws Exception {
+    TaskStore store = new TaskStore();
+    TaskLog.replay(jsonFileName, store::put, store::remove);
+    return store;
+  }
+
+  /**
+   * Loads the current tasks of several task files that hold disjoint ranges of IDs, such as the
+   * shards of a task list, reading the files in parallel.
+   *
+   * @param jsonFileNames the names of the JSON files, in the order their tasks are to be kept in
+   * @return the loaded task list
+   * @throws Exception if there is an error reading a task file
+   */
+  public static TaskStore load(List<String> jsonFileNames) throws Exception {
+    if (jsonFileNames.size() == 1) {
+      return load(jsonFileNames.get(0));
+    }
+    TaskStore store = new TaskStore();
+    TaskShards.forEach(jsonFileNames, store::put);
+    return store;
+  }
+
+  /**
+   * Returns the number of tasks.
+   *
+   * @return the number of tasks
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns a copy of a task.
+   *
+   * @param id the ID of the task
+   * @return a copy of the task, or null if there is no task with this ID
+   */
+  public Task get(int id) {
+    int row = rowOf(id);
+    return row < 0 ? null : task(row);
+  }
+
+  /**
+   * Adds a task, or replaces the task with the same ID in its row.
+   *
+   * @param task the task to store; its fields are copied, so the object is not kept
+   */
+  public void put(Task task) {
+    int row = rowOf(task.getId());
+    if (row < 0) {
+      row = rows;
+      if (row == ids.length) {
+        grow(Math.max(16, row * 2));
+      }
+      rows++;
+      size++;
+      descriptionLengths[row] = -1;
+      insertSlot(task.getId(), row);
+    } else {
+      releaseDescription(row);
+    }
+    ids[row] = task.getId();
+    statuses[row] = (byte) task.getStatus().ordinal();
+    createdAt[row] = TaskIndex.epochDay(task.getCreatedAt());
+    updatedAt[row] = TaskIndex.epochDay(task.getUpdatedAt());
+    storeDescription(row, task.getDescription());
+    modifications++;
+  }
+
+  /**
+   * Deletes a task.
+   *
+   * @param id the ID of the task
+   * @return true if there was a task with this ID
+   */
+  public boolean remove(int id) {
+    int row = rowOf(id);
+    if (row < 0) {
+      return false;
+    }
+    removeSlot(id);
+    releaseDescription(row);
+    statuses[row] = DELETED;
+    size--;
+    modifications++;
+    if (rows > 1024 && size < rows / 2) {
+      compact();
+    }
+    return true;
+  }
+
+  /**
+   * Returns the tasks in row order. The collection reflects the store, and its iterator returns a
+   * copy of each task and fails if the store is changed during the iteration.
+   *
+   * @return the tasks in the order they were first added
+   */
+  public Collection<Task> values() {
+    return new AbstractCollection<>() {
+      @Override
+      public Iterator<Task> iterator() {
+        return new Iterator<>() {
+          private final int expectedModifications = modifications;
+          private int row = skipDeleted(0);
+
+          @Override
+          public boolean hasNext() {
+            return row < rows;
+          }
+
+          @Override
+          public Task next() {
+            if (expectedModifications != modifications) {
+              throw new ConcurrentModificationException();
+            }
+            if (row >= rows) {
+              throw new NoSuchElementException();
+            }
+            Task task = task(row);
+            row = skipDeleted(row + 1);
+            return task;
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  /**
+   * Builds a Task from the columns of a row.
+   *
+   * @param row the row
+   * @return a new Task with the fields of the row
+   */
+  private Task task(int row) {
+    int length = descriptionLengths[row];
+    String description =
+        length < 0
+            ? null
+            : new String(arena, descriptionOffsets[row], length, StandardCharsets.UTF_8);
+    return new Task(
+        ids[row],
+        STATUSES[statuses[row]],
+        toDate(createdAt[row]),
+        toDate(updatedAt[row]),
+        description);
+  }
+
+  /**
+   * Returns the first row at or after a row that is not deleted.
+   *
+   * @param row the row to start at
+   * @return the row, or rows if there is none
+   */
+  private int skipDeleted(int row) {
+    while (row < rows && statuses[row] == DELETED) {
+      row++;
+    }
+    return row;
+  }
+
+  /**
+   * Copies a description into the arena and points a row at it, compacting the arena first if most
+   * of it is garbage.
+   *
+   * @param row the row
+   * @param description the description, or null
+   */
+  private void storeDescription(int row, String description) {
+    if (description == null) {
+      descriptionOffsets[row] = 0;
+      descriptionLengths[row] = -1;
+      return;
+    }
+    byte[] bytes = description.getBytes(StandardCharsets.UTF_8);
+    if (arenaSize + bytes.length > arena.length) {
+      if (arenaGarbage > arenaSize / 2) {
+        compactArena();
+      }
+      if (arenaSize + bytes.length > arena.length) {
+        long capacity = Math.max((long) arena.length * 2, (long) arenaSize + bytes.length);
+        arena = Arrays.copyOf(arena, (int) Math.min(capacity, Integer.MAX_VALUE - 8));
+      }
+    }
+    System.arraycopy(bytes, 0, arena, arenaSize, bytes.length);
+    descriptionOffsets[row] = arenaSize;
+    descriptionLengths[row] = bytes.length;
+    arenaSize += bytes.length;
+  }
+
+  /**
+   * Counts the description of a row as garbage and detaches it from the row.
+   *
+   * @param row the row
+   */
+  private void releaseDescription(int row) {
+    arenaGarbage += Math.max(descriptionLengths[row], 0);
+    descriptionLengths[row] = -1;
+  }
+
+  /** Moves the descriptions of the rows in use to the start of the arena, in row order. */
+  private void compactArena() {
+    byte[] compacted = new byte[arena.length];
+    int used = 0;
+    for (int row = 0; row < rows; row++) {
+      if (statuses[row] != DELETED && descriptionLengths[row] > 0) {
+        System.arraycopy(arena, descriptionOffsets[row], compacted, used, descriptionLengths[row]);
+        descriptionOffsets[row] = used;
+        used += descriptionLengths[row];
+      }
+    }
+    arena = compacted;
+    arenaSize = used;
+    arenaGarbage = 0;
+  }
+
+  /** Drops the deleted rows, keeping the order of the others, and rebuilds the ID table. */
+  private void compact() {
+    int kept = 0;
+    for (int row = 0; row < rows; row++) {
+      if (statuses[row] != DELETED) {
+        ids[kept] = ids[row];
+        statuses[kept] = statuses[row];
+        createdAt[kept] = createdAt[row];
+        updatedAt[kept] = updatedAt[row];
+        descriptionOffsets[kept] = descriptionOffsets[row];
+        descriptionLengths[kept] = descriptionLengths[row];
+        kept++;
+      }
+    }
+    rows = kept;
+    compactArena();
+    slotIds = newSlots(slotIds.length);
+    for (int row = 0; row < rows; row++) {
+      insertSlot(ids[row], row);
+    }
+  }
+
+  /**
+   * Grows the columns.
+   *
+   * @param capacity the new number of rows the columns can hold
+   */
+  private void grow(int capacity) {
+    ids = Arrays.copyOf(ids, capacity);
+    statuses = Arrays.copyOf(statuses, capacity);
+    createdAt = Arrays.copyOf(createdAt, capacity);
+    updatedAt = Arrays.copyOf(updatedAt, capacity);
+    descriptionOffsets = Arrays.copyOf(descriptionOffsets, capacity);
+    descriptionLengths = Arrays.copyOf(descriptionLengths, capacity);
+  }
+
+  /**
+   * Looks up the row of an ID in the ID table.
+   *
+   * @param id the ID
+   * @return the row, or -1 if there is no task with this ID
+   */
+  private int rowOf(int id) {
+    int mask = slotIds.length - 1;
+    for (int slot = hash(id) & mask; slotIds[slot] != EMPTY; slot = (slot + 1) & mask) {
+      if (slotIds[slot] == id) {
+        return slotRows[slot];
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Adds an ID that is not in the ID table yet, growing the table once it is half full.
+   *
+   * @param id the ID
+   * @param row the row of the ID
+   */
+  private void insertSlot(int id, int row) {
+    if (size * 2 > slotIds.length) {
+      int[] oldIds = slotIds;
+      int[] oldRows = slotRows;
+      slotIds = newSlots(oldIds.length * 2);
+      slotRows = new int[oldIds.length * 2];
+      for (int slot = 0; slot < oldIds.length; slot++) {
+        if (oldIds[slot] != EMPTY) {
+          insertSlot(oldIds[slot], oldRows[slot]);
+        }
+      }
+    }
+    int mask = slotIds.length - 1;
+    int slot = hash(id) & mask;
+    while (slotIds[slot] != EMPTY) {
+      slot = (slot + 1) & mask;
+    }
+    slotIds[slot] = id;
+    slotRows[slot] = row;
+  }
+
+  /**
+   * Removes an ID from the ID table, moving back the IDs after it in its probe sequence so that
+   * every lookup still finds its ID without tombstones.
+   *
+   * @param id the ID, which must be in the table
+   */
+  private void removeSlot(int id) {
+    int mask = slotIds.length - 1;
+    int slot = hash(id) & mask;
+    while (slotIds[slot] != id) {
+      slot = (slot + 1) & mask;
+    }
+    for (int next = (slot + 1) & mask; slotIds[next] != EMPTY; next = (next + 1) & mask) {
+      int home = hash(slotIds[next]) & mask;
+      // The entry at next may move to the hole unless its home lies cyclically in (slot, next].
+      if (((next - home) & mask) >= ((next - slot) & mask)) {
+        slotIds[slot] = slotIds[next];
+        slotRows[slot] = slotRows[next];
+        slot = next;
+      }
+    }
+    slotIds[slot] = EMPTY;
+  }
+
+  /**
+   * Returns an empty ID table.
+   *
+   * @param capacity the number of slots, a power of two
+   * @return the keys of the table, all EMPTY
+   */
+  private static int[] newSlots(int capacity) {
+    int[] slots = new int[capacity];
+    Arrays.fill(slots, EMPTY);
+    return slots;
+  }
+
+  /**
+   * Spreads the bits of an ID, so that consecutive IDs do not form long probe sequences.
+   *
+   * @param id the ID
+   * @return the hash of the ID
+   */
+  private static int hash(int id) {
+    int h = id * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Converts a stored day back to a date.
+   *
+   * @param epochDay the days since the epoch, or TaskIndex.NO_DATE
+   * @return the date, or null for NO_DATE
+   */
+  private static LocalDate toDate(int epochDay) {
+    return epochDay == TaskIndex.NO_DATE ? null : LocalDate.ofEpochDay(epochDay);
+  }
+}
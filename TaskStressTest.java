@@ -0,0 +1,377 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * This class checks that concurrent writers in separate processes never lose a change or an ID.
+ * It seeds a task file with counter tasks in a temporary directory and starts several writer
+ * processes on it, each of which runs a fixed random sequence of operations: incrementing the
+ * counter in the description of a task by reading it with its version and appending the change
+ * only if it is unchanged, as the update command does; marking a task in progress or done;
+ * adding a task; and now and then rewriting the config file or compacting the task file.
+ *
+ * <p>Alongside them, a batch reads adds from its standard input, a few milliseconds apart, while
+ * one-off add commands start in processes of their own. The batch holds the lock of the task file
+ * throughout and reserves new blocks of IDs as it goes, while each one-off add reserves its first
+ * ID, so the two kinds of locks are taken in both orders if the code allows it.
+ *
+ * <p>When all processes are done, it replays the same random sequences to work out the expected
+ * result and compares it with the task file: every counter must equal the number of increments of
+ * its task, every task added by a writer, the batch, or a one-off add must be present exactly once,
+ * the number of tasks must be the number of seeded plus added tasks, and the index must have a
+ * version for every task and return the same task as the replayed log. It prints PASS or the
+ * differences and exits with status 1 if there are any, or if a process does not finish in time.
+ *
+ * <p>Usage: java TaskStressTest [writers] [operations], for example {@code java TaskStressTest 8
+ * 500}. The defaults are 4 writers of 200 operations each.
+ *
+ * @author Muhammad Almorshidi
+ */
+public class TaskStressTest {
+  /** The number of counter tasks the file is seeded with. */
+  private static final int COUNTERS = 8;
+
+  /** The seed of the random sequence of the first writer; each further writer adds one. */
+  private static final long SEED = 20240611L;
+
+  /** The prefix of the description of a counter task, followed by its count. */
+  private static final String COUNTER = "counter ";
+
+  /** The name of the task file, relative to the temporary directory. */
+  private static final String TASK_FILE = "taskList.json";
+
+  /** The pause between two adds fed to the batch, in milliseconds. */
+  private static final int BATCH_PAUSE = 10;
+
+  /** The pause between the starts of two one-off adds, in milliseconds. */
+  private static final int ONE_OFF_PAUSE = 200;
+
+  /** How long every process may take, in minutes. */
+  private static final int TIMEOUT = 5;
+
+  /** One operation of a writer, replayed both to run it and to compute the expected result. */
+  @FunctionalInterface
+  private interface Operation {
+    /**
+     * Runs or records one operation.
+     *
+     * @param kind the kind of operation
+     * @param id the ID of the counter task it changes, or 0 if it changes none
+     * @param i the number of the operation within its writer
+     * @throws Exception if the operation fails
+     */
+    void run(String kind, int id, int i) throws Exception;
+  }
+
+  /**
+   * Runs the test, or one writer when started with --writer by the test itself.
+   *
+   * @param args the number of writers and of operations per writer
+   * @throws Exception if the test cannot be set up or a writer fails
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length > 0 && args[0].equals("--writer")) {
+      write(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+      return;
+    }
+    if (args.length > 0 && args[0].equals("--batch")) {
+      batch(Integer.parseInt(args[1]));
+      return;
+    }
+    int writers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+    int operations = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+    Path directory = Files.createTempDirectory("taskstress");
+    try {
+      List<String> failures = run(directory, writers, operations);
+      if (failures.isEmpty()) {
+        System.out.printf("PASS: %d writers, %d operations each%n", writers, operations);
+        return;
+      }
+      for (String failure : failures) {
+        System.out.println("FAIL: " + failure);
+      }
+      System.exit(1);
+    } finally {
+      try (Stream<Path> files = Files.walk(directory)) {
+        files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+      }
+    }
+  }
+
+  /**
+   * Seeds the task file, runs the writer processes on it, and compares the result with the
+   * expected one.
+   *
+   * @param directory the directory to run in
+   * @param writers the number of writer processes
+   * @param operations the number of operations per writer
+   * @return the differences found, empty if the result is as expected
+   * @throws Exception if a file cannot be written or a writer fails
+   */
+  private static List<String> run(Path directory, int writers, int operations) throws Exception {
+    String taskFile = directory.resolve(TASK_FILE).toString();
+    Files.writeString(directory.resolve("config.txt"), (COUNTERS + 1) + "\n" + TASK_FILE);
+    JsonUtil.initJsonFile(taskFile);
+    LocalDate today = LocalDate.now();
+    for (int id = 1; id <= COUNTERS; id++) {
+      Task task = new Task(id, Task.Status.TODO, today, today, COUNTER + 0);
+      TaskLog.append(taskFile, TaskLog.Operation.ADD, task);
+    }
+
+    List<Process> processes = new ArrayList<>();
+    for (int w = 0; w < writers; w++) {
+      String writer = Integer.toString(w);
+      processes.add(
+          start(directory, "TaskStressTest", "--writer", writer, Integer.toString(operations)));
+    }
+    processes.add(start(directory, "TaskStressTest", "--batch", Integer.toString(operations)));
+    List<String> added = new ArrayList<>();
+    for (int k = 0; k < writers; k++) {
+      Thread.sleep(ONE_OFF_PAUSE);
+      processes.add(start(directory, "TaskCLI", "add", oneOffDescription(k)));
+      added.add(oneOffDescription(k));
+    }
+    for (Process process : processes) {
+      if (!process.waitFor(TIMEOUT, TimeUnit.MINUTES)) {
+        processes.forEach(Process::destroyForcibly);
+        return List.of("a process did not finish within " + TIMEOUT + " minutes");
+      }
+      if (process.exitValue() != 0) {
+        throw new Exception("A process failed.");
+      }
+    }
+    for (int i = 0; i < operations; i++) {
+      added.add(batchDescription(i));
+    }
+
+    int[] increments = new int[COUNTERS + 1];
+    for (int w = 0; w < writers; w++) {
+      int writer = w;
+      operations(
+          w,
+          operations,
+          (kind, id, i) -> {
+            if (kind.equals("increment")) {
+              increments[id]++;
+            } else if (kind.equals("add")) {
+              added.add(description(writer, i));
+            }
+          });
+    }
+
+    List<String> failures = new ArrayList<>();
+    Map<Integer, Task> tasks = TaskLog.replay(taskFile);
+    if (tasks.size() != COUNTERS + added.size()) {
+      failures.add(tasks.size() + " tasks instead of " + (COUNTERS + added.size()));
+    }
+    for (int id = 1; id <= COUNTERS; id++) {
+      Task task = tasks.get(id);
+      String actual = task == null ? "missing" : task.getDescription();
+      String expected = COUNTER + increments[id];
+      if (!actual.equals(expected)) {
+        failures.add("task " + id + " is " + actual + " instead of " + expected);
+      }
+    }
+    Map<String, Integer> copies = new HashMap<>();
+    for (Task task : tasks.values()) {
+      copies.merge(task.getDescription(), 1, Integer::sum);
+    }
+    for (String description : added) {
+      if (copies.getOrDefault(description, 0) != 1) {
+        failures.add(
+            "\"" + description + "\" is present " + copies.getOrDefault(description, 0) + " times");
+      }
+    }
+    try (TaskIndex index = TaskIndex.open(taskFile)) {
+      int slots = 0;
+      for (int id = index.firstId(); id < index.capacity(); id++) {
+        if (index.segment(id) == TaskIndex.ABSENT) {
+          continue;
+        }
+        slots++;
+        Task task = tasks.get(id);
+        if (task == null) {
+          failures.add("index has task " + id + ", which the log does not");
+        } else if (index.version(id) <= 0 || index.version(id) > index.sequence()) {
+          failures.add("task " + id + " has version " + index.version(id));
+        } else if (!Task.fromJson(index.read(id)).toString().equals(task.toString())) {
+          failures.add("index returns " + index.read(id) + " for task " + id);
+        }
+      }
+      if (slots != tasks.size()) {
+        failures.add("index has " + slots + " tasks instead of " + tasks.size());
+      }
+    }
+    return failures;
+  }
+
+  /**
+   * Starts a Java process on the classes of this one in the temporary directory, discarding its
+   * output.
+   *
+   * @param directory the directory to run in
+   * @param args the main class and its arguments
+   * @return the started process
+   * @throws IOException if the process cannot be started
+   */
+  private static Process start(Path directory, String... args) throws IOException {
+    List<String> command = new ArrayList<>();
+    command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+    command.add("-cp");
+    List<String> classPath = new ArrayList<>();
+    for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+      classPath.add(new File(entry).getAbsolutePath()); // the processes run in the directory
+    }
+    command.add(String.join(File.pathSeparator, classPath));
+    command.addAll(List.of(args));
+    return new ProcessBuilder(command)
+        .directory(directory.toFile())
+        .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+        .redirectError(ProcessBuilder.Redirect.INHERIT)
+        .start();
+  }
+
+  /**
+   * Runs a batch in the current directory that reads adds from its standard input, where they
+   * arrive a few milliseconds apart.
+   *
+   * @param operations the number of adds
+   * @throws IOException if the pipe cannot be set up
+   */
+  private static void batch(int operations) throws IOException {
+    System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    PipedOutputStream commands = new PipedOutputStream();
+    System.setIn(new PipedInputStream(commands));
+    Thread feeder =
+        new Thread(
+            () -> {
+              try (PrintStream lines = new PrintStream(commands, true)) {
+                for (int i = 0; i < operations; i++) {
+                  lines.println("add \"" + batchDescription(i) + "\"");
+                  Thread.sleep(BATCH_PAUSE);
+                }
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+            });
+    feeder.setDaemon(true); // a batch that stops early leaves it blocked on the pipe
+    feeder.start();
+    TaskCLI.main(new String[] {"batch"});
+  }
+
+  /**
+   * Runs the operations of one writer in the current directory.
+   *
+   * @param writer the number of the writer
+   * @param operations the number of operations
+   * @throws Exception if an operation fails
+   */
+  private static void write(int writer, int operations) throws Exception {
+    System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    String taskFile = Path.of(TASK_FILE).toAbsolutePath().toString();
+    operations(
+        writer,
+        operations,
+        (kind, id, i) -> {
+          switch (kind) {
+            case "increment" -> increment(taskFile, id);
+            case "add" -> TaskCLI.main(new String[] {"add", description(writer, i)});
+            case "config" -> TaskCLI.main(new String[] {"config", TASK_FILE});
+            case "compact" -> TaskCLI.main(new String[] {"compact"});
+            default -> TaskCLI.main(new String[] {kind, Integer.toString(id)});
+          }
+        });
+  }
+
+  /**
+   * Increments the counter of a task, retrying until no other writer changed the task in between.
+   *
+   * @param taskFile the name of the task file
+   * @param id the ID of the counter task
+   * @throws Exception if the task cannot be read or written
+   */
+  private static void increment(String taskFile, int id) throws Exception {
+    while (true) {
+      TaskLog.Versioned current = TaskLog.accessVersioned(taskFile, id);
+      Task task = current.task();
+      int count = Integer.parseInt(task.getDescription().substring(COUNTER.length()));
+      task.updateDescription(COUNTER + (count + 1));
+      if (TaskLog.appendIfUnchanged(taskFile, TaskLog.Operation.UPDATE, task, current.version())) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Produces the random sequence of operations of a writer.
+   *
+   * @param writer the number of the writer
+   * @param operations the number of operations
+   * @param operation receives each operation in turn
+   * @throws Exception if an operation fails
+   */
+  private static void operations(int writer, int operations, Operation operation)
+      throws Exception {
+    Random random = new Random(SEED + writer);
+    for (int i = 0; i < operations; i++) {
+      int id = 1 + random.nextInt(COUNTERS);
+      int dice = random.nextInt(100);
+      if (dice < 50) {
+        operation.run("increment", id, i);
+      } else if (dice < 65) {
+        operation.run("mark-in-progress", id, i);
+      } else if (dice < 80) {
+        operation.run("mark-done", id, i);
+      } else if (dice < 95) {
+        operation.run("add", 0, i);
+      } else {
+        operation.run(dice < 98 ? "config" : "compact", 0, i);
+      }
+    }
+  }
+
+  /**
+   * Returns the description of a task added by a writer.
+   *
+   * @param writer the number of the writer
+   * @param i the number of the operation that adds it
+   * @return a description unique to the operation
+   */
+  private static String description(int writer, int i) {
+    return "writer " + writer + " add " + i;
+  }
+
+  /**
+   * Returns the description of a task added by the batch.
+   *
+   * @param i the number of the add within the batch
+   * @return a description unique to the add
+   */
+  private static String batchDescription(int i) {
+    return "batch add " + i;
+  }
+
+  /**
+   * Returns the description of a task added by a one-off add command.
+   *
+   * @param k the number of the command
+   * @return a description unique to the command
+   */
+  private static String oneOffDescription(int k) {
+    return "one-off add " + k;
+  }
+}
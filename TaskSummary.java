@@ -0,0 +1,326 @@
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * This class adds up the figures of the summary command: the number of tasks of each status, the
+ * tasks created and completed on each of the last days and weeks, and the ages of the open tasks. A
+ * task counts as completed on the day it was last updated if it is done, which is the day it was
+ * marked done unless it was changed again afterwards. A task is open if it is to do or in
+ * progress. Weeks start on Monday, and the current day and week are the last ones counted.
+ *
+ * <p>The figures are sums, so they are collected either task by task, from the slots of the task
+ * indexes, or in bulk from the per-day counters the server keeps in its TaskFilterIndex, and
+ * partial summaries of separate parts of a list are merged.
+ *
+ * @author Muhammad Almorshidi
+ */
+public class TaskSummary {
+  /** The number of days listed if nothing else is set. */
+  public static final int DEFAULT_DAYS = 14;
+
+  /** The number of weeks listed if nothing else is set. */
+  public static final int DEFAULT_WEEKS = 8;
+
+  /** The statuses by ordinal. */
+  private static final Task.Status[] STATUSES = Task.Status.values();
+
+  /** The exclusive upper bounds of the age groups of open tasks, in days. */
+  private static final int[] AGE_LIMITS = {1, 8, 31, 91, 366};
+
+  /** The names of the age groups, followed by the group of tasks without a creation date. */
+  private static final String[] AGE_GROUPS = {
+    "under 1 day", "1-7 days", "8-30 days", "31-90 days", "91-365 days", "over 1 year", "no date"
+  };
+
+  /** The number of slots an index must have to be scanned on several threads, in chunks of it. */
+  private static final int CHUNK_SLOTS = 1 << 18;
+
+  /** The current day in days since the epoch. */
+  private final int today;
+
+  /** The first day of the current week in days since the epoch. */
+  private final int thisWeek;
+
+  /** The number of tasks of each status, by ordinal. */
+  private final long[] statusCounts = new long[STATUSES.length];
+
+  /** The tasks created on each of the last days, oldest first. */
+  private final long[] createdPerDay;
+
+  /** The tasks completed on each of the last days, oldest first. */
+  private final long[] completedPerDay;
+
+  /** The tasks created in each of the last weeks, oldest first. */
+  private final long[] createdPerWeek;
+
+  /** The tasks completed in each of the last weeks, oldest first. */
+  private final long[] completedPerWeek;
+
+  /** The open tasks in each age group. */
+  private final long[] openByAge = new long[AGE_GROUPS.length];
+
+  /**
+   * Creates an empty summary.
+   *
+   * @param today the current day
+   * @param days the number of days to count tasks per day for
+   * @param weeks the number of weeks to count tasks per week for
+   * @throws IllegalArgumentException if the number of days or weeks is negative
+   */
+  public TaskSummary(LocalDate today, int days, int weeks) {
+    if (days < 0 || weeks < 0) {
+      throw new IllegalArgumentException("The number of days and weeks must not be negative.");
+    }
+    this.today = (int) today.toEpochDay();
+    this.thisWeek = this.today - today.getDayOfWeek().ordinal();
+    createdPerDay = new long[days];
+    completedPerDay = new long[days];
+    createdPerWeek = new long[weeks];
+    completedPerWeek = new long[weeks];
+  }
+
+  /**
+   * Returns the first day counted per day or per week. Creations and completions before it only
+   * count towards the status counts and ages.
+   *
+   * @return the first day in days since the epoch
+   */
+  public int firstDay() {
+    return Math.min(today - createdPerDay.length + 1, thisWeek - 7 * (createdPerWeek.length - 1));
+  }
+
+  /**
+   * Counts one task.
+   *
+   * @param status the status of the task
+   * @param createdAt its creation date in days since the epoch, or TaskIndex.NO_DATE
+   * @param updatedAt its update date in days since the epoch, or TaskIndex.NO_DATE
+   */
+  public void add(Task.Status status, int createdAt, int updatedAt) {
+    addStatus(status, 1);
+    addCreated(createdAt, 1);
+    if (status == Task.Status.DONE) {
+      addCompleted(updatedAt, 1);
+    } else if (isOpen(status)) {
+      addOpen(createdAt, 1);
+    }
+  }
+
+  /**
+   * Counts tasks of a status.
+   *
+   * @param status the status
+   * @param count the number of tasks
+   */
+  public void addStatus(Task.Status status, long count) {
+    statusCounts[status.ordinal()] += count;
+  }
+
+  /**
+   * Counts tasks created on a day.
+   *
+   * @param day the creation date in days since the epoch, or TaskIndex.NO_DATE
+   * @param count the number of tasks
+   */
+  public void addCreated(int day, long count) {
+    count(createdPerDay, createdPerWeek, day, count);
+  }
+
+  /**
+   * Counts done tasks last updated on a day.
+   *
+   * @param day the update date in days since the epoch, or TaskIndex.NO_DATE
+   * @param count the number of tasks
+   */
+  public void addCompleted(int day, long count) {
+    count(completedPerDay, completedPerWeek, day, count);
+  }
+
+  /**
+   * Counts open tasks created on a day.
+   *
+   * @param createdAt the creation date in days since the epoch, or TaskIndex.NO_DATE
+   * @param count the number of tasks
+   */
+  public void addOpen(int createdAt, long count) {
+    int group = 0;
+    if (createdAt == TaskIndex.NO_DATE) {
+      group = AGE_GROUPS.length - 1;
+    } else {
+      long age = (long) today - createdAt;
+      while (group < AGE_LIMITS.length && age >= AGE_LIMITS[group]) {
+        group++;
+      }
+    }
+    openByAge[group] += count;
+  }
+
+  /**
+   * Returns whether tasks of a status are open, that is still to do or in progress.
+   *
+   * @param status the status
+   * @return true for TODO and IN_PROGRESS
+   */
+  public static boolean isOpen(Task.Status status) {
+    return status == Task.Status.TODO || status == Task.Status.IN_PROGRESS;
+  }
+
+  /**
+   * Adds the figures of another summary over the same days and weeks to this one.
+   *
+   * @param other the other summary
+   */
+  public void merge(TaskSummary other) {
+    add(statusCounts, other.statusCounts);
+    add(createdPerDay, other.createdPerDay);
+    add(completedPerDay, other.completedPerDay);
+    add(createdPerWeek, other.createdPerWeek);
+    add(completedPerWeek, other.completedPerWeek);
+    add(openByAge, other.openByAge);
+  }
+
+  /**
+   * Summarizes task files from the status and dates in the slots of their indexes, without reading
+   * any task. An index with more than CHUNK_SLOTS slots is scanned in chunks on up to
+   * ParallelTaskLoader.THREADS threads, whose partial summaries are then merged. The caller must
+   * hold at least shared locks on the files.
+   *
+   * @param jsonFileNames the names of the task files
+   * @param today the current day
+   * @param days the number of days to count tasks per day for
+   * @param weeks the number of weeks to count tasks per week for
+   * @return the summary
+   * @throws Exception if there is an error reading an index
+   */
+  public static TaskSummary fromIndexes(
+      List<String> jsonFileNames, LocalDate today, int days, int weeks) throws Exception {
+    TaskSummary summary = new TaskSummary(today, days, weeks);
+    ForkJoinPool pool = null;
+    try {
+      for (String jsonFileName : jsonFileNames) {
+        try (TaskIndex index = TaskIndex.open(jsonFileName)) {
+          int first = index.firstId();
+          int end = index.capacity();
+          TaskMetrics.count("lookup.scanned", end - first);
+          if (ParallelTaskLoader.THREADS <= 1 || end - first <= CHUNK_SLOTS) {
+            summary.scan(index, first, end);
+            continue;
+          }
+          if (pool == null) {
+            pool = new ForkJoinPool(ParallelTaskLoader.THREADS);
+          }
+          List<Future<TaskSummary>> parts = new ArrayList<>();
+          for (int from = first; from < end; from += Math.min(CHUNK_SLOTS, end - from)) {
+            int start = from;
+            int stop = from + Math.min(CHUNK_SLOTS, end - from);
+            parts.add(
+                pool.submit(
+                    () -> {
+                      TaskSummary part = new TaskSummary(today, days, weeks);
+                      part.scan(index, start, stop);
+                      return part;
+                    }));
+          }
+          for (Future<TaskSummary> part : parts) {
+            try {
+              summary.merge(part.get());
+            } catch (ExecutionException e) {
+              throw e.getCause() instanceof Exception cause ? cause : e;
+            }
+          }
+        }
+      }
+    } finally {
+      if (pool != null) {
+        pool.shutdownNow();
+      }
+    }
+    return summary;
+  }
+
+  /**
+   * Writes the summary as a report.
+   *
+   * @param out where to write the report
+   * @throws IOException if there is an error writing the report
+   */
+  public void write(Appendable out) throws IOException {
+    long total = 0;
+    for (long count : statusCounts) {
+      total += count;
+    }
+    out.append(String.format("%-15s%12d%n", "Tasks", total));
+    for (Task.Status status : STATUSES) {
+      out.append(String.format("%-15s%12d%n", status, statusCounts[status.ordinal()]));
+    }
+    if (createdPerDay.length > 0) {
+      out.append(String.format("%n%-15s%12s%12s%n", "Day", "Created", "Completed"));
+      for (int i = 0; i < createdPerDay.length; i++) {
+        LocalDate day = LocalDate.ofEpochDay(today - createdPerDay.length + 1 + i);
+        out.append(String.format("%-15s%12d%12d%n", day, createdPerDay[i], completedPerDay[i]));
+      }
+    }
+    if (createdPerWeek.length > 0) {
+      out.append(String.format("%n%-15s%12s%12s%n", "Week of", "Created", "Completed"));
+      for (int i = 0; i < createdPerWeek.length; i++) {
+        LocalDate week = LocalDate.ofEpochDay(thisWeek - 7L * (createdPerWeek.length - 1 - i));
+        out.append(String.format("%-15s%12d%12d%n", week, createdPerWeek[i], completedPerWeek[i]));
+      }
+    }
+    out.append(String.format("%n%-15s%12s%n", "Age", "Open"));
+    for (int group = 0; group < AGE_GROUPS.length; group++) {
+      out.append(String.format("%-15s%12d%n", AGE_GROUPS[group], openByAge[group]));
+    }
+  }
+
+  /**
+   * Counts the tasks in a range of slots of an index.
+   *
+   * @param index the index
+   * @param from the first ID to count
+   * @param to the ID after the last one to count
+   * @throws IOException if there is an error reading the index
+   */
+  private void scan(TaskIndex index, int from, int to) throws IOException {
+    index.scan(from, to, (id, status, createdAt, updatedAt) -> add(status, createdAt, updatedAt));
+  }
+
+  /**
+   * Counts tasks on a day in the per-day and per-week counts that cover it.
+   *
+   * @param perDay the counts of the last days, oldest first
+   * @param perWeek the counts of the last weeks, oldest first
+   * @param day the day in days since the epoch, or TaskIndex.NO_DATE
+   * @param count the number of tasks
+   */
+  private void count(long[] perDay, long[] perWeek, int day, long count) {
+    if (day == TaskIndex.NO_DATE || day > today) {
+      return;
+    }
+    long daysAgo = (long) today - day;
+    if (daysAgo < perDay.length) {
+      perDay[perDay.length - 1 - (int) daysAgo] += count;
+    }
+    long weeksAgo = Math.floorDiv((long) thisWeek - day + 6, 7);
+    if (weeksAgo < perWeek.length) {
+      perWeek[perWeek.length - 1 - (int) weeksAgo] += count;
+    }
+  }
+
+  /**
+   * Adds counts element by element.
+   *
+   * @param to the counts to add to
+   * @param from the counts to add
+   */
+  private static void add(long[] to, long[] from) {
+    for (int i = 0; i < to.length; i++) {
+      to[i] += from[i];
+    }
+  }
+}